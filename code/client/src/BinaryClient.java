@@ -0,0 +1,848 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.function.BiConsumer;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Client per il protocollo binario del server, alternativo allo scambio di oggetti
+ * serializzati usato da {@link MainTest}.
+ * <p>
+ * Ogni richiesta e ogni risposta è un frame composto da lunghezza del contenuto
+ * (int), tipo (byte) e contenuto; le stringhe sono codificate come lunghezza in
+ * byte seguita dai byte UTF-8. I codici dei frame corrispondono a quelli della
+ * classe {@code server.BinaryProtocol} del server.
+ * <p>
+ * I risultati arrivano come riepilogo dei cluster (centroide, numero di tuple e
+ * distanza media); le tuple di un cluster si leggono a pagine con
+ * {@link #members(int, int, int)}.
+ * <p>
+ * Più richieste possono essere inviate in un solo messaggio con {@link Batch}: il
+ * server le esegue in ordine, calcolando in parallelo i clustering sulla stessa
+ * tabella, e invia ogni risposta appena pronta.
+ * <p>
+ * Con {@link #compress(int, int)} il server comprime le risposte grandi, come le
+ * anteprime e i risultati con molti cluster; {@link #stats()} ne mostra il risparmio.
+ * <p>
+ * I file salvati sul server si scaricano con {@link #download(String, String)}, che
+ * riprende un download interrotto.
+ * <p>
+ * Può essere usato da programma oppure da riga di comando per eseguire un
+ * clustering senza interazione:
+ * {@code java BinaryClient 127.0.0.1 8081 playtennis 0.5}; con più raggi separati
+ * da virgola ({@code 0.5,1,2}) esegue un batch che salva ciascun risultato, altrimenti
+ * salva il risultato in background mentre ne legge la prima pagina di tuple.
+ */
+public class BinaryClient implements Closeable {
+    private static final byte SELECT_TABLE = 0x01;
+    private static final byte CLUSTER = 0x02;
+    private static final byte SAVE = 0x03;
+    private static final byte LOAD_FILE = 0x04;
+    private static final byte SUBMIT = 0x05;
+    private static final byte STATUS = 0x06;
+    private static final byte WAIT = 0x07;
+    private static final byte RESULT = 0x08;
+    private static final byte CANCEL = 0x09;
+    private static final byte GET_SUMMARY = 0x0A;
+    private static final byte GET_MEMBERS = 0x0B;
+    private static final byte BATCH = 0x0C;
+    private static final byte COMPRESS = 0x0D;
+    private static final byte GET_STATS = 0x0E;
+    private static final byte SAVE_ASYNC = 0x0F;
+    private static final byte SAVE_STATUS = 0x10;
+    private static final byte LIST_RESULTS = 0x11;
+    private static final byte DOWNLOAD = 0x12;
+    private static final byte EXPORT = 0x13;
+    private static final byte SCORE = 0x14;
+
+    private static final byte OK = (byte) 0x80;
+    private static final byte ERROR = (byte) 0x81;
+    private static final byte PREVIEW = (byte) 0x82;
+    private static final byte SUMMARY = (byte) 0x83;
+    private static final byte JOB = (byte) 0x84;
+    private static final byte JOB_STATUS = (byte) 0x85;
+    private static final byte MEMBERS = (byte) 0x86;
+    private static final byte TAGGED = (byte) 0x87;
+    private static final byte BATCH_DONE = (byte) 0x88;
+    private static final byte COMPRESSED = (byte) 0x89;
+    private static final byte STATS = (byte) 0x8A;
+    private static final byte SAVE_STATE = (byte) 0x8B;
+    private static final byte CATALOG = (byte) 0x8C;
+    private static final byte FILE_DATA = (byte) 0x8D;
+    private static final byte EXPORTED = (byte) 0x8E;
+    private static final byte SCORED = (byte) 0x8F;
+
+    private static final int DOWNLOAD_BUFFER = 1 << 16;
+
+    private static final String[] STATES = {"IN_CODA", "IN_ESECUZIONE", "COMPLETATO", "ERRORE", "ANNULLATO"};
+    private static final String[] SAVE_STATES = {"IN_CORSO", "COMPLETATO", "ERRORE"};
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private int lastClusterCount;
+    private byte responseType;
+
+    /**
+     * Stabilisce una connessione con la porta binaria del server.
+     *
+     * @param ip   Indirizzo IP del server
+     * @param port Porta del protocollo binario
+     * @throws IOException in caso di errori di rete o creazione socket
+     */
+    public BinaryClient(String ip, int port) throws IOException {
+        socket = new Socket(InetAddress.getByName(ip), port);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /**
+     * Seleziona la tabella da cui ottenere i dati per il clustering.
+     *
+     * @param table   nome della tabella
+     * @param columns colonne separate da virgola, stringa vuota per tutte
+     * @param filter  condizioni separate da {@code AND}, stringa vuota per nessuna
+     * @return l'anteprima della tabella
+     * @throws IOException se avvengono errori di comunicazione
+     * @throws ServerException se il server segnala un errore
+     */
+    public String selectTable(String table, String columns, String filter) throws IOException, ServerException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        DataOutputStream p = new DataOutputStream(b);
+        writeString(p, table);
+        writeString(p, columns);
+        writeString(p, filter);
+        DataInputStream r = request(SELECT_TABLE, b, PREVIEW);
+        return readString(r);
+    }
+
+    /**
+     * Esegue il clustering della tabella selezionata e ne attende il risultato.
+     *
+     * @param radius raggio del clustering
+     * @return il riepilogo dei cluster; il numero di cluster è dato da {@link #getLastClusterCount()}
+     * @throws IOException se avvengono errori di comunicazione
+     * @throws ServerException se il server segnala un errore
+     */
+    public String cluster(double radius) throws IOException, ServerException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        new DataOutputStream(b).writeDouble(radius);
+        return readSummary(request(CLUSTER, b, SUMMARY));
+    }
+
+    /**
+     * Restituisce il riepilogo degli ultimi cluster ottenuti.
+     *
+     * @return il riepilogo dei cluster
+     * @throws IOException se avvengono errori di comunicazione
+     * @throws ServerException se il server segnala un errore
+     */
+    public String summary() throws IOException, ServerException {
+        return readSummary(request(GET_SUMMARY, new ByteArrayOutputStream(), SUMMARY));
+    }
+
+    /**
+     * Restituisce una pagina delle tuple di uno degli ultimi cluster ottenuti.
+     *
+     * @param clusterId identificativo del cluster, come nel riepilogo
+     * @param offset    posizione della prima tupla
+     * @param limit     numero massimo di tuple
+     * @return le tuple della pagina, una per riga, con la distanza dal centroide
+     * @throws IOException se avvengono errori di comunicazione
+     * @throws ServerException se il server segnala un errore
+     */
+    public String members(int clusterId, int offset, int limit) throws IOException, ServerException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        DataOutputStream p = new DataOutputStream(b);
+        p.writeInt(clusterId);
+        p.writeInt(offset);
+        p.writeInt(limit);
+        return readMembers(request(GET_MEMBERS, b, MEMBERS));
+    }
+
+    /**
+     * Invia tutte le richieste di un batch in un solo messaggio e riceve le risposte
+     * nell'ordine in cui il server le produce.
+     *
+     * @param batch       richieste da eseguire
+     * @param stopOnError se {@code true}, dopo il primo errore le richieste restanti non vengono eseguite
+     * @param response    riceve, per ogni richiesta, il suo id e la risposta in forma testuale
+     * @return numero di richieste eseguite dal server
+     * @throws IOException se avvengono errori di comunicazione
+     * @throws ServerException se il server rifiuta il batch
+     */
+    public int execute(Batch batch, boolean stopOnError, BiConsumer<Integer, String> response)
+            throws IOException, ServerException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        DataOutputStream p = new DataOutputStream(b);
+        p.writeBoolean(stopOnError);
+        p.writeInt(batch.count);
+        batch.requests.writeTo(p);
+        send(BATCH, b);
+        while (true) {
+            DataInputStream r = receive();
+            if (responseType == BATCH_DONE) {
+                return r.readInt();
+            }
+            if (responseType == ERROR) {
+                throw new ServerException(readString(r));
+            }
+            if (responseType != TAGGED) {
+                throw new IOException("Risposta inattesa dal server: " + responseType);
+            }
+            int id = r.readInt();
+            byte type = r.readByte();
+            if (type == COMPRESSED) {
+                r = inflate(r);
+                type = responseType;
+            }
+            response.accept(id, describe(type, r));
+        }
+    }
+
+    /**
+     * Chiede al server di comprimere le risposte successive il cui contenuto supera
+     * la soglia indicata.
+     *
+     * @param level     livello di compressione da 1 a 9, 0 per disattivarla, -1 per quello predefinito del server
+     * @param threshold dimensione minima in byte del contenuto da comprimere, -1 per quella predefinita del server
+     * @throws IOException se avvengono errori di comunicazione
+     * @throws ServerException se il server rifiuta i parametri
+     */
+    public void compress(int level, int threshold) throws IOException, ServerException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        DataOutputStream p = new DataOutputStream(b);
+        p.writeByte(level);
+        p.writeInt(threshold);
+        request(COMPRESS, b, OK);
+    }
+
+    /**
+     * Restituisce i contatori del server per questa connessione.
+     *
+     * @return risposte ricevute, byte ricevuti e byte che sarebbero stati ricevuti senza compressione
+     * @throws IOException se avvengono errori di comunicazione
+     * @throws ServerException se il server segnala un errore
+     */
+    public String stats() throws IOException, ServerException {
+        DataInputStream r = request(GET_STATS, new ByteArrayOutputStream(), STATS);
+        long responses = r.readLong();
+        long plain = r.readLong();
+        long sent = r.readLong();
+        String str = "Risposte: " + responses + ", byte ricevuti: " + sent + " (" + plain + " senza compressione";
+        return plain == 0 ? str + ")" : str + ", risparmio " + Math.round(100.0 * (plain - sent) / plain) + "%)";
+    }
+
+    /**
+     * Descrive in forma testuale la risposta a una richiesta di un batch.
+     */
+    private String describe(byte type, DataInputStream r) throws IOException {
+        switch (type) {
+            case OK:
+                return "OK";
+            case ERROR:
+                return readString(r);
+            case PREVIEW:
+                return readString(r);
+            case SUMMARY:
+                return readSummary(r);
+            case JOB:
+                return "Job " + r.readLong();
+            case JOB_STATUS:
+                return readStatus(r);
+            case MEMBERS:
+                return readMembers(r);
+            default:
+                return "Risposta sconosciuta: " + type;
+        }
+    }
+
+    private static String readMembers(DataInputStream r) throws IOException {
+        int id = r.readInt();
+        int total = r.readInt();
+        int offset = r.readInt();
+        int count = r.readInt();
+        StringBuilder sb = new StringBuilder();
+        sb.append("Cluster ").append(id).append(": ");
+        if (count == 0) {
+            sb.append("nessuna tupla dalla posizione ").append(offset + 1);
+        } else {
+            sb.append("tuple ").append(offset + 1).append("-").append(offset + count);
+        }
+        sb.append(" di ").append(total).append("\n");
+        for (int i = 0; i < count; i++) {
+            int row = r.readInt();
+            double distance = r.readDouble();
+            sb.append(row).append(": [");
+            int values = r.readInt();
+            for (int j = 0; j < values; j++) {
+                sb.append(readString(r)).append(' ');
+            }
+            sb.append("]");
+            if (!Double.isNaN(distance)) {
+                sb.append(" dist=").append(distance);
+            }
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Salva sul server gli ultimi cluster ottenuti.
+     *
+     * @param filename nome del file sul server
+     * @throws IOException se avvengono errori di comunicazione
+     * @throws ServerException se il server segnala un errore
+     */
+    public void save(String filename) throws IOException, ServerException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        writeString(new DataOutputStream(b), filename);
+        request(SAVE, b, OK);
+    }
+
+    /**
+     * Avvia sul server il salvataggio in background degli ultimi cluster ottenuti.
+     * Il client può intanto inviare altre richieste, ad esempio nuovi clustering.
+     *
+     * @param filename nome del file sul server
+     * @return identificativo del salvataggio
+     * @throws IOException se avvengono errori di comunicazione
+     * @throws ServerException se il server segnala un errore
+     */
+    public long saveAsync(String filename) throws IOException, ServerException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        writeString(new DataOutputStream(b), filename);
+        return request(SAVE_ASYNC, b, JOB).readLong();
+    }
+
+    /**
+     * Restituisce lo stato di un salvataggio in background, attendendone
+     * eventualmente il termine.
+     *
+     * @param id            identificativo del salvataggio
+     * @param timeoutMillis attesa massima in millisecondi, 0 per attendere senza limite,
+     *                      negativo per non attendere
+     * @return stato ed eventuale errore del salvataggio
+     * @throws IOException se avvengono errori di comunicazione
+     * @throws ServerException se il server segnala un errore
+     */
+    public String saveStatus(long id, long timeoutMillis) throws IOException, ServerException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        DataOutputStream p = new DataOutputStream(b);
+        p.writeLong(id);
+        p.writeLong(timeoutMillis);
+        DataInputStream r = request(SAVE_STATUS, b, SAVE_STATE);
+        long saveId = r.readLong();
+        int state = r.readByte();
+        String error = readString(r);
+        String str = "Save " + saveId + " " + (state >= 0 && state < SAVE_STATES.length ? SAVE_STATES[state] : "?");
+        return error.isEmpty() ? str : str + " " + error;
+    }
+
+    /**
+     * Elenca i risultati salvati nel catalogo del server, che li riusa invece di
+     * ricalcolarli.
+     *
+     * @param table tabella di cui elencare i risultati, stringa vuota per tutte
+     * @return un risultato per riga, dal più recentemente usato
+     * @throws IOException se avvengono errori di comunicazione
+     * @throws ServerException se il server segnala un errore
+     */
+    public String listResults(String table) throws IOException, ServerException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        writeString(new DataOutputStream(b), table);
+        DataInputStream r = request(LIST_RESULTS, b, CATALOG);
+        StringBuilder sb = new StringBuilder();
+        int count = r.readInt();
+        for (int i = 0; i < count; i++) {
+            sb.append(readString(r)).append(" [").append(readString(r)).append("] radius=").append(r.readDouble());
+            sb.append(" engine=").append(readString(r)).append(" cluster=").append(r.readInt());
+            sb.append(" checksum=").append(Long.toHexString(r.readLong()));
+            sb.append(" calcolo=").append(r.readLong()).append("ms");
+            sb.append(" creato=").append(Instant.ofEpochMilli(r.readLong()));
+            sb.append(" usato=").append(Instant.ofEpochMilli(r.readLong()));
+            sb.append(" byte=").append(r.readLong()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Scrive in una tabella del database del server l'assegnazione di ogni tupla
+     * degli ultimi cluster calcolati, con la distanza dal centroide.
+     *
+     * @param table     tabella di destinazione
+     * @param replace   {@code true} per sostituire la tabella se esiste già
+     * @param batchSize righe per lotto, 0 per il valore configurato sul server
+     * @return righe scritte e durata della scrittura
+     * @throws IOException se avvengono errori di comunicazione
+     * @throws ServerException se il server segnala un errore
+     */
+    public String export(String table, boolean replace, int batchSize) throws IOException, ServerException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        DataOutputStream p = new DataOutputStream(b);
+        writeString(p, table);
+        p.writeBoolean(replace);
+        p.writeInt(batchSize);
+        DataInputStream r = request(EXPORT, b, EXPORTED);
+        long rows = r.readLong();
+        long millis = r.readLong();
+        return rows + " righe scritte in " + millis + " ms";
+    }
+
+    /**
+     * Assegna sul server tutte le righe di una tabella ai cluster salvati in un file:
+     * ogni riga va al cluster del centroide più vicino entro il raggio, e il risultato
+     * è scritto in un file CSV o in una tabella del database del server.
+     *
+     * @param file    file dei cluster salvati sul server
+     * @param table   tabella da assegnare
+     * @param filter  filtro sulle righe, stringa vuota per tutte
+     * @param radius  raggio, 0 per quello salvato nel file
+     * @param toTable {@code true} per scrivere in una tabella, {@code false} in un file CSV
+     * @param output  nome della tabella o del file di destinazione
+     * @param replace {@code true} per sostituire la destinazione se esiste già
+     * @return righe lette, righe assegnate e durata
+     * @throws IOException se avvengono errori di comunicazione
+     * @throws ServerException se il server segnala un errore
+     */
+    public String score(String file, String table, String filter, double radius, boolean toTable,
+                        String output, boolean replace) throws IOException, ServerException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        DataOutputStream p = new DataOutputStream(b);
+        writeString(p, file);
+        writeString(p, table);
+        writeString(p, filter);
+        p.writeDouble(radius);
+        p.writeBoolean(toTable);
+        writeString(p, output);
+        p.writeBoolean(replace);
+        DataInputStream r = request(SCORE, b, SCORED);
+        long rows = r.readLong();
+        long assigned = r.readLong();
+        long millis = r.readLong();
+        return rows + " righe lette, " + assigned + " assegnate in " + millis + " ms";
+    }
+
+    /**
+     * Scarica un file di cluster salvato sul server. Finché il download non è completo
+     * la dimensione del file sul server viene annotata in {@code <file locale>.size}:
+     * se il download viene interrotto, quello successivo riprende dalla lunghezza del
+     * file locale, così che vengano richiesti solo i byte mancanti. La dimensione
+     * annotata viene inviata con la richiesta e, se il file sul server è cambiato
+     * nel frattempo, il server lo invia dall'inizio e il file locale viene troncato.
+     * Senza annotazione il file locale viene sempre riscritto per intero.
+     * <p>
+     * I byte ricevuti vengono scritti nel file attraverso un buffer diretto di
+     * dimensione fissa, senza mai tenere il file in memoria.
+     *
+     * @param filename  nome del file sul server
+     * @param localFile percorso del file locale
+     * @return dimensione del file sul server, in byte
+     * @throws IOException se avvengono errori di comunicazione o di scrittura del file
+     * @throws ServerException se il server segnala un errore
+     */
+    public long download(String filename, String localFile) throws IOException, ServerException {
+        Path marker = Paths.get(localFile + ".size");
+        long expected = -1;
+        if (Files.exists(marker)) {
+            try {
+                expected = Long.parseLong(new String(Files.readAllBytes(marker), StandardCharsets.UTF_8).trim());
+            } catch (NumberFormatException e) {
+                expected = -1;
+            }
+        }
+        try (FileChannel file = FileChannel.open(Paths.get(localFile),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long offset = expected >= 0 && file.size() <= expected ? file.size() : 0;
+            ByteArrayOutputStream b = new ByteArrayOutputStream();
+            DataOutputStream p = new DataOutputStream(b);
+            writeString(p, filename);
+            p.writeLong(offset);
+            p.writeLong(-1);
+            p.writeLong(offset > 0 ? expected : -1);
+            DataInputStream r = request(DOWNLOAD, b, FILE_DATA);
+            long size = r.readLong();
+            long start = r.readLong();
+            long count = r.readLong();
+            if (size != expected) {
+                Files.write(marker, Long.toString(size).getBytes(StandardCharsets.UTF_8));
+            }
+            file.truncate(start);
+            file.position(start);
+
+            // il canale legge dallo stream bufferizzato, che può già contenere l'inizio del file
+            ReadableByteChannel source = Channels.newChannel(in);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(DOWNLOAD_BUFFER);
+            for (long received = 0; received < count; ) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), count - received));
+                int n = source.read(buffer);
+                if (n < 0) {
+                    throw new EOFException("Connessione chiusa durante il download");
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    file.write(buffer);
+                }
+                received += n;
+            }
+            Files.deleteIfExists(marker);
+            return size;
+        }
+    }
+
+    /**
+     * Carica i cluster da un file del server.
+     *
+     * @param filename nome del file sul server
+     * @return il riepilogo dei cluster
+     * @throws IOException se avvengono errori di comunicazione
+     * @throws ServerException se il server segnala un errore
+     */
+    public String loadFile(String filename) throws IOException, ServerException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        writeString(new DataOutputStream(b), filename);
+        return readSummary(request(LOAD_FILE, b, SUMMARY));
+    }
+
+    /**
+     * Avvia un clustering in background della tabella selezionata.
+     *
+     * @param radius   raggio del clustering
+     * @param priority priorità: 0 alta, 1 normale, 2 bassa
+     * @return identificativo del lavoro
+     * @throws IOException se avvengono errori di comunicazione
+     * @throws ServerException se il server segnala un errore
+     */
+    public long submit(double radius, int priority) throws IOException, ServerException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        DataOutputStream p = new DataOutputStream(b);
+        p.writeDouble(radius);
+        p.writeByte(priority);
+        return request(SUBMIT, b, JOB).readLong();
+    }
+
+    /**
+     * Restituisce lo stato di un lavoro in background.
+     *
+     * @param id identificativo del lavoro
+     * @return stato, avanzamento ed eventuale errore
+     * @throws IOException se avvengono errori di comunicazione
+     * @throws ServerException se il server segnala un errore
+     */
+    public String status(long id) throws IOException, ServerException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        new DataOutputStream(b).writeLong(id);
+        return readStatus(request(STATUS, b, JOB_STATUS));
+    }
+
+    /**
+     * Attende il termine di un lavoro in background.
+     *
+     * @param id            identificativo del lavoro
+     * @param timeoutMillis attesa massima in millisecondi, 0 per attendere senza limite
+     * @return stato, avanzamento ed eventuale errore al termine dell'attesa
+     * @throws IOException se avvengono errori di comunicazione
+     * @throws ServerException se il server segnala un errore
+     */
+    public String waitFor(long id, long timeoutMillis) throws IOException, ServerException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        DataOutputStream p = new DataOutputStream(b);
+        p.writeLong(id);
+        p.writeLong(timeoutMillis);
+        return readStatus(request(WAIT, b, JOB_STATUS));
+    }
+
+    /**
+     * Restituisce il risultato di un lavoro in background completato.
+     *
+     * @param id identificativo del lavoro
+     * @return il riepilogo dei cluster
+     * @throws IOException se avvengono errori di comunicazione
+     * @throws ServerException se il lavoro non è completato o il server segnala un errore
+     */
+    public String result(long id) throws IOException, ServerException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        new DataOutputStream(b).writeLong(id);
+        return readSummary(request(RESULT, b, SUMMARY));
+    }
+
+    /**
+     * Annulla un lavoro in background.
+     *
+     * @param id identificativo del lavoro
+     * @throws IOException se avvengono errori di comunicazione
+     * @throws ServerException se il server segnala un errore
+     */
+    public void cancel(long id) throws IOException, ServerException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        new DataOutputStream(b).writeLong(id);
+        request(CANCEL, b, OK);
+    }
+
+    /**
+     * Restituisce il numero di cluster dell'ultimo risultato ricevuto.
+     *
+     * @return numero di cluster
+     */
+    public int getLastClusterCount() {
+        return lastClusterCount;
+    }
+
+    /**
+     * Chiude la connessione con il server.
+     *
+     * @throws IOException se la chiusura fallisce
+     */
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    /**
+     * Invia un frame di richiesta e legge la risposta, che deve essere del tipo atteso.
+     */
+    private DataInputStream request(byte type, ByteArrayOutputStream payload, byte expected)
+            throws IOException, ServerException {
+        send(type, payload);
+        DataInputStream r = receive();
+        if (responseType == ERROR) {
+            throw new ServerException(readString(r));
+        }
+        if (responseType != expected) {
+            throw new IOException("Risposta inattesa dal server: " + responseType);
+        }
+        return r;
+    }
+
+    private void send(byte type, ByteArrayOutputStream payload) throws IOException {
+        out.writeInt(payload.size());
+        out.writeByte(type);
+        payload.writeTo(out);
+        out.flush();
+    }
+
+    /**
+     * Legge un frame di risposta, il cui tipo resta in {@code responseType}.
+     */
+    private DataInputStream receive() throws IOException {
+        int length = in.readInt();
+        responseType = in.readByte();
+        byte[] body = new byte[length];
+        in.readFully(body);
+        DataInputStream r = new DataInputStream(new ByteArrayInputStream(body));
+        return responseType == COMPRESSED ? inflate(r) : r;
+    }
+
+    /**
+     * Decomprime il contenuto di una risposta compressa, il cui tipo originale resta
+     * in {@code responseType}.
+     */
+    private DataInputStream inflate(DataInputStream r) throws IOException {
+        responseType = r.readByte();
+        byte[] body = new byte[r.readInt()];
+        try (InflaterInputStream z = new InflaterInputStream(r)) {
+            new DataInputStream(z).readFully(body);
+        }
+        return new DataInputStream(new ByteArrayInputStream(body));
+    }
+
+    private String readSummary(DataInputStream r) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int attributes = r.readInt();
+        for (int i = 0; i < attributes; i++) {
+            sb.append(i == 0 ? "Attributi: " : ", ").append(readString(r));
+        }
+        if (attributes > 0) {
+            sb.append("\n");
+        }
+        lastClusterCount = r.readInt();
+        for (int i = 0; i < lastClusterCount; i++) {
+            int id = r.readInt();
+            int size = r.readInt();
+            double avg = r.readDouble();
+            sb.append("Cluster ").append(id).append(": Centroid=(");
+            int values = r.readInt();
+            for (int j = 0; j < values; j++) {
+                sb.append(j > 0 ? " " : "").append(readString(r));
+            }
+            sb.append(") tuple=").append(size);
+            if (!Double.isNaN(avg)) {
+                sb.append(" AvgDistance=").append(avg);
+            }
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+
+    private static String readStatus(DataInputStream r) throws IOException {
+        long id = r.readLong();
+        int state = r.readByte();
+        double progress = r.readDouble();
+        String error = readString(r);
+        String str = "Job " + id + " " + (state >= 0 && state < STATES.length ? STATES[state] : "?")
+                + " " + Math.round(progress * 100) + "%";
+        return error.isEmpty() ? str : str + " " + error;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Sequenza di richieste da inviare in un solo messaggio con
+     * {@link BinaryClient#execute(Batch, boolean, BiConsumer)}. Ogni metodo aggiunge
+     * una richiesta e ne restituisce l'id, con cui sarà etichettata la risposta.
+     */
+    public static class Batch {
+        private final ByteArrayOutputStream requests = new ByteArrayOutputStream();
+        private int count;
+
+        /**
+         * Aggiunge la selezione di una tabella.
+         *
+         * @param table   nome della tabella
+         * @param columns colonne separate da virgola, stringa vuota per tutte
+         * @param filter  condizioni separate da {@code AND}, stringa vuota per nessuna
+         * @return id della richiesta
+         * @throws IOException se la codifica fallisce
+         */
+        public int selectTable(String table, String columns, String filter) throws IOException {
+            ByteArrayOutputStream b = new ByteArrayOutputStream();
+            DataOutputStream p = new DataOutputStream(b);
+            writeString(p, table);
+            writeString(p, columns);
+            writeString(p, filter);
+            return add(SELECT_TABLE, b);
+        }
+
+        /**
+         * Aggiunge un clustering della tabella selezionata.
+         *
+         * @param radius raggio del clustering
+         * @return id della richiesta
+         * @throws IOException se la codifica fallisce
+         */
+        public int cluster(double radius) throws IOException {
+            ByteArrayOutputStream b = new ByteArrayOutputStream();
+            new DataOutputStream(b).writeDouble(radius);
+            return add(CLUSTER, b);
+        }
+
+        /**
+         * Aggiunge il salvataggio degli ultimi cluster ottenuti.
+         *
+         * @param filename nome del file sul server
+         * @return id della richiesta
+         * @throws IOException se la codifica fallisce
+         */
+        public int save(String filename) throws IOException {
+            ByteArrayOutputStream b = new ByteArrayOutputStream();
+            writeString(new DataOutputStream(b), filename);
+            return add(SAVE, b);
+        }
+
+        /**
+         * Aggiunge il caricamento dei cluster da un file del server.
+         *
+         * @param filename nome del file sul server
+         * @return id della richiesta
+         * @throws IOException se la codifica fallisce
+         */
+        public int loadFile(String filename) throws IOException {
+            ByteArrayOutputStream b = new ByteArrayOutputStream();
+            writeString(new DataOutputStream(b), filename);
+            return add(LOAD_FILE, b);
+        }
+
+        /**
+         * Aggiunge la lettura di una pagina delle tuple di un cluster.
+         *
+         * @param clusterId identificativo del cluster
+         * @param offset    posizione della prima tupla
+         * @param limit     numero massimo di tuple
+         * @return id della richiesta
+         * @throws IOException se la codifica fallisce
+         */
+        public int members(int clusterId, int offset, int limit) throws IOException {
+            ByteArrayOutputStream b = new ByteArrayOutputStream();
+            DataOutputStream p = new DataOutputStream(b);
+            p.writeInt(clusterId);
+            p.writeInt(offset);
+            p.writeInt(limit);
+            return add(GET_MEMBERS, b);
+        }
+
+        private int add(byte type, ByteArrayOutputStream payload) throws IOException {
+            DataOutputStream r = new DataOutputStream(requests);
+            r.writeInt(++count);
+            r.writeByte(type);
+            r.writeInt(payload.size());
+            payload.writeTo(r);
+            return count;
+        }
+    }
+
+    /**
+     * Esegue un clustering da riga di comando e ne stampa il risultato. Con più
+     * raggi separati da virgola esegue un unico batch che calcola e salva sul server
+     * un risultato per raggio, nel file {@code <tabella>_<raggio>.dmp}.
+     *
+     * @param args indirizzo IP, porta binaria, tabella, raggio (o raggi separati da
+     *             virgola) e, facoltativi, colonne e filtro
+     */
+    public static void main(String[] args) {
+        if (args.length < 4) {
+            System.out.println("Uso: java BinaryClient <IP> <PORT> <TABELLA> <RAGGIO[,RAGGIO...]> [COLONNE] [FILTRO]");
+            return;
+        }
+        try (BinaryClient client = new BinaryClient(args[0], Integer.parseInt(args[1]))) {
+            client.compress(-1, -1);
+            if (args[3].contains(",")) {
+                Batch batch = new Batch();
+                batch.selectTable(args[2], args.length > 4 ? args[4] : "", args.length > 5 ? args[5] : "");
+                for (String radius : args[3].split(",")) {
+                    batch.cluster(Double.parseDouble(radius.trim()));
+                    batch.save(args[2] + "_" + radius.trim() + ".dmp");
+                }
+                int executed = client.execute(batch, true,
+                        (id, response) -> System.out.println("[" + id + "] " + response));
+                System.out.println("Richieste eseguite: " + executed);
+                System.out.println(client.stats());
+                return;
+            }
+            System.out.println(client.selectTable(args[2], args.length > 4 ? args[4] : "", args.length > 5 ? args[5] : ""));
+            String clusters = client.cluster(Double.parseDouble(args[3]));
+            System.out.println("Numero cluster: " + client.getLastClusterCount());
+            System.out.println(clusters);
+            long save = client.saveAsync(args[2] + "_" + args[3] + ".dmp");
+            if (client.getLastClusterCount() > 0) {
+                System.out.println(client.members(0, 0, 10));
+            }
+            System.out.println(client.saveStatus(save, 0));
+            System.out.print(client.listResults(args[2]));
+            System.out.println(client.stats());
+        } catch (ServerException e) {
+            System.out.println("Errore: " + e.getMessage());
+        } catch (IOException e) {
+            System.out.println("Errore di comunicazione: " + e.getMessage());
+        }
+    }
+}
@@ -82,6 +82,9 @@ public class MainTest {
 
     /**
      * Invia al server il nome della tabella da cui ottenere i dati per il clustering.
+     * <p>Opzionalmente l'utente può restringere il caricamento a un sottoinsieme di
+     * colonne e alle righe che soddisfano un filtro (ad esempio
+     * {@code regione = 'Nord' AND anno >= 2020}); in tal caso viene usato il comando 4.</p>
      *
      * @return il nome della tabella inserito, oppure {@code null} se la tabella non è valida
      * @throws IOException se avvengono errori di comunicazione
@@ -89,10 +92,24 @@ public class MainTest {
      * @throws ServerException se il server segnala un errore (ad esempio tabella non trovata)
      */
     private String sendTableName() throws IOException, ClassNotFoundException, ServerException {
-        out.writeObject(0);
         System.out.print("Nome tabella: ");
         String tableName = Keyboard.readString();
-        out.writeObject(tableName);
+        System.out.print("Colonne separate da virgola (spazio e invio per tutte): ");
+        String columns = Keyboard.readString();
+        System.out.print("Filtro sulle righe (spazio e invio per nessuno): ");
+        String filter = Keyboard.readString();
+        if (columns == null) columns = "";
+        if (filter == null) filter = "";
+
+        if (columns.trim().isEmpty() && filter.trim().isEmpty()) {
+            out.writeObject(0);
+            out.writeObject(tableName);
+        } else {
+            out.writeObject(4);
+            out.writeObject(tableName);
+            out.writeObject(columns);
+            out.writeObject(filter);
+        }
         String result = (String) in.readObject();
         if (!"OK".equals(result)) {
             System.out.println("fail");
@@ -103,7 +120,7 @@ public class MainTest {
                 // System.out.println(dati);
                 return null;
             } else {
-                System.out.println("\nDati tabella:\n" + dati);
+                System.out.println("\nAnteprima tabella:\n" + dati);
                 return tableName;
             }
         }
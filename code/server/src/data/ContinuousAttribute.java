@@ -14,6 +14,7 @@ import java.io.Serializable;
  * 
  */
 public class ContinuousAttribute extends Attribute implements Serializable {
+    private static final long serialVersionUID = 2543101820212005198L;
     private final double min;
     private final double max;
 
@@ -31,6 +32,24 @@ public class ContinuousAttribute extends Attribute implements Serializable {
         this.max = max;
     }
 
+    /**
+     * Restituisce il valore minimo dell'attributo.
+     *
+     * @return valore minimo
+     */
+    double getMin() {
+        return min;
+    }
+
+    /**
+     * Restituisce il valore massimo dell'attributo.
+     *
+     * @return valore massimo
+     */
+    double getMax() {
+        return max;
+    }
+
     /**
      * Restituisce il valore scalato di un dato valore `v`, normalizzato nell'intervallo [0, 1].
      * 
@@ -13,6 +13,7 @@ import java.io.Serializable;
  * 
  */
 public class ContinuousItem extends Item implements Serializable {
+    private static final long serialVersionUID = 3366487892838514818L;
 
 	/**
      * Costruisce un elemento continuo associato a un attributo e a un valore.
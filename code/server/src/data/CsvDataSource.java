@@ -0,0 +1,395 @@
+package data;
+
+import database.EmptySetException;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Sorgente di dati che costruisce un {@link Data} a partire da un file CSV locale,
+ * senza passare per il database.
+ *
+ * <p>La prima riga del file contiene i nomi delle colonne. Una colonna i cui valori
+ * sono tutti numerici diventa un {@link ContinuousAttribute}, con min e max calcolati
+ * sui dati; in caso contrario diventa un {@link DiscreteAttribute} il cui insieme di
+ * valori è dato dai valori distinti della colonna. Come per il caricamento da
+ * database ({@code select distinct}), le righe duplicate vengono scartate.</p>
+ *
+ * <p>Il file viene letto tramite un {@link FileChannel} mappato in memoria e suddiviso
+ * in blocchi: ogni blocco è analizzato da un thread diverso e contiene le righe il cui
+ * primo byte cade al suo interno, in modo che nessuna riga venga spezzata o letta
+ * due volte. I campi possono essere racchiusi tra doppi apici ({@code ""} per
+ * rappresentare un apice all'interno del campo) e contenere separatori e fine riga.
+ * Per riconoscere i fine riga interni a un campo, una prima passata conta in parallelo
+ * gli apici di ogni blocco: dalla loro parità ogni blocco sa se inizia all'interno di
+ * un campo tra apici.</p>
+ *
+ * @see ColumnarDataSource
+ */
+public class CsvDataSource {
+    private static final int MIN_CHUNK_SIZE = 1 << 20;
+    private static final int MAX_LINE_LENGTH = 1 << 20;
+    private final Path path;
+    private final char separator;
+
+    /**
+     * Crea una sorgente CSV con separatore virgola.
+     *
+     * @param fileName percorso del file CSV
+     */
+    public CsvDataSource(String fileName) {
+        this(fileName, ',');
+    }
+
+    /**
+     * Crea una sorgente CSV con il separatore specificato.
+     *
+     * @param fileName percorso del file CSV
+     * @param separator carattere separatore dei campi
+     */
+    public CsvDataSource(String fileName, char separator) {
+        this.path = Paths.get(fileName);
+        this.separator = separator;
+    }
+
+    /**
+     * Legge il file e costruisce il dataset corrispondente, analizzandolo sul pool
+     * comune ({@link ForkJoinPool#commonPool()}).
+     *
+     * @return il dataset letto dal file
+     * @throws IOException se il file non è leggibile o non è un CSV valido
+     * @throws EmptySetException se il file non contiene righe di dati
+     */
+    public Data load() throws IOException, EmptySetException {
+        return load(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Legge il file e costruisce il dataset corrispondente, analizzando i blocchi e
+     * le colonne sull'executor indicato, che non viene chiuso.
+     *
+     * @param executor executor su cui eseguire l'analisi
+     * @return il dataset letto dal file
+     * @throws IOException se il file non è leggibile o non è un CSV valido
+     * @throws EmptySetException se il file non contiene righe di dati
+     */
+    public Data load(ExecutorService executor) throws IOException, EmptySetException {
+        int workers = Runtime.getRuntime().availableProcessors();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0) {
+                throw new EmptySetException();
+            }
+
+            MappedByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, MAX_LINE_LENGTH));
+            int headerEnd = indexOfLineEnd(head, 0, false);
+            if (headerEnd < 0 && size > MAX_LINE_LENGTH) {
+                throw new IOException("Intestazione CSV troppo lunga");
+            }
+            if (headerEnd < 0) {
+                headerEnd = head.limit();
+            }
+            String[] header = parseLine(head, 0, headerEnd);
+            long dataStart = headerEnd + 1L;
+
+            long chunkSize = Math.max(MIN_CHUNK_SIZE, (size - dataStart) / workers + 1);
+            chunkSize = Math.min(chunkSize, Integer.MAX_VALUE - MAX_LINE_LENGTH - 1);
+            List<Callable<Boolean>> parities = new ArrayList<>();
+            for (long start = dataStart; start < size; start += chunkSize) {
+                final long chunkStart = start;
+                final long chunkEnd = Math.min(size, start + chunkSize);
+                parities.add(() -> hasOddQuotes(channel, chunkStart, chunkEnd));
+            }
+            List<Callable<List<String[]>>> tasks = new ArrayList<>();
+            boolean inQuotes = false;
+            int chunk = 0;
+            for (Future<Boolean> f : executor.invokeAll(parities)) {
+                final long chunkStart = dataStart + chunk * chunkSize;
+                final long chunkEnd = Math.min(size, chunkStart + chunkSize);
+                final boolean startsInQuotes = inQuotes;
+                tasks.add(() -> parseChunk(channel, dataStart, chunkStart, chunkEnd, startsInQuotes, header.length));
+                inQuotes ^= f.get();
+                chunk++;
+            }
+
+            List<String[]> rows = new ArrayList<>();
+            for (Future<List<String[]>> f : executor.invokeAll(tasks)) {
+                rows.addAll(f.get());
+            }
+            if (rows.isEmpty()) {
+                throw new EmptySetException();
+            }
+            return buildData(header, rows, executor);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Lettura del file CSV interrotta", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            while (cause instanceof RuntimeException && cause.getCause() != null) {
+                cause = cause.getCause(); // il pool comune incapsula le eccezioni controllate
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Errore durante la lettura del file CSV: " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Indica se l'intervallo {@code [start, end)} contiene un numero dispari di apici.
+     */
+    private static boolean hasOddQuotes(FileChannel channel, long start, long end) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        boolean odd = false;
+        for (int i = 0; i < buffer.limit(); i++) {
+            if (buffer.get(i) == '"') {
+                odd = !odd;
+            }
+        }
+        return odd;
+    }
+
+    /**
+     * Analizza le righe che iniziano all'interno dell'intervallo {@code [start, end)}.
+     *
+     * <p>L'ultima riga del blocco può estendersi oltre {@code end}: per questo la
+     * mappatura comprende anche i {@link #MAX_LINE_LENGTH} byte successivi.</p>
+     *
+     * @param inQuotes {@code true} se {@code start} cade all'interno di un campo tra apici
+     */
+    private List<String[]> parseChunk(FileChannel channel, long dataStart, long start, long end, boolean inQuotes,
+                                      int numberOfColumns) throws IOException {
+        long size = channel.size();
+        long mapStart = start > dataStart ? start - 1 : start;
+        long mapEnd = Math.min(size, end + MAX_LINE_LENGTH);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+
+        int pos = 0;
+        if (start > dataStart) {
+            // la riga a cavallo dell'inizio del blocco appartiene al blocco precedente;
+            // un fine riga non cambia lo stato, che vale quindi anche prima di start
+            if (buffer.get(0) == '\n' && !inQuotes) {
+                pos = 1;
+            } else {
+                int nl = indexOfLineEnd(buffer, 1, inQuotes);
+                if (nl < 0) {
+                    return new ArrayList<>();
+                }
+                pos = nl + 1;
+            }
+        }
+
+        List<String[]> rows = new ArrayList<>();
+        while (mapStart + pos < end) {
+            int lineEnd = indexOfLineEnd(buffer, pos, false);
+            if (lineEnd < 0) {
+                if (mapEnd < size) {
+                    throw new IOException("Riga CSV troppo lunga alla posizione " + (mapStart + pos));
+                }
+                lineEnd = buffer.limit();
+            }
+            String[] fields = parseLine(buffer, pos, lineEnd);
+            if (fields.length == 1 && fields[0].isEmpty()) {
+                pos = lineEnd + 1;
+                continue; // riga vuota
+            }
+            if (fields.length != numberOfColumns) {
+                throw new IOException("Riga CSV con " + fields.length + " campi invece di " + numberOfColumns
+                        + " alla posizione " + (mapStart + pos));
+            }
+            rows.add(fields);
+            pos = lineEnd + 1;
+        }
+        return rows;
+    }
+
+    /**
+     * Restituisce la posizione del primo fine riga esterno ai campi tra apici a partire
+     * da {@code from}, oppure -1 se il buffer termina prima.
+     *
+     * @param inQuotes {@code true} se {@code from} cade all'interno di un campo tra apici
+     */
+    private static int indexOfLineEnd(MappedByteBuffer buffer, int from, boolean inQuotes) {
+        for (int i = from; i < buffer.limit(); i++) {
+            byte b = buffer.get(i);
+            if (b == '"') {
+                inQuotes = !inQuotes;
+            } else if (b == '\n' && !inQuotes) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Suddivide in campi la riga compresa tra {@code from} (incluso) e {@code to} (escluso).
+     *
+     * @throws IOException se un campo tra apici non è chiuso prima della fine del file
+     */
+    private String[] parseLine(MappedByteBuffer buffer, int from, int to) throws IOException {
+        if (to > from && buffer.get(to - 1) == '\r') {
+            to--;
+        }
+        byte[] bytes = new byte[to - from];
+        buffer.get(from, bytes);
+        String line = new String(bytes, StandardCharsets.UTF_8);
+
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean inQuotes = false;
+        for (int i = 0; i < line.length(); i++) {
+            char ch = line.charAt(i);
+            if (inQuotes) {
+                if (ch == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (ch == '"') {
+                    inQuotes = false;
+                } else {
+                    field.append(ch);
+                }
+            } else if (ch == '"') {
+                inQuotes = true;
+            } else if (ch == separator) {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(ch);
+            }
+        }
+        if (inQuotes) {
+            throw new IOException("Campo CSV tra apici non chiuso");
+        }
+        fields.add(field.toString().trim());
+        return fields.toArray(new String[0]);
+    }
+
+    /**
+     * Determina il tipo di ogni colonna, converte i valori e scarta le righe duplicate.
+     * La conversione delle colonne avviene in parallelo, una colonna per task.
+     */
+    private Data buildData(String[] header, List<String[]> rows, ExecutorService executor)
+            throws InterruptedException, ExecutionException {
+        int numberOfAttributes = header.length;
+        double[][] continuousColumns = new double[numberOfAttributes][];
+        String[][] discreteColumns = new String[numberOfAttributes][];
+        Attribute[] attributes = new Attribute[numberOfAttributes];
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int j = 0; j < numberOfAttributes; j++) {
+            final int col = j;
+            tasks.add(() -> {
+                double[] values = toNumericColumn(rows, col);
+                if (values != null) {
+                    double min = Double.POSITIVE_INFINITY;
+                    double max = Double.NEGATIVE_INFINITY;
+                    for (double v : values) {
+                        min = Math.min(min, v);
+                        max = Math.max(max, v);
+                    }
+                    continuousColumns[col] = values;
+                    attributes[col] = new ContinuousAttribute(header[col], col, min, max);
+                } else {
+                    // valori canonici: le righe condividono la stessa istanza di ogni stringa
+                    Map<String, String> canonical = new HashMap<>();
+                    String[] column = new String[rows.size()];
+                    for (int i = 0; i < column.length; i++) {
+                        String value = rows.get(i)[col];
+                        column[i] = canonical.computeIfAbsent(value, v -> v);
+                    }
+                    discreteColumns[col] = column;
+                    attributes[col] = new DiscreteAttribute<String>(header[col], col,
+                            new TreeSet<>(canonical.keySet()).toArray(new String[0]));
+                }
+                return null;
+            });
+        }
+        for (Future<Void> f : executor.invokeAll(tasks)) {
+            f.get();
+        }
+
+        int numberOfExamples = removeDuplicates(rows.size(), continuousColumns, discreteColumns);
+        List<Attribute> attributeSet = new ArrayList<>(Arrays.asList(attributes));
+        return new Data<>(attributeSet, continuousColumns, discreteColumns, numberOfExamples);
+    }
+
+    /**
+     * Converte la colonna indicata in valori numerici.
+     *
+     * @return i valori convertiti, oppure {@code null} se almeno un valore non è numerico
+     */
+    private static double[] toNumericColumn(List<String[]> rows, int col) {
+        double[] values = new double[rows.size()];
+        for (int i = 0; i < values.length; i++) {
+            String value = rows.get(i)[col];
+            if (value.isEmpty()) {
+                return null;
+            }
+            try {
+                values[i] = Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (Double.isNaN(values[i]) || Double.isInfinite(values[i])) {
+                return null;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Compatta le colonne mantenendo solo la prima occorrenza di ogni riga.
+     *
+     * @return numero di righe distinte
+     */
+    private static int removeDuplicates(int numberOfRows, double[][] continuousColumns, String[][] discreteColumns) {
+        int numberOfAttributes = continuousColumns.length;
+        Set<List<Object>> seen = new HashSet<>();
+        int kept = 0;
+        for (int i = 0; i < numberOfRows; i++) {
+            Object[] row = new Object[numberOfAttributes];
+            for (int j = 0; j < numberOfAttributes; j++) {
+                row[j] = continuousColumns[j] != null ? (Object) continuousColumns[j][i] : discreteColumns[j][i];
+            }
+            if (!seen.add(Arrays.asList(row))) {
+                continue;
+            }
+            for (int j = 0; j < numberOfAttributes; j++) {
+                if (continuousColumns[j] != null) {
+                    continuousColumns[j][kept] = continuousColumns[j][i];
+                } else {
+                    discreteColumns[j][kept] = discreteColumns[j][i];
+                }
+            }
+            kept++;
+        }
+        if (kept < numberOfRows) {
+            for (int j = 0; j < numberOfAttributes; j++) {
+                if (continuousColumns[j] != null) {
+                    continuousColumns[j] = Arrays.copyOf(continuousColumns[j], kept);
+                } else {
+                    discreteColumns[j] = Arrays.copyOf(discreteColumns[j], kept);
+                }
+            }
+        }
+        return kept;
+    }
+}
@@ -3,6 +3,7 @@ package data;
 import java.io.*;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import database.*;
 
@@ -14,6 +15,11 @@ import java.util.List;
  * <p>La classe costruisce uno schema di attributi (continui o discreti) e carica
  * i dati distinti dalla tabella indicata. Fornisce metodi per accedere agli esempi,
  * agli attributi e ai valori del dataset.</p>
+ *
+ * <p>I valori sono memorizzati per colonne: un array di {@code double} per ogni
+ * attributo continuo e un array di stringhe per ogni attributo discreto. Oltre che
+ * dal database, un dataset può essere costruito da file locali tramite
+ * {@link CsvDataSource} e {@link ColumnarDataSource}.</p>
  * 
  * @throws SQLException se si verifica un errore nella comunicazione con il database
  * @throws EmptySetException se la tabella non contiene dati
@@ -22,17 +28,41 @@ import java.util.List;
  * 
  */
 public class Data<T extends Attribute> {
-    private List<Example> data = new ArrayList<>();
     private final int numberOfExamples;
     private final List<Attribute> attributeSet;
 
+    /**
+     * Colonne dei valori continui, indicizzate per attributo
+     * ({@code null} in corrispondenza degli attributi discreti).
+     */
+    private final double[][] continuousColumns;
+
+    /**
+     * Colonne dei valori discreti, indicizzate per attributo
+     * ({@code null} in corrispondenza degli attributi continui).
+     */
+    private final String[][] discreteColumns;
+
+    /**
+     * Numero di posizioni occupate negli array delle colonne, condiviso tra le
+     * versioni del dataset prodotte da {@link #append(List)}. Le colonne possono
+     * avere capacità superiore al numero di esempi: solo la versione che ha
+     * occupato per ultima gli array può aggiungere righe senza copiarli.
+     */
+    private final AtomicInteger appendMark;
+
+    /**
+     * Impronta del contenuto, calcolata alla prima richiesta (0 se non ancora calcolata).
+     */
+    private volatile long checksum;
+
     /**
      * Costruisce un dataset a partire dai dati contenuti nella tabella specificata.
      * 
      * <p>La connessione al database viene inizializzata, lo schema degli attributi viene
      * ricavato e per ogni attributo numerico vengono calcolati i valori min e max.
      * Successivamente vengono caricati i dati distinti dalla tabella e memorizzati 
-     * internamente.</p>
+     * internamente per colonne.</p>
      * 
      * @param tableName nome della tabella da cui estrarre i dati
      * @throws SQLException se si verifica un errore SQL
@@ -41,21 +71,40 @@ public class Data<T extends Attribute> {
      * @throws NoValueException se non sono disponibili valori min/max validi per un attributo numerico
      */
     public Data(String tableName) throws SQLException, EmptySetException, DatabaseConnectionException, NoValueException {
+        this(tableName, new TableQuery());
+    }
+
+    /**
+     * Costruisce un dataset a partire dalle sole colonne e righe della tabella
+     * indicate dalla richiesta.
+     *
+     * <p>Proiezione e filtro vengono applicati direttamente nelle query SQL: lo schema
+     * comprende solo le colonne richieste, mentre min/max e valori distinti degli
+     * attributi sono calcolati sulle sole righe che soddisfano il filtro.</p>
+     *
+     * @param tableName nome della tabella da cui estrarre i dati
+     * @param query colonne da caricare e filtro sulle righe
+     * @throws SQLException se si verifica un errore SQL o una colonna richiesta non esiste
+     * @throws EmptySetException se nessuna riga soddisfa il filtro
+     * @throws DatabaseConnectionException se non è possibile aprire la connessione al DB
+     * @throws NoValueException se non sono disponibili valori min/max validi per un attributo numerico
+     */
+    public Data(String tableName, TableQuery query) throws SQLException, EmptySetException, DatabaseConnectionException, NoValueException {
         DbAccess db = new DbAccess();
         db.initConnection();
 
         attributeSet = new ArrayList<>();
 
         try {
-            TableSchema tableSchema = new TableSchema(db, tableName);
+            TableSchema tableSchema = new TableSchema(db, tableName, query);
             TableData tableData = new TableData(db);
 
             for (int i = 0; i < tableSchema.getNumberOfAttributes(); i++) {
                 TableSchema.Column col = tableSchema.getColumn(i);
 
                 if (col.isNumber()) {
-                    Object minObj = tableData.getAggregateColumnValue(tableName, col, QUERY_TYPE.MIN);
-                    Object maxObj = tableData.getAggregateColumnValue(tableName, col, QUERY_TYPE.MAX);
+                    Object minObj = tableData.getAggregateColumnValue(tableName, col, QUERY_TYPE.MIN, query);
+                    Object maxObj = tableData.getAggregateColumnValue(tableName, col, QUERY_TYPE.MAX, query);
 
                     double min;
                     double max;
@@ -69,7 +118,7 @@ public class Data<T extends Attribute> {
 
                     attributeSet.add(new ContinuousAttribute(col.getColumnName(), i, min, max));
                 } else {
-                    Set<Object> distinctValues = tableData.getDistinctColumnValues(tableName, col);
+                    Set<Object> distinctValues = tableData.getDistinctColumnValues(tableName, col, query);
                     String[] valuesArray = new String[distinctValues.size()];
                     int j = 0;
                     for (Object val : distinctValues) {
@@ -80,8 +129,30 @@ public class Data<T extends Attribute> {
                 }
             }
 
-            data = tableData.getDistinctTransazioni(tableName);
+            List<Example> data = tableData.getDistinctTransazioni(tableName, query);
             numberOfExamples = data.size();
+            appendMark = new AtomicInteger(numberOfExamples);
+            continuousColumns = new double[attributeSet.size()][];
+            discreteColumns = new String[attributeSet.size()][];
+            for (int j = 0; j < attributeSet.size(); j++) {
+                if (attributeSet.get(j) instanceof ContinuousAttribute) {
+                    continuousColumns[j] = new double[numberOfExamples];
+                } else {
+                    discreteColumns[j] = new String[numberOfExamples];
+                }
+            }
+
+            int i = 0;
+            for (Example ex : data) { // la lista restituita è una LinkedList: niente accesso posizionale
+                for (int j = 0; j < attributeSet.size(); j++) {
+                    if (continuousColumns[j] != null) {
+                        continuousColumns[j][i] = ((Number) ex.get(j)).doubleValue();
+                    } else {
+                        discreteColumns[j][i] = (String) ex.get(j);
+                    }
+                }
+                i++;
+            }
         } catch (NoValueException e) {
             throw e;
         } finally {
@@ -89,6 +160,124 @@ public class Data<T extends Attribute> {
         }
     }
 
+    /**
+     * Costruisce un dataset a partire da uno schema e da colonne già popolate.
+     *
+     * <p>Utilizzato dalle sorgenti alternative al database (file CSV e file
+     * binari colonnari). Per ogni attributo deve essere valorizzata esattamente
+     * una delle due colonne, coerentemente con il tipo dell'attributo.</p>
+     *
+     * @param attributeSet schema degli attributi
+     * @param continuousColumns colonne dei valori continui ({@code null} per gli attributi discreti)
+     * @param discreteColumns colonne dei valori discreti ({@code null} per gli attributi continui)
+     * @param numberOfExamples numero di esempi presenti nelle colonne
+     */
+    Data(List<Attribute> attributeSet, double[][] continuousColumns, String[][] discreteColumns, int numberOfExamples) {
+        this(attributeSet, continuousColumns, discreteColumns, numberOfExamples, new AtomicInteger(numberOfExamples));
+    }
+
+    /**
+     * Costruisce una versione del dataset che condivide le colonne con le versioni precedenti.
+     */
+    private Data(List<Attribute> attributeSet, double[][] continuousColumns, String[][] discreteColumns,
+                 int numberOfExamples, AtomicInteger appendMark) {
+        this.attributeSet = attributeSet;
+        this.continuousColumns = continuousColumns;
+        this.discreteColumns = discreteColumns;
+        this.numberOfExamples = numberOfExamples;
+        this.appendMark = appendMark;
+    }
+
+    /**
+     * Restituisce una nuova versione del dataset con le righe indicate aggiunte in coda.
+     *
+     * <p>Questo dataset non viene modificato: le nuove righe vengono scritte nella
+     * capacità libera delle colonne, oltre l'ultimo esempio visibile, e solo la
+     * versione restituita le rende visibili. Chi sta ancora leggendo questa versione
+     * non vede quindi mai un dataset aggiornato a metà. Se le colonne sono piene, o
+     * sono già state estese da un'altra versione, vengono copiate con un margine di
+     * crescita.</p>
+     *
+     * <p>Gli attributi vengono allargati quando necessario: min/max degli attributi
+     * continui e insieme dei valori degli attributi discreti. Di ogni {@link Example}
+     * vengono letti solo i primi {@link #getNumberOfAttributes()} valori.</p>
+     *
+     * @param rows righe da aggiungere
+     * @return la nuova versione del dataset
+     */
+    Data<T> append(List<Example> rows) {
+        int n = numberOfExamples;
+        int k = rows.size();
+        int m = attributeSet.size();
+        double[][] cont = continuousColumns;
+        String[][] disc = discreteColumns;
+        AtomicInteger mark = appendMark;
+
+        if (n + k > capacity() || !appendMark.compareAndSet(n, n + k)) {
+            int newCapacity = Math.max(n + k, n + (n >> 1));
+            cont = new double[m][];
+            disc = new String[m][];
+            for (int j = 0; j < m; j++) {
+                if (continuousColumns[j] != null) {
+                    cont[j] = Arrays.copyOf(continuousColumns[j], newCapacity);
+                } else {
+                    disc[j] = Arrays.copyOf(discreteColumns[j], newCapacity);
+                }
+            }
+            mark = new AtomicInteger(n + k);
+        }
+
+        List<Attribute> attributes = new ArrayList<>(attributeSet);
+        for (int j = 0; j < m; j++) {
+            Attribute attr = attributeSet.get(j);
+            if (attr instanceof ContinuousAttribute) {
+                ContinuousAttribute c = (ContinuousAttribute) attr;
+                double min = c.getMin();
+                double max = c.getMax();
+                for (int i = 0; i < k; i++) {
+                    double v = ((Number) rows.get(i).get(j)).doubleValue();
+                    cont[j][n + i] = v;
+                    min = Math.min(min, v);
+                    max = Math.max(max, v);
+                }
+                if (min < c.getMin() || max > c.getMax()) {
+                    attributes.set(j, new ContinuousAttribute(c.getName(), c.getIndex(), min, max));
+                }
+            } else {
+                Map<String, String> dictionary = new HashMap<>();
+                for (Object v : (DiscreteAttribute<?>) attr) {
+                    dictionary.put(v.toString(), v.toString());
+                }
+                int oldSize = dictionary.size();
+                for (int i = 0; i < k; i++) {
+                    String v = (String) rows.get(i).get(j);
+                    disc[j][n + i] = dictionary.computeIfAbsent(v, x -> x);
+                }
+                if (dictionary.size() > oldSize) {
+                    attributes.set(j, new DiscreteAttribute<String>(attr.getName(), attr.getIndex(),
+                            dictionary.keySet().toArray(new String[0])));
+                }
+            }
+        }
+        return new Data<>(attributes, cont, disc, n + k, mark);
+    }
+
+    /**
+     * Restituisce la capacità delle colonne, cioè il numero massimo di esempi
+     * memorizzabili senza copiarle.
+     */
+    private int capacity() {
+        for (int j = 0; j < attributeSet.size(); j++) {
+            if (continuousColumns[j] != null) {
+                return continuousColumns[j].length;
+            }
+            if (discreteColumns[j] != null) {
+                return discreteColumns[j].length;
+            }
+        }
+        return numberOfExamples;
+    }
+
     /**
      * Restituisce il numero di esempi presenti nel dataset.
      *
@@ -98,6 +287,82 @@ public class Data<T extends Attribute> {
         return numberOfExamples;
     }
 
+    /**
+     * Restituisce una stima dell'occupazione in memoria del dataset, in byte.
+     *
+     * <p>La stima considera la capacità delle colonne (8 byte per valore continuo,
+     * un riferimento per valore discreto) e le stringhe dei dizionari, condivise
+     * tra gli esempi.</p>
+     *
+     * @return occupazione stimata in byte
+     */
+    public long getEstimatedSize() {
+        long size = 64;
+        int capacity = capacity();
+        for (int j = 0; j < attributeSet.size(); j++) {
+            if (continuousColumns[j] != null) {
+                size += 16 + 8L * capacity;
+            } else {
+                size += 16 + 4L * capacity;
+                for (Object value : (DiscreteAttribute<?>) attributeSet.get(j)) {
+                    size += 80 + 2L * value.toString().length(); // stringa + nodo del TreeSet
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Restituisce un'impronta a 64 bit del contenuto del dataset: schema, min/max
+     * degli attributi continui e valori di tutti gli esempi.
+     *
+     * <p>Due dataset con la stessa impronta producono, a parità di raggio, lo stesso
+     * clustering. L'impronta viene calcolata una sola volta, alla prima chiamata.</p>
+     *
+     * @return impronta del dataset
+     */
+    public long getChecksum() {
+        long h = checksum;
+        if (h != 0) {
+            return h;
+        }
+        h = 0xcbf29ce484222325L;
+        for (int j = 0; j < attributeSet.size(); j++) {
+            Attribute attr = attributeSet.get(j);
+            h = mix(h, attr.getName().hashCode());
+            if (attr instanceof ContinuousAttribute) {
+                h = mix(h, Double.doubleToLongBits(((ContinuousAttribute) attr).getMin()));
+                h = mix(h, Double.doubleToLongBits(((ContinuousAttribute) attr).getMax()));
+            }
+        }
+        h = mix(h, numberOfExamples);
+        for (int j = 0; j < attributeSet.size(); j++) {
+            if (continuousColumns[j] != null) {
+                double[] column = continuousColumns[j];
+                for (int i = 0; i < numberOfExamples; i++) {
+                    h = mix(h, Double.doubleToLongBits(column[i]));
+                }
+            } else {
+                String[] column = discreteColumns[j];
+                for (int i = 0; i < numberOfExamples; i++) {
+                    h = mix(h, column[i].hashCode());
+                }
+            }
+        }
+        if (h == 0) {
+            h = 1;
+        }
+        checksum = h;
+        return h;
+    }
+
+    /**
+     * Combina un valore nell'impronta (variante a 64 bit di FNV-1a).
+     */
+    private static long mix(long h, long v) {
+        return (h ^ v) * 0x100000001b3L;
+    }
+
     /**
      * Restituisce il numero di attributi nello schema del dataset.
      *
@@ -136,7 +401,33 @@ public class Data<T extends Attribute> {
      * @throws IndexOutOfBoundsException se gli indici sono fuori dal range
      */
     public Object getValue(int exampleIndex, int attributeIndex) {
-        return data.get(exampleIndex).get(attributeIndex);
+        if (exampleIndex < 0 || exampleIndex >= numberOfExamples) {
+            throw new IndexOutOfBoundsException("Esempio " + exampleIndex + " fuori dal range");
+        }
+        if (continuousColumns[attributeIndex] != null) {
+            return continuousColumns[attributeIndex][exampleIndex];
+        }
+        return discreteColumns[attributeIndex][exampleIndex];
+    }
+
+    /**
+     * Restituisce la colonna dei valori dell'attributo continuo indicato.
+     *
+     * @param attributeIndex indice dell'attributo
+     * @return array dei valori, oppure {@code null} se l'attributo è discreto
+     */
+    double[] getContinuousColumn(int attributeIndex) {
+        return continuousColumns[attributeIndex];
+    }
+
+    /**
+     * Restituisce la colonna dei valori dell'attributo discreto indicato.
+     *
+     * @param attributeIndex indice dell'attributo
+     * @return array dei valori, oppure {@code null} se l'attributo è continuo
+     */
+    String[] getDiscreteColumn(int attributeIndex) {
+        return discreteColumns[attributeIndex];
     }
 
     /**
@@ -154,13 +445,12 @@ public class Data<T extends Attribute> {
 
         for (int i = 0; i < attributeSet.size(); i++) {
             Attribute attr = attributeSet.get(i);
-            Object value = data.get(index).get(i);
             Item item;
 
             if (attr instanceof DiscreteAttribute) {
-                item = new DiscreteItem((DiscreteAttribute) attr, (String) value);
+                item = new DiscreteItem((DiscreteAttribute) attr, discreteColumns[i][index]);
             } else if (attr instanceof ContinuousAttribute) {
-                item = new ContinuousItem((ContinuousAttribute) attr, ((Number) value).doubleValue());
+                item = new ContinuousItem((ContinuousAttribute) attr, continuousColumns[i][index]);
             } else {
                 throw new IllegalArgumentException("Tipo di attributo non supportato");
             }
@@ -177,24 +467,24 @@ public class Data<T extends Attribute> {
      * @return rappresentazione a stringa del dataset
      */
     public String toString() {
-        String s = "";
+        StringBuilder sb = new StringBuilder();
         Iterator<Attribute> it = attributeSet.iterator();
         while (it.hasNext()) {
-            s += it.next().getName();
-            if (it.hasNext()) s += ",";
+            sb.append(it.next().getName());
+            if (it.hasNext()) sb.append(",");
         }
-        s += "\n";
+        sb.append("\n");
 
         for (int i = 0; i < getNumberOfExamples(); i++) {
-            s += (i + 1) + ":";
+            sb.append(i + 1).append(":");
             for (int j = 0; j < getNumberOfAttributes(); j++) {
-                s += getValue(i, j);
+                sb.append(getValue(i, j));
                 if (j < getNumberOfAttributes() - 1)
-                    s += ", ";
+                    sb.append(", ");
             }
-            s += "\n";
+            sb.append("\n");
         }
 
-        return s;
+        return sb.toString();
     }
 }
\ No newline at end of file
@@ -17,6 +17,8 @@ import java.util.Iterator;
  * 
  */
 public class DiscreteAttribute<T extends Comparable<T>> extends Attribute implements Iterable<T>, Serializable {
+    private static final long serialVersionUID = 7253028425440250007L;
+
     private TreeSet<T> values;
 
     /**
@@ -15,6 +15,7 @@ import java.io.Serializable;
  * 
  */
 public class DiscreteItem<T extends Comparable<T>> extends Item<T> implements Serializable {
+    private static final long serialVersionUID = -6546736460061811541L;
 
 	/**
      * Costruisce un nuovo {@code DiscreteItem} associato all'attributo e al valore specificati.
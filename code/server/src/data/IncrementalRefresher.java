@@ -0,0 +1,185 @@
+package data;
+
+import database.DatabaseConnectionException;
+import database.DbAccess;
+import database.EmptySetException;
+import database.Example;
+import database.NoValueException;
+import database.TableData;
+import database.TableVersion;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Mantiene aggiornato il dataset di una tabella leggendo solo le tuple nuove o
+ * modificate, invece di ricaricare l'intera tabella.
+ *
+ * <p>L'aggiornamento si basa su una colonna chiave configurata, il cui valore
+ * cresce ad ogni inserimento: ad ogni {@link #refresh()} vengono lette le tuple
+ * con chiave maggiore o uguale all'ultima acquisita, perché più tuple possono avere
+ * la stessa chiave. Le tuple già presenti nel dataset vengono scartate, le altre
+ * vengono aggiunte tramite {@link Data#append(List)}, che allarga min/max e
+ * dizionari degli attributi. Perché anche le tuple
+ * modificate vengano lette, la chiave deve essere un timestamp aggiornato ad ogni
+ * modifica e sempre crescente; con un identificativo autoincrementale le
+ * modifiche non vengono viste.</p>
+ *
+ * <p>Le tuple cancellate e i vecchi valori delle tuple modificate non possono
+ * essere rimossi dal dataset: {@link #isStale(TableVersion)} confronta la crescita
+ * del numero di righe della tabella con le tuple aggiunte e indica quando il dataset
+ * va ricaricato per intero con un nuovo aggiornatore.</p>
+ *
+ * <p>Ogni aggiornamento pubblica una nuova versione immutabile del dataset:
+ * chi ha ottenuto una versione con {@link #current()} continua a vederla
+ * invariata, mentre le richieste successive ricevono quella nuova.</p>
+ */
+public class IncrementalRefresher {
+    private final String tableName;
+    private final String keyColumn;
+    private final AtomicReference<Data> current = new AtomicReference<>();
+    private final Set<List<Object>> knownRows = new HashSet<>();
+    private final long baseRows;
+    private Object lastKey;
+    private long version;
+    private long fetched;
+
+    /**
+     * Crea l'aggiornatore e carica il dataset iniziale tramite la cache di snapshot.
+     *
+     * <p>Il valore massimo della chiave viene letto prima del caricamento: una tupla
+     * inserita nel frattempo viene quindi letta di nuovo al primo aggiornamento e
+     * scartata perché già presente.</p>
+     *
+     * @param tableName nome della tabella
+     * @param keyColumn colonna chiave crescente della tabella
+     * @param snapshots cache da cui caricare il dataset iniziale
+     * @param tableVersion versione della tabella letta prima della creazione
+     * @throws SQLException se si verifica un errore SQL o la colonna chiave non esiste
+     * @throws EmptySetException se la tabella è vuota
+     * @throws DatabaseConnectionException se non è possibile connettersi al database
+     * @throws NoValueException se non sono disponibili valori min/max validi per un attributo numerico
+     */
+    public IncrementalRefresher(String tableName, String keyColumn, TableSnapshotCache snapshots,
+                                TableVersion tableVersion)
+            throws SQLException, EmptySetException, DatabaseConnectionException, NoValueException {
+        this.tableName = tableName;
+        this.keyColumn = keyColumn;
+        this.baseRows = tableVersion.getRowCount();
+
+        DbAccess db = new DbAccess();
+        db.initConnection();
+        try {
+            lastKey = new TableData(db).getMaxKeyValue(tableName, keyColumn);
+        } finally {
+            db.closeConnection();
+        }
+
+        Data data = snapshots.load(tableName, tableVersion);
+        for (int i = 0; i < data.getNumberOfExamples(); i++) {
+            knownRows.add(rowKey(data, i));
+        }
+        current.set(data);
+    }
+
+    /**
+     * Restituisce la versione corrente del dataset.
+     *
+     * @return il dataset più recente pubblicato
+     */
+    public Data current() {
+        return current.get();
+    }
+
+    /**
+     * Restituisce l'occupazione stimata in byte del dataset corrente e delle chiavi
+     * delle tuple note, usate per scartare quelle già presenti.
+     *
+     * @return byte occupati stimati
+     */
+    public synchronized long getEstimatedSize() {
+        Data data = current.get();
+        return data.getEstimatedSize() + knownRows.size() * (72L + 24L * data.getNumberOfAttributes());
+    }
+
+    /**
+     * Restituisce il numero di aggiornamenti pubblicati dalla creazione.
+     *
+     * @return numero di versione del dataset corrente
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Legge le tuple con chiave maggiore o uguale all'ultima acquisita e, se ce ne
+     * sono di nuove, pubblica una nuova versione del dataset.
+     *
+     * @return numero di tuple aggiunte al dataset
+     * @throws SQLException se si verifica un errore SQL
+     * @throws DatabaseConnectionException se non è possibile connettersi al database
+     */
+    public synchronized int refresh() throws SQLException, DatabaseConnectionException {
+        List<Example> rows;
+        DbAccess db = new DbAccess();
+        db.initConnection();
+        try {
+            rows = new TableData(db).getTransazioniAfter(tableName, keyColumn, lastKey);
+        } finally {
+            db.closeConnection();
+        }
+        if (rows.isEmpty()) {
+            return 0;
+        }
+
+        Data data = current.get();
+        int numberOfAttributes = data.getNumberOfAttributes();
+        List<Example> added = new ArrayList<>();
+        for (Example row : rows) {
+            Object[] values = new Object[numberOfAttributes];
+            for (int j = 0; j < numberOfAttributes; j++) {
+                values[j] = row.get(j);
+            }
+            if (knownRows.add(Arrays.asList(values))) {
+                added.add(row);
+            }
+        }
+        lastKey = rows.get(rows.size() - 1).get(numberOfAttributes);
+
+        fetched += added.size();
+        if (!added.isEmpty()) {
+            current.set(data.append(added));
+            version++;
+        }
+        return added.size();
+    }
+
+    /**
+     * Indica se il dataset non rispecchia più la tabella: se le tuple aggiunte dagli
+     * aggiornamenti sono più delle righe aggiunte alla tabella dalla creazione,
+     * alcune erano modifiche di righe esistenti oppure sono state cancellate righe,
+     * e i valori superati sono ancora nel dataset.
+     *
+     * @param tableVersion versione corrente della tabella, letta prima dell'ultimo aggiornamento
+     * @return {@code true} se il dataset va ricaricato per intero
+     */
+    public synchronized boolean isStale(TableVersion tableVersion) {
+        return tableVersion.getRowCount() - baseRows < fetched;
+    }
+
+    /**
+     * Restituisce la chiave di confronto della riga indicata del dataset.
+     */
+    private static List<Object> rowKey(Data data, int index) {
+        Object[] values = new Object[data.getNumberOfAttributes()];
+        for (int j = 0; j < values.length; j++) {
+            values[j] = data.getValue(index, j);
+        }
+        return Arrays.asList(values);
+    }
+}
@@ -18,6 +18,8 @@ import java.io.Serializable;
  * @see Attribute
  */
 abstract public class Item<T> implements Serializable {
+    private static final long serialVersionUID = 7587246663095694485L;
+
     private final Attribute attribute;
     private final T Value;
 
@@ -0,0 +1,198 @@
+package data;
+
+import database.DatabaseConnectionException;
+import database.DbAccess;
+import database.EmptySetException;
+import database.NoValueException;
+import database.TableData;
+import database.TableVersion;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+
+/**
+ * Cache su disco dei dataset caricati dal database, pensata per rendere rapidi
+ * i caricamenti successivi al riavvio del server.
+ *
+ * <p>Ogni tabella caricata viene salvata in un file di snapshot
+ * ({@code <directory>/<tabella>.qts}) composto da un'intestazione versionata,
+ * che riporta il nome e la {@link TableVersion} della tabella al momento del
+ * caricamento, seguita dal contenuto nel formato di {@link ColumnarDataSource}
+ * (schema, min/max, dizionari e colonne primitive).</p>
+ *
+ * <p>Ad ogni richiesta la versione corrente della tabella viene confrontata con
+ * quella dello snapshot: se coincidono il dataset viene letto dal file mappato in
+ * memoria, altrimenti viene ricaricato dal database e lo snapshot viene riscritto.
+ * Uno snapshot illeggibile o di versione diversa viene semplicemente ignorato, e
+ * senza istante di modifica della tabella lo snapshot non viene usato.</p>
+ */
+public class TableSnapshotCache {
+    /**
+     * Numero magico che identifica i file di snapshot ("QTSS").
+     */
+    static final int MAGIC = 0x51545353;
+
+    /**
+     * Versione corrente dell'intestazione degli snapshot.
+     */
+    static final int VERSION = 1;
+
+    private final Path directory;
+
+    /**
+     * Crea una cache di snapshot nella directory indicata.
+     *
+     * @param directory directory in cui salvare gli snapshot (creata se assente)
+     */
+    public TableSnapshotCache(String directory) {
+        this.directory = Paths.get(directory);
+    }
+
+    /**
+     * Restituisce il dataset della tabella, leggendolo dallo snapshot se ancora
+     * valido oppure dal database.
+     *
+     * @param tableName nome della tabella
+     * @return il dataset della tabella
+     * @throws SQLException se si verifica un errore SQL
+     * @throws EmptySetException se la tabella è vuota
+     * @throws DatabaseConnectionException se non è possibile connettersi al database
+     * @throws NoValueException se non sono disponibili valori min/max validi per un attributo numerico
+     */
+    public Data load(String tableName) throws SQLException, EmptySetException, DatabaseConnectionException, NoValueException {
+        return load(tableName, getVersion(tableName));
+    }
+
+    /**
+     * Restituisce il dataset della tabella, confrontando lo snapshot con la versione
+     * indicata, già letta dal chiamante.
+     *
+     * <p>Se la versione non è nota ({@link TableVersion#isKnown()}), ad esempio perché
+     * la tabella è stata modificata nello stesso secondo in cui la versione è stata
+     * letta, lo snapshot non può essere validato: il dataset viene letto dal database
+     * e non viene salvato.</p>
+     *
+     * @param tableName nome della tabella
+     * @param version versione corrente della tabella
+     * @return il dataset della tabella
+     * @throws SQLException se si verifica un errore SQL
+     * @throws EmptySetException se la tabella è vuota
+     * @throws DatabaseConnectionException se non è possibile connettersi al database
+     * @throws NoValueException se non sono disponibili valori min/max validi per un attributo numerico
+     */
+    public Data load(String tableName, TableVersion version)
+            throws SQLException, EmptySetException, DatabaseConnectionException, NoValueException {
+        Path file = version.isKnown() ? snapshotFile(tableName) : null;
+
+        if (file != null && Files.exists(file)) {
+            try {
+                Data data = read(file, tableName, version);
+                if (data != null) {
+                    return data;
+                }
+            } catch (IOException e) {
+                System.err.println("Snapshot non valido per " + tableName + ": " + e.getMessage());
+            }
+        }
+
+        Data data = new Data<>(tableName);
+        if (file != null) {
+            try {
+                write(file, tableName, version, data);
+            } catch (IOException e) {
+                System.err.println("Impossibile salvare lo snapshot di " + tableName + ": " + e.getMessage());
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Legge la versione corrente della tabella dal database.
+     */
+    private static TableVersion getVersion(String tableName) throws SQLException, DatabaseConnectionException {
+        DbAccess db = new DbAccess();
+        db.initConnection();
+        try {
+            return new TableData(db).getTableVersion(tableName);
+        } finally {
+            db.closeConnection();
+        }
+    }
+
+    /**
+     * Restituisce il percorso dello snapshot della tabella, oppure {@code null}
+     * se il nome della tabella non è utilizzabile come nome di file.
+     */
+    private Path snapshotFile(String tableName) {
+        if (!tableName.matches("[A-Za-z0-9_$]+")) {
+            return null;
+        }
+        return directory.resolve(tableName + ".qts");
+    }
+
+    /**
+     * Legge lo snapshot se corrisponde alla tabella e alla versione indicate.
+     *
+     * @return il dataset letto, oppure {@code null} se lo snapshot non è aggiornato
+     */
+    private static Data read(Path file, String tableName, TableVersion version) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // lo stream non va chiuso: chiuderebbe anche il canale
+            DataInputStream header = new DataInputStream(Channels.newInputStream(channel));
+            if (header.readInt() != MAGIC || header.readInt() != VERSION) {
+                return null;
+            }
+            int headerLength = header.readInt();
+            String name = header.readUTF();
+            TableVersion snapshotVersion = new TableVersion(header.readLong(), header.readLong());
+            if (!name.equals(tableName) || !snapshotVersion.equals(version)) {
+                return null;
+            }
+            return ColumnarDataSource.read(channel, headerLength);
+        }
+    }
+
+    /**
+     * Scrive lo snapshot su un file temporaneo e lo sostituisce atomicamente a
+     * quello esistente, così che un lettore concorrente non veda mai un file parziale.
+     */
+    private void write(Path file, String tableName, TableVersion version, Data data) throws IOException {
+        Files.createDirectories(directory);
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        header.writeUTF(tableName);
+        header.writeLong(version.getRowCount());
+        header.writeLong(version.getUpdateTime());
+        header.flush();
+        int headerLength = (12 + headerBytes.size() + 7) & ~7;
+
+        ByteBuffer buffer = ByteBuffer.allocate(headerLength);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(headerLength).put(headerBytes.toByteArray());
+        buffer.clear();
+
+        Path tmp = Files.createTempFile(directory, tableName, ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                ColumnarDataSource.write(data, channel, headerLength);
+                channel.force(true);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -18,6 +18,8 @@ import java.util.Set;
  * @see Data
  */
 public class Tuple implements Serializable {
+    private static final long serialVersionUID = -2543140137988655567L;
+
     private final Item [] tuple;
 
     /**
@@ -81,6 +83,18 @@ public class Tuple implements Serializable {
         return dis;
     }
 
+    /**
+     * Calcola la distanza tra l'item in posizione {@code i} e un valore dello stesso
+     * attributo, ad esempio letto da una riga di una tabella.
+     *
+     * @param i indice dell'item
+     * @param value valore con cui calcolare la distanza
+     * @return distanza tra l'item e il valore
+     */
+    public double getDistance(int i, Object value) {
+        return tuple[i].distance(value);
+    }
+
     /**
      * Calcola la distanza media tra questa tupla e un insieme di tuple,
      * identificate dagli indici forniti.
@@ -0,0 +1,231 @@
+package data;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Codifica binaria di tuple che condividono lo stesso schema, come i centroidi di
+ * un clustering.
+ *
+ * <p>Lo schema (nome e tipo di ogni attributo, min e max degli attributi continui,
+ * dizionario dei valori degli attributi discreti) viene scritto una sola volta; ogni
+ * tupla è poi codificata con valori primitivi: un {@code double} per attributo
+ * continuo e un {@code int}, indice nel dizionario, per attributo discreto. In
+ * lettura le tuple condividono gli stessi oggetti attributo, come quelle prodotte da
+ * {@link Data#getItemSet(int)}.</p>
+ *
+ * @see ColumnarDataSource
+ */
+public class TupleCodec {
+    private static final byte CONTINUOUS = 0;
+    private static final byte DISCRETE = 1;
+
+    private final List<Attribute> attributes;
+    private final List<Map<Object, Integer>> codes = new ArrayList<>();
+    private final List<String[]> dictionaries = new ArrayList<>();
+
+    /**
+     * Crea la codifica per lo schema degli attributi della tupla indicata.
+     *
+     * @param sample tupla da cui ricavare lo schema, {@code null} per uno schema vuoto
+     */
+    public TupleCodec(Tuple sample) {
+        this(attributesOf(sample));
+    }
+
+    private TupleCodec(List<Attribute> attributes) {
+        this.attributes = attributes;
+        for (Attribute attr : attributes) {
+            Map<Object, Integer> map = null;
+            String[] dictionary = null;
+            if (attr instanceof DiscreteAttribute) {
+                map = new HashMap<>();
+                List<String> values = new ArrayList<>();
+                for (Object value : (DiscreteAttribute<?>) attr) {
+                    map.put(value, map.size());
+                    values.add(value.toString());
+                }
+                dictionary = values.toArray(new String[0]);
+            }
+            codes.add(map);
+            dictionaries.add(dictionary);
+        }
+    }
+
+    private static List<Attribute> attributesOf(Tuple sample) {
+        List<Attribute> attributes = new ArrayList<>();
+        if (sample != null) {
+            for (int i = 0; i < sample.getLength(); i++) {
+                attributes.add(sample.get(i).getAttribute());
+            }
+        }
+        return attributes;
+    }
+
+    /**
+     * Restituisce il numero di attributi dello schema.
+     *
+     * @return numero di attributi
+     */
+    public int getNumberOfAttributes() {
+        return attributes.size();
+    }
+
+    /**
+     * Restituisce il nome dell'attributo in posizione {@code j}.
+     *
+     * @param j indice dell'attributo
+     * @return nome dell'attributo
+     */
+    public String getAttributeName(int j) {
+        return attributes.get(j).getName();
+    }
+
+    /**
+     * Indica se l'attributo in posizione {@code j} è continuo.
+     *
+     * @param j indice dell'attributo
+     * @return {@code true} per un attributo continuo, {@code false} per uno discreto
+     */
+    public boolean isContinuous(int j) {
+        return attributes.get(j) instanceof ContinuousAttribute;
+    }
+
+    /**
+     * Restituisce la lunghezza, uguale per tutte le tuple, dei valori scritti da
+     * {@link #write(DataOutput, Tuple)}.
+     *
+     * @return lunghezza in byte dei valori di una tupla
+     */
+    public int getEncodedSize() {
+        int size = 0;
+        for (String[] dictionary : dictionaries) {
+            size += dictionary == null ? 8 : 4;
+        }
+        return size;
+    }
+
+    /**
+     * Scrive lo schema.
+     *
+     * @param out destinazione
+     * @throws IOException se la scrittura fallisce o un attributo non è supportato
+     */
+    public void writeSchema(DataOutput out) throws IOException {
+        out.writeInt(attributes.size());
+        for (int j = 0; j < attributes.size(); j++) {
+            Attribute attr = attributes.get(j);
+            out.writeUTF(attr.getName() == null ? "" : attr.getName());
+            if (attr instanceof ContinuousAttribute) {
+                out.writeByte(CONTINUOUS);
+                out.writeDouble(((ContinuousAttribute) attr).getMin());
+                out.writeDouble(((ContinuousAttribute) attr).getMax());
+            } else if (attr instanceof DiscreteAttribute) {
+                out.writeByte(DISCRETE);
+                String[] dictionary = dictionaries.get(j);
+                out.writeInt(dictionary.length);
+                for (String value : dictionary) {
+                    out.writeUTF(value);
+                }
+            } else {
+                throw new IOException("Tipo di attributo non supportato: " + attr);
+            }
+        }
+    }
+
+    /**
+     * Legge uno schema scritto da {@link #writeSchema(DataOutput)}.
+     *
+     * @param in sorgente
+     * @return la codifica per lo schema letto
+     * @throws IOException se la lettura fallisce o lo schema non è valido
+     */
+    public static TupleCodec readSchema(DataInput in) throws IOException {
+        int numberOfAttributes = in.readInt();
+        if (numberOfAttributes < 0) {
+            throw new IOException("Numero di attributi non valido: " + numberOfAttributes);
+        }
+        List<Attribute> attributes = new ArrayList<>();
+        for (int j = 0; j < numberOfAttributes; j++) {
+            String name = in.readUTF();
+            byte kind = in.readByte();
+            if (kind == CONTINUOUS) {
+                double min = in.readDouble();
+                double max = in.readDouble();
+                attributes.add(new ContinuousAttribute(name, j, min, max));
+            } else if (kind == DISCRETE) {
+                int size = in.readInt();
+                if (size < 0) {
+                    throw new IOException("Dizionario non valido per l'attributo " + name);
+                }
+                String[] values = new String[size];
+                for (int k = 0; k < size; k++) {
+                    values[k] = in.readUTF();
+                }
+                attributes.add(new DiscreteAttribute<String>(name, j, values));
+            } else {
+                throw new IOException("Tipo di attributo sconosciuto: " + kind);
+            }
+        }
+        return new TupleCodec(attributes);
+    }
+
+    /**
+     * Scrive i valori di una tupla con lo schema di questa codifica.
+     *
+     * @param out destinazione
+     * @param tuple tupla da scrivere
+     * @throws IOException se la scrittura fallisce o la tupla non rispetta lo schema
+     */
+    public void write(DataOutput out, Tuple tuple) throws IOException {
+        if (tuple.getLength() != attributes.size()) {
+            throw new IOException("La tupla non rispetta lo schema: " + tuple.getLength() + " attributi");
+        }
+        for (int j = 0; j < attributes.size(); j++) {
+            Object value = tuple.get(j).getValue();
+            Map<Object, Integer> map = codes.get(j);
+            if (map == null) {
+                out.writeDouble(((Number) value).doubleValue());
+            } else {
+                Integer code = map.get(value);
+                if (code == null) {
+                    throw new IOException("Valore '" + value + "' assente dal dizionario dell'attributo "
+                            + attributes.get(j).getName());
+                }
+                out.writeInt(code);
+            }
+        }
+    }
+
+    /**
+     * Legge i valori di una tupla scritta da {@link #write(DataOutput, Tuple)}.
+     *
+     * @param in sorgente
+     * @return la tupla letta
+     * @throws IOException se la lettura fallisce o un valore non è valido
+     */
+    public Tuple read(DataInput in) throws IOException {
+        Tuple tuple = new Tuple(attributes.size());
+        for (int j = 0; j < attributes.size(); j++) {
+            Attribute attr = attributes.get(j);
+            String[] dictionary = dictionaries.get(j);
+            if (dictionary == null) {
+                tuple.add(new ContinuousItem(attr, in.readDouble()), j);
+            } else {
+                int code = in.readInt();
+                if (code < 0 || code >= dictionary.length) {
+                    throw new IOException("Codice " + code + " fuori dal dizionario dell'attributo " + attr.getName());
+                }
+                @SuppressWarnings("unchecked") // i valori degli attributi discreti sono stringhe
+                DiscreteAttribute<String> discrete = (DiscreteAttribute<String>) attr;
+                tuple.add(new DiscreteItem<>(discrete, dictionary[code]), j);
+            }
+        }
+        return tuple;
+    }
+}
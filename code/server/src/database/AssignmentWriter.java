@@ -0,0 +1,243 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Scrive in una tabella del database l'assegnazione delle tuple ai cluster: per
+ * ogni tupla il suo indice, i valori degli attributi, l'indice del cluster e la
+ * distanza dal centroide.
+ *
+ * <p>La tabella di destinazione ha le colonne {@code tuple_id}, una colonna per
+ * attributo con lo stesso nome (DOUBLE per gli attributi numerici, VARCHAR per gli
+ * altri), {@code cluster_id} e {@code distance}. Le righe vengono inserite con un
+ * {@link PreparedStatement} eseguito a lotti di {@code batchSize} righe, che il driver
+ * riscrive in inserimenti con più righe, all'interno di un'unica transazione.</p>
+ *
+ * <p>Le righe vengono scritte in una tabella di appoggio
+ * ({@code <tabella>_tmp_<casuale>}) che, confermata la transazione, prende il nome
+ * della destinazione con {@code RENAME TABLE}; se la destinazione va sostituita, lo
+ * scambio dei nomi avviene in un'unica istruzione e la vecchia tabella viene
+ * eliminata solo dopo. In caso di errore la tabella di appoggio viene eliminata e la
+ * destinazione resta invariata. Poiché MySQL conferma subito le istruzioni DDL, la
+ * destinazione non viene mai eliminata prima che le nuove righe siano scritte. La
+ * destinazione non può coincidere con la tabella da cui provengono le tuple.</p>
+ */
+public class AssignmentWriter implements AutoCloseable {
+	/**
+     * Nome della colonna con l'indice della tupla.
+     */
+	public static final String TUPLE_ID="tuple_id";
+
+	/**
+     * Nome della colonna con l'indice del cluster.
+     */
+	public static final String CLUSTER_ID="cluster_id";
+
+	/**
+     * Nome della colonna con la distanza dal centroide.
+     */
+	public static final String DISTANCE="distance";
+
+	/**
+     * Lunghezza massima di un identificatore MySQL.
+     */
+	private static final int MAX_NAME=64;
+
+	private final Connection conn;
+	private final String table;
+	private final String staging;
+	private final String suffix;
+	private final boolean replace;
+	private final PreparedStatement insert;
+	private final boolean[] numeric;
+	private final int batchSize;
+	private int pending;
+	private long rows;
+	private boolean committed;
+
+	/**
+     * Crea la tabella di appoggio e prepara l'inserimento delle righe.
+     *
+     * @param db accesso al database, con connessione inizializzata
+     * @param table nome della tabella di destinazione
+     * @param source nome della tabella da cui provengono le tuple, che non può essere sostituita
+     * @param columns nomi delle colonne degli attributi
+     * @param numeric per ogni colonna, {@code true} se l'attributo è numerico
+     * @param batchSize numero di righe inviate al database in un solo lotto
+     * @param replace {@code true} per sostituire la tabella se esiste già
+     * @throws SQLException se la tabella esiste già (e {@code replace} è falso) o la
+     *                      tabella di appoggio non può essere creata
+     * @throws IllegalArgumentException se il nome di una tabella o di una colonna non è
+     *                                  valido o la destinazione coincide con la sorgente
+     */
+	public AssignmentWriter(DbAccess db, String table, String source, List<String> columns, boolean[] numeric,
+			int batchSize, boolean replace) throws SQLException {
+		if(batchSize<=0)
+			throw new IllegalArgumentException("Dimensione del lotto non valida: "+batchSize);
+		checkName(table);
+		if(table.length()>MAX_NAME-13)
+			throw new IllegalArgumentException("Nome troppo lungo: "+table);
+		if(table.equalsIgnoreCase(source))
+			throw new IllegalArgumentException("La tabella "+table+" è la tabella di origine delle tuple");
+		this.table=table;
+		this.replace=replace;
+		this.suffix=String.format("%08x", ThreadLocalRandom.current().nextInt());
+		this.staging=table+"_tmp_"+suffix;
+		String create="CREATE TABLE "+staging+" ("+TUPLE_ID+" INT NOT NULL PRIMARY KEY";
+		String insertSql="INSERT INTO "+staging+" ("+TUPLE_ID;
+		for(int i=0;i<columns.size();i++) {
+			checkName(columns.get(i));
+			create+=", "+columns.get(i)+(numeric[i] ? " DOUBLE" : " VARCHAR(255)");
+			insertSql+=", "+columns.get(i);
+		}
+		create+=", "+CLUSTER_ID+" INT NOT NULL, "+DISTANCE+" DOUBLE, INDEX ("+CLUSTER_ID+"))";
+		insertSql+=", "+CLUSTER_ID+", "+DISTANCE+") VALUES (?";
+		for(int i=0;i<columns.size()+2;i++)
+			insertSql+=", ?";
+		insertSql+=")";
+
+		this.conn=db.getConnection();
+		this.numeric=numeric.clone();
+		this.batchSize=batchSize;
+		if(!replace && exists(table))
+			throw new SQLException("La tabella "+table+" esiste già");
+		try(Statement statement=conn.createStatement()) {
+			statement.executeUpdate(create);
+		}
+		try {
+			conn.setAutoCommit(false);
+			insert=conn.prepareStatement(insertSql);
+		} catch(SQLException e) {
+			dropStaging();
+			throw e;
+		}
+	}
+
+	/**
+     * Aggiunge la riga di una tupla, inviando il lotto quando è completo.
+     *
+     * @param tupleId indice della tupla
+     * @param values valori degli attributi, nell'ordine delle colonne
+     * @param clusterId indice del cluster
+     * @param distance distanza dal centroide
+     * @throws SQLException se l'invio del lotto fallisce
+     */
+	public void add(int tupleId, Object[] values, int clusterId, double distance) throws SQLException {
+		int p=1;
+		insert.setInt(p++, tupleId);
+		for(int i=0;i<numeric.length;i++) {
+			Object value=values[i];
+			if(value==null)
+				insert.setNull(p++, numeric[i] ? Types.DOUBLE : Types.VARCHAR);
+			else if(numeric[i])
+				insert.setDouble(p++, ((Number)value).doubleValue());
+			else
+				insert.setString(p++, value.toString());
+		}
+		insert.setInt(p++, clusterId);
+		if(Double.isNaN(distance))
+			insert.setNull(p, Types.DOUBLE);
+		else
+			insert.setDouble(p, distance);
+		insert.addBatch();
+		rows++;
+		if(++pending==batchSize)
+			flush();
+	}
+
+	/**
+     * Restituisce il numero di righe aggiunte.
+     *
+     * @return numero di righe
+     */
+	public long getRows() {
+		return rows;
+	}
+
+	/**
+     * Invia l'ultimo lotto, conferma la transazione e sostituisce la destinazione con
+     * la tabella di appoggio.
+     *
+     * @throws SQLException se l'invio, la conferma o la ridenominazione falliscono, ad
+     *                      esempio se la tabella è stata creata nel frattempo
+     */
+	public void commit() throws SQLException {
+		flush();
+		conn.commit();
+		conn.setAutoCommit(true);
+		try(Statement statement=conn.createStatement()) {
+			if(replace && exists(table)) {
+				String old=table+"_old_"+suffix;
+				statement.executeUpdate("RENAME TABLE "+table+" TO "+old+", "+staging+" TO "+table);
+				committed=true;
+				statement.executeUpdate("DROP TABLE "+old);
+			} else {
+				statement.executeUpdate("RENAME TABLE "+staging+" TO "+table);
+				committed=true;
+			}
+		}
+	}
+
+	/**
+     * Chiude l'inserimento; se la destinazione non è stata sostituita la transazione
+     * viene annullata e la tabella di appoggio eliminata.
+     *
+     * @throws SQLException se la chiusura fallisce
+     */
+	@Override
+	public void close() throws SQLException {
+		try {
+			insert.close();
+			if(!committed) {
+				if(!conn.getAutoCommit())
+					conn.rollback();
+				conn.setAutoCommit(true);
+				dropStaging();
+			}
+		} finally {
+			conn.setAutoCommit(true);
+		}
+	}
+
+	private void dropStaging() throws SQLException {
+		try(Statement statement=conn.createStatement()) {
+			statement.executeUpdate("DROP TABLE IF EXISTS "+staging);
+		}
+	}
+
+	/**
+     * Verifica se la tabella esiste nel database corrente.
+     */
+	private boolean exists(String name) throws SQLException {
+		try(PreparedStatement ps=conn.prepareStatement(
+				"SELECT 1 FROM information_schema.TABLES WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?")) {
+			ps.setString(1, name);
+			try(ResultSet rs=ps.executeQuery()) {
+				return rs.next();
+			}
+		}
+	}
+
+	private void flush() throws SQLException {
+		if(pending>0) {
+			insert.executeBatch();
+			pending=0;
+		}
+	}
+
+	/**
+     * Verifica che il nome sia un identificatore SQL semplice, da poter inserire nel
+     * testo delle istruzioni.
+     */
+	private static void checkName(String name) {
+		if(name==null || !name.matches("[A-Za-z_][A-Za-z0-9_]*"))
+			throw new IllegalArgumentException("Nome non valido: "+name);
+	}
+}
@@ -0,0 +1,109 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Insieme di connessioni al database aperte e riutilizzabili, condiviso da tutti
+ * gli oggetti {@link DbAccess}.
+ *
+ * <p>Una connessione chiusa con {@link DbAccess#closeConnection()} torna nel pool
+ * invece di essere chiusa, fino a {@code qt.db.poolSize} connessioni inattive
+ * (default 8): le richieste successive evitano così il costo di apertura. Prima di
+ * essere riutilizzata, una connessione inattiva da più di {@link #VALIDATE_AFTER_MILLIS}
+ * viene verificata con {@link Connection#isValid(int)}.</p>
+ */
+final class ConnectionPool {
+	/**
+     * Inattività dopo la quale una connessione viene verificata prima dell'uso.
+     */
+	static final long VALIDATE_AFTER_MILLIS=30_000;
+
+	private static final int MAX_IDLE=Integer.getInteger("qt.db.poolSize", 8);
+	private static final Deque<Idle> idle=new ArrayDeque<Idle>();
+
+	private ConnectionPool() {
+	}
+
+	/**
+     * Connessione inattiva con l'istante in cui è tornata nel pool.
+     */
+	private static final class Idle {
+		final Connection conn;
+		final String url;
+		final long since;
+
+		Idle(Connection conn, String url, long since) {
+			this.conn=conn;
+			this.url=url;
+			this.since=since;
+		}
+	}
+
+	/**
+     * Restituisce una connessione inattiva verso l'indirizzo indicato, o ne apre una nuova.
+     *
+     * @param url indirizzo JDBC
+     * @return connessione pronta all'uso, in auto-commit
+     * @throws SQLException se non è possibile aprire la connessione
+     */
+	static Connection acquire(String url) throws SQLException {
+		while(true) {
+			Idle candidate=null;
+			synchronized(idle) {
+				for(Idle i : idle) {
+					if(i.url.equals(url)) {
+						candidate=i;
+						break;
+					}
+				}
+				if(candidate!=null)
+					idle.remove(candidate);
+			}
+			if(candidate==null)
+				return DriverManager.getConnection(url);
+			if(System.currentTimeMillis()-candidate.since<VALIDATE_AFTER_MILLIS || candidate.conn.isValid(2))
+				return candidate.conn;
+			closeQuietly(candidate.conn);
+		}
+	}
+
+	/**
+     * Restituisce una connessione al pool, ripristinando l'auto-commit. La connessione
+     * viene chiusa se il pool è pieno o se non è più utilizzabile.
+     *
+     * @param conn connessione ottenuta da {@link #acquire(String)}
+     * @param url indirizzo JDBC della connessione
+     */
+	static void release(Connection conn, String url) {
+		try {
+			if(conn.isClosed())
+				return;
+			if(!conn.getAutoCommit()) {
+				conn.rollback();
+				conn.setAutoCommit(true);
+			}
+		} catch(SQLException e) {
+			closeQuietly(conn);
+			return;
+		}
+		synchronized(idle) {
+			if(idle.size()<MAX_IDLE) {
+				idle.push(new Idle(conn, url, System.currentTimeMillis()));
+				return;
+			}
+		}
+		closeQuietly(conn);
+	}
+
+	private static void closeQuietly(Connection conn) {
+		try {
+			conn.close();
+		} catch(SQLException e) {
+			// la connessione è comunque inutilizzabile
+		}
+	}
+}
@@ -16,7 +16,9 @@ import java.sql.SQLException;
  * </p>
  *
  * <p>I parametri di connessione (driver, host, porta, database, utente, password)
- * sono predefiniti all'interno della classe.</p>
+ * sono predefiniti all'interno della classe. Le connessioni vengono riutilizzate
+ * tramite un pool condiviso ({@link ConnectionPool}): {@link #closeConnection()} le
+ * restituisce al pool invece di chiuderle.</p>
  *
  * @see java.sql.Connection
  * @see DatabaseConnectionException
@@ -30,12 +32,14 @@ public class DbAccess {
     private final String USER_ID = "MapUser";
     private final String PASSWORD = "map"; 
     private Connection conn; 
+    private String url;
 
     /**
      * Inizializza la connessione al database utilizzando i parametri predefiniti.
      *
-     * <p>Il metodo carica il driver JDBC e crea una connessione
-     * utilizzando {@link DriverManager}.</p>
+     * <p>Il metodo carica il driver JDBC e prende una connessione dal pool, che
+     * se necessario ne crea una nuova con {@link DriverManager}. Gli inserimenti
+     * in batch vengono riscritti dal driver in istruzioni con più righe.</p>
      *
      * @throws DatabaseConnectionException se il driver JDBC non viene trovato
      *         o la connessione non può essere stabilita
@@ -44,9 +48,11 @@ public class DbAccess {
         try {
             Class.forName(DRIVER_CLASS_NAME);
             String connectionString = DBMS + "://" + SERVER + ":" + PORT + "/" + DATABASE
-                + "?user=" + USER_ID + "&password=" + PASSWORD + "&serverTimezone=UTC";
+                + "?user=" + USER_ID + "&password=" + PASSWORD + "&serverTimezone=UTC"
+                + "&rewriteBatchedStatements=true";
 
-            conn = DriverManager.getConnection(connectionString);
+            conn = ConnectionPool.acquire(connectionString);
+            url = connectionString;
         } catch (ClassNotFoundException | SQLException e) {
             throw new DatabaseConnectionException("Errore di connessione al database", e);
         }
@@ -65,7 +71,7 @@ public class DbAccess {
     }
 
     /**
-     * Chiude la connessione al database, se attiva.
+     * Rilascia la connessione al database, se attiva, restituendola al pool.
      *
      * <p>Se la connessione è già chiusa o non è stata inizializzata,
      * il metodo non ha effetto.</p>
@@ -75,8 +81,9 @@ public class DbAccess {
     public void closeConnection() throws DatabaseConnectionException {
         try {
             if (conn != null && !conn.isClosed()) {
-                conn.close();
+                ConnectionPool.release(conn, url);
             }
+            conn = null;
         } catch (SQLException e) {
             throw new DatabaseConnectionException("Errore nella chiusura della connessione", e);
         }
@@ -0,0 +1,102 @@
+package database;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import database.TableSchema.Column;
+
+/**
+ * Lettura in avanti, una riga alla volta, delle righe di una tabella.
+ *
+ * <p>A differenza di {@link TableData#getDistinctTransazioni(String, TableQuery)} le
+ * righe non vengono raccolte in memoria né rese distinte: il driver le trasferisce
+ * dal DBMS man mano che vengono lette, così che la memoria occupata non dipenda dalla
+ * dimensione della tabella. Finché il cursore è aperto la connessione non può essere
+ * usata per altre interrogazioni.</p>
+ *
+ * @see TableData#openCursor(String, TableQuery)
+ */
+public class TableCursor implements AutoCloseable {
+	private final TableSchema schema;
+	private final PreparedStatement statement;
+	private final ResultSet rs;
+	private long rows;
+
+	/**
+     * Crea il cursore sul risultato dell'interrogazione già eseguita.
+     *
+     * @param schema colonne lette, nell'ordine della select
+     * @param statement interrogazione, chiusa insieme al cursore
+     * @param rs risultato dell'interrogazione
+     */
+	TableCursor(TableSchema schema,PreparedStatement statement,ResultSet rs) {
+		this.schema=schema;
+		this.statement=statement;
+		this.rs=rs;
+	}
+
+	/**
+     * Restituisce il numero di colonne lette.
+     *
+     * @return numero di colonne
+     */
+	public int getNumberOfAttributes() {
+		return schema.getNumberOfAttributes();
+	}
+
+	/**
+     * Restituisce la colonna alla posizione indicata, nell'ordine dei valori di ogni riga.
+     *
+     * @param index posizione della colonna (0-based)
+     * @return la colonna corrispondente
+     */
+	public Column getColumn(int index) {
+		return schema.getColumn(index);
+	}
+
+	/**
+     * Legge la riga successiva.
+     *
+     * @return la riga, con un {@link Double} per le colonne numeriche e una stringa per
+     *         le altre ({@code null} per i valori NULL), oppure {@code null} se le righe
+     *         sono terminate
+     * @throws SQLException se si verifica un errore durante la lettura
+     */
+	public Example next() throws SQLException {
+		if(!rs.next())
+			return null;
+		Example row=new Example();
+		for(int i=0;i<schema.getNumberOfAttributes();i++)
+			if(schema.getColumn(i).isNumber()){
+				double value=rs.getDouble(i+1);
+				row.add(rs.wasNull() ? null : value);
+			}
+			else
+				row.add(rs.getString(i+1));
+		rows++;
+		return row;
+	}
+
+	/**
+     * Restituisce il numero di righe lette finora.
+     *
+     * @return numero di righe
+     */
+	public long getRows() {
+		return rows;
+	}
+
+	/**
+     * Chiude il risultato e l'interrogazione.
+     *
+     * @throws SQLException se la chiusura fallisce
+     */
+	public void close() throws SQLException {
+		try {
+			rs.close();
+		} finally {
+			statement.close();
+		}
+	}
+}
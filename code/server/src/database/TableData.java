@@ -1,8 +1,10 @@
 package database;
 
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
 
 
 import java.util.ArrayList;
@@ -50,23 +52,39 @@ public class TableData {
      * @throws EmptySetException se la tabella è vuota (nessuna tupla restituita)
      */
 	public List<Example> getDistinctTransazioni(String table) throws SQLException, EmptySetException{
+		return getDistinctTransazioni(table, new TableQuery());
+	}
+
+	/**
+     * Restituisce la lista delle tuple distinte della tabella ristretta alle colonne
+     * e alle righe indicate dalla richiesta.
+     * 
+     * @param table nome della tabella da cui estrarre le tuple distinte
+     * @param query colonne da estrarre e filtro sulle righe
+     * @return lista di tuple distinte che soddisfano il filtro
+     * @throws SQLException se si verifica un errore nell'esecuzione della query SQL
+     * @throws EmptySetException se nessuna tupla soddisfa il filtro
+     */
+	public List<Example> getDistinctTransazioni(String table,TableQuery query) throws SQLException, EmptySetException{
 		LinkedList<Example> transSet = new LinkedList<Example>();
-		Statement statement;
-		TableSchema tSchema=new TableSchema(db,table);
-		String query="select distinct ";
+		PreparedStatement statement;
+		TableSchema tSchema=new TableSchema(db,table,query);
+		String sql="select distinct ";
 		
 		for(int i=0;i<tSchema.getNumberOfAttributes();i++){
 			Column c=tSchema.getColumn(i);
 			if(i>0)
-				query+=",";
-			query += c.getColumnName();
+				sql+=",";
+			sql += c.getColumnName();
 		}
 		if(tSchema.getNumberOfAttributes()==0)
 			throw new SQLException();
-		query += (" FROM "+table);
+		sql += (" FROM "+table);
+		sql += whereClause(table, query);
 		
-		statement = db.getConnection().createStatement();
-		ResultSet rs = statement.executeQuery(query);
+		statement = db.getConnection().prepareStatement(sql);
+		query.bind(statement, 1);
+		ResultSet rs = statement.executeQuery();
 		boolean empty=true;
 		while (rs.next()) {
 			empty=false;
@@ -87,6 +105,42 @@ public class TableData {
 
 	}
 	
+	/**
+     * Apre un cursore sulle righe della tabella ristretta alle colonne e alle righe
+     * indicate dalla richiesta, senza eliminare i duplicati.
+     *
+     * <p>L'interrogazione è eseguita in sola lettura e in avanti, con dimensione di
+     * lettura {@link Integer#MIN_VALUE}: il driver MySQL trasferisce allora le righe
+     * una alla volta invece di caricare l'intero risultato in memoria.</p>
+     *
+     * @param table nome della tabella
+     * @param query colonne da leggere e filtro sulle righe
+     * @return il cursore, da chiudere al termine della lettura
+     * @throws SQLException se una colonna non esiste o si verifica un errore nell'esecuzione della query SQL
+     */
+	public TableCursor openCursor(String table,TableQuery query) throws SQLException{
+		TableSchema tSchema=new TableSchema(db,table,query);
+		if(tSchema.getNumberOfAttributes()==0)
+			throw new SQLException("Nessuna colonna da leggere nella tabella "+table);
+		String sql="select ";
+		for(int i=0;i<tSchema.getNumberOfAttributes();i++){
+			if(i>0)
+				sql+=",";
+			sql += tSchema.getColumn(i).getColumnName();
+		}
+		sql += " FROM "+table+whereClause(table, query);
+
+		PreparedStatement statement=db.getConnection().prepareStatement(sql,ResultSet.TYPE_FORWARD_ONLY,ResultSet.CONCUR_READ_ONLY);
+		try {
+			statement.setFetchSize(Integer.MIN_VALUE);
+			query.bind(statement, 1);
+			return new TableCursor(tSchema,statement,statement.executeQuery());
+		} catch(SQLException e) {
+			statement.close();
+			throw e;
+		}
+	}
+
 	/**
      * Restituisce un insieme ordinato di valori distinti contenuti in una colonna specifica
      * di una tabella.
@@ -97,15 +151,30 @@ public class TableData {
      * @throws SQLException se si verifica un errore nell'esecuzione della query SQL
      */
 	public Set<Object>getDistinctColumnValues(String table,Column column) throws SQLException{
+		return getDistinctColumnValues(table, column, new TableQuery());
+	}
+
+	/**
+     * Restituisce l'insieme ordinato dei valori distinti di una colonna nelle sole
+     * righe che soddisfano il filtro della richiesta.
+     * 
+     * @param table nome della tabella da cui estrarre i valori
+     * @param column colonna di cui estrarre i valori distinti
+     * @param query richiesta con il filtro sulle righe
+     * @return insieme ordinato (TreeSet) di valori distinti presenti nella colonna
+     * @throws SQLException se si verifica un errore nell'esecuzione della query SQL
+     */
+	public Set<Object>getDistinctColumnValues(String table,Column column,TableQuery query) throws SQLException{
 		Set<Object> valueSet = new TreeSet<Object>();
-		Statement statement;
-		TableSchema tSchema=new TableSchema(db,table);
-		String query="select distinct ";
-		query+= column.getColumnName();
-		query += (" FROM "+table);
-		query += (" ORDER BY " +column.getColumnName());
-		statement = db.getConnection().createStatement();
-		ResultSet rs = statement.executeQuery(query);
+		PreparedStatement statement;
+		String sql="select distinct ";
+		sql+= column.getColumnName();
+		sql += (" FROM "+table);
+		sql += whereClause(table, query);
+		sql += (" ORDER BY " +column.getColumnName());
+		statement = db.getConnection().prepareStatement(sql);
+		query.bind(statement, 1);
+		ResultSet rs = statement.executeQuery();
 		while (rs.next()) {
 				if(column.isNumber()) {
 					valueSet.add(rs.getDouble(1));
@@ -129,23 +198,42 @@ public class TableData {
      * @throws NoValueException se non è presente alcun valore nella colonna per l'aggregazione richiesta
      */
 	public Object getAggregateColumnValue(String table,Column column,QUERY_TYPE aggregate) throws SQLException,NoValueException{
-		Statement statement;
-		TableSchema tSchema=new TableSchema(db,table);
+		return getAggregateColumnValue(table, column, aggregate, new TableQuery());
+	}
+
+	/**
+     * Restituisce il valore aggregato (minimo o massimo) di una colonna calcolato
+     * sulle sole righe che soddisfano il filtro della richiesta.
+     * 
+     * @param table nome della tabella da cui estrarre il valore aggregato
+     * @param column colonna di cui calcolare il valore aggregato
+     * @param aggregate tipo di aggregazione da effettuare ({@link QUERY_TYPE#MIN} o {@link QUERY_TYPE#MAX})
+     * @param query richiesta con il filtro sulle righe
+     * @return valore aggregato (minimo o massimo) della colonna
+     * @throws SQLException se si verifica un errore nell'esecuzione della query SQL
+     * @throws NoValueException se nessuna riga filtrata ha un valore per l'aggregazione richiesta
+     */
+	public Object getAggregateColumnValue(String table,Column column,QUERY_TYPE aggregate,TableQuery query) throws SQLException,NoValueException{
+		PreparedStatement statement;
 		Object value=null;
 		String aggregateOp="";
 		
-		String query="select ";
+		String sql="select ";
 		if(aggregate==QUERY_TYPE.MAX)
 			aggregateOp+="max";
 		else
 			aggregateOp+="min";
-		query+=aggregateOp+"("+column.getColumnName()+ ") FROM "+table;
+		sql+=aggregateOp+"("+column.getColumnName()+ ") FROM "+table;
+		sql += whereClause(table, query);
 
-		statement = db.getConnection().createStatement();
-		ResultSet rs = statement.executeQuery(query);
+		statement = db.getConnection().prepareStatement(sql);
+		query.bind(statement, 1);
+		ResultSet rs = statement.executeQuery();
 		if (rs.next()) {
 				if(column.isNumber()) {
 					value = rs.getFloat(1);
+					if(rs.wasNull())
+						value = null;
 				} else {
 					value = rs.getString(1);
 				}
@@ -157,4 +245,236 @@ public class TableData {
 
 		return value;
 	}
+
+	/**
+     * Restituisce un'anteprima della tabella: numero di righe, numero di valori distinti
+     * e min/max di ogni colonna, più al massimo {@code limit} tuple distinte.
+     *
+     * <p>Le statistiche sono calcolate dal DBMS con un'unica query di aggregazione e
+     * le tuple sono lette con {@code LIMIT}, senza trasferire l'intera tabella.</p>
+     *
+     * @param table nome della tabella
+     * @param query colonne e filtro sulle righe
+     * @param limit numero massimo di tuple di esempio
+     * @return anteprima della tabella
+     * @throws SQLException se si verifica un errore nell'esecuzione delle query SQL
+     * @throws EmptySetException se nessuna riga soddisfa il filtro
+     */
+	public TablePreview getPreview(String table,TableQuery query,int limit) throws SQLException, EmptySetException{
+		TableSchema tSchema=new TableSchema(db,table,query);
+		int n=tSchema.getNumberOfAttributes();
+		if(n==0)
+			throw new SQLException();
+		String where=whereClause(table, query);
+
+		String sql="select count(*)";
+		for(int i=0;i<n;i++){
+			Column c=tSchema.getColumn(i);
+			sql+=",count(distinct "+c.getColumnName()+")";
+			if(c.isNumber())
+				sql+=",min("+c.getColumnName()+"),max("+c.getColumnName()+")";
+		}
+		sql+=" FROM "+table+where;
+		PreparedStatement statement = db.getConnection().prepareStatement(sql);
+		query.bind(statement, 1);
+		ResultSet rs = statement.executeQuery();
+		long rowCount=0;
+		long[] distinct=new long[n];
+		double[] min=new double[n];
+		double[] max=new double[n];
+		if (rs.next()) {
+			int k=1;
+			rowCount=rs.getLong(k++);
+			for(int i=0;i<n;i++){
+				distinct[i]=rs.getLong(k++);
+				if(tSchema.getColumn(i).isNumber()){
+					min[i]=rs.getDouble(k++);
+					max[i]=rs.getDouble(k++);
+				}
+			}
+		}
+		rs.close();
+		statement.close();
+		if(rowCount==0)
+			throw new EmptySetException();
+
+		sql="select distinct ";
+		for(int i=0;i<n;i++){
+			if(i>0)
+				sql+=",";
+			sql+=tSchema.getColumn(i).getColumnName();
+		}
+		sql+=" FROM "+table+where+" LIMIT "+Math.max(0, limit);
+		statement = db.getConnection().prepareStatement(sql);
+		query.bind(statement, 1);
+		rs = statement.executeQuery();
+		List<Example> rows=new ArrayList<Example>();
+		while (rs.next()) {
+			Example currentTuple=new Example();
+			for(int i=0;i<n;i++)
+				if(tSchema.getColumn(i).isNumber())
+					currentTuple.add(rs.getDouble(i+1));
+				else
+					currentTuple.add(rs.getString(i+1));
+			rows.add(currentTuple);
+		}
+		rs.close();
+		statement.close();
+		return new TablePreview(tSchema, rowCount, distinct, min, max, rows);
+	}
+
+	/**
+     * Restituisce la clausola WHERE della richiesta dopo aver verificato che
+     * tutte le colonne del filtro esistano nella tabella.
+     */
+	private String whereClause(String table,TableQuery query) throws SQLException{
+		for(TableQuery.Condition c:query.getConditions())
+			checkColumn(table, c.getColumn());
+		return query.toWhereClause();
+	}
+
+	/**
+     * Restituisce la versione corrente della tabella, composta dal numero di righe
+     * e dall'istante dell'ultima modifica riportato da {@code information_schema}.
+     *
+     * <p>Le statistiche di {@code information_schema} vengono lette senza la cache
+     * di MySQL 8 ({@code information_schema_stats_expiry}), che altrimenti le
+     * restituirebbe vecchie fino a un giorno. L'istante di modifica può comunque non
+     * essere disponibile (ad esempio per tabelle InnoDB dopo il riavvio del DBMS): in
+     * tal caso vale 0 e la versione non permette di validare un dataset già caricato
+     * (vedi {@link TableVersion#isKnown()}).</p>
+     *
+     * <p>Poiché {@code UPDATE_TIME} ha la risoluzione del secondo, un istante di modifica
+     * che cade nel secondo corrente del DBMS viene riportato come non disponibile: una
+     * modifica successiva nello stesso secondo che non cambia il numero di righe
+     * lascerebbe la versione invariata, e un dataset caricato ora non potrebbe essere
+     * validato.</p>
+     *
+     * @param table nome della tabella
+     * @return versione corrente della tabella
+     * @throws SQLException se si verifica un errore nell'esecuzione delle query SQL
+     */
+	public TableVersion getTableVersion(String table) throws SQLException{
+		long rowCount=0;
+		long updateTime=0;
+
+		Statement statement = db.getConnection().createStatement();
+		ResultSet rs = statement.executeQuery("select count(*) FROM "+table);
+		if (rs.next())
+			rowCount=rs.getLong(1);
+		rs.close();
+		statement.close();
+
+		statement = db.getConnection().createStatement();
+		try {
+			statement.execute("SET SESSION information_schema_stats_expiry = 0");
+		} catch (SQLException e) {
+			// variabile assente prima di MySQL 8: le statistiche non sono in cache
+		}
+		statement.close();
+
+		PreparedStatement ps = db.getConnection().prepareStatement(
+				"select UPDATE_TIME, NOW() FROM information_schema.TABLES WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?");
+		ps.setString(1, table);
+		rs = ps.executeQuery();
+		if (rs.next()) {
+			Timestamp ts=rs.getTimestamp(1);
+			Timestamp now=rs.getTimestamp(2);
+			if(ts!=null && ts.getTime()/1000<now.getTime()/1000)
+				updateTime=ts.getTime();
+		}
+		rs.close();
+		ps.close();
+
+		return new TableVersion(rowCount, updateTime);
+	}
+
+	/**
+     * Restituisce il valore massimo della colonna chiave indicata, usata per
+     * l'aggiornamento incrementale dei dataset.
+     *
+     * @param table nome della tabella
+     * @param keyColumn colonna chiave (identificativo o timestamp crescente)
+     * @return valore massimo della colonna, {@code null} se la tabella è vuota
+     * @throws SQLException se la colonna non esiste o si verifica un errore SQL
+     */
+	public Object getMaxKeyValue(String table,String keyColumn) throws SQLException{
+		checkColumn(table,keyColumn);
+		Statement statement = db.getConnection().createStatement();
+		ResultSet rs = statement.executeQuery("select max("+keyColumn+") FROM "+table);
+		Object value=null;
+		if (rs.next())
+			value=rs.getObject(1);
+		rs.close();
+		statement.close();
+		return value;
+	}
+
+	/**
+     * Restituisce le tuple distinte con chiave maggiore o uguale al valore indicato,
+     * in ordine crescente di chiave.
+     *
+     * <p>Ogni {@link Example} contiene i valori delle colonne dello schema seguiti,
+     * come ultimo elemento, dal valore della colonna chiave. Il valore di chiave
+     * viene passato alla query come parametro. Il confronto include il valore stesso
+     * perché una chiave temporale non è univoca: una tupla registrata dopo la lettura
+     * precedente può avere la stessa chiave dell'ultima letta. Le tuple già lette
+     * vengono quindi restituite di nuovo e vanno scartate dal chiamante.</p>
+     *
+     * @param table nome della tabella
+     * @param keyColumn colonna chiave (identificativo o timestamp crescente)
+     * @param lastKey ultimo valore di chiave già acquisito, {@code null} per leggere tutte le tuple
+     * @return lista delle tuple con chiave non precedente, eventualmente vuota
+     * @throws SQLException se la colonna non esiste o si verifica un errore SQL
+     */
+	public List<Example> getTransazioniAfter(String table,String keyColumn,Object lastKey) throws SQLException{
+		checkColumn(table,keyColumn);
+		List<Example> transSet = new ArrayList<Example>();
+		TableSchema tSchema=new TableSchema(db,table);
+		if(tSchema.getNumberOfAttributes()==0)
+			throw new SQLException();
+		String query="select distinct ";
+		for(int i=0;i<tSchema.getNumberOfAttributes();i++){
+			if(i>0)
+				query+=",";
+			query += tSchema.getColumn(i).getColumnName();
+		}
+		query += ","+keyColumn+" FROM "+table;
+		if(lastKey!=null)
+			query += " WHERE "+keyColumn+" >= ?";
+		query += " ORDER BY "+keyColumn;
+
+		PreparedStatement statement = db.getConnection().prepareStatement(query);
+		if(lastKey!=null)
+			statement.setObject(1, lastKey);
+		ResultSet rs = statement.executeQuery();
+		while (rs.next()) {
+			Example currentTuple=new Example();
+			for(int i=0;i<tSchema.getNumberOfAttributes();i++)
+				if(tSchema.getColumn(i).isNumber())
+					currentTuple.add(rs.getDouble(i+1));
+				else
+					currentTuple.add(rs.getString(i+1));
+			currentTuple.add(rs.getObject(tSchema.getNumberOfAttributes()+1));
+			transSet.add(currentTuple);
+		}
+		rs.close();
+		statement.close();
+		return transSet;
+	}
+
+	/**
+     * Verifica che la colonna esista nella tabella, così che il suo nome
+     * possa essere inserito in sicurezza nel testo della query.
+     */
+	private void checkColumn(String table,String column) throws SQLException{
+		ResultSet res = db.getConnection().getMetaData().getColumns(null, null, table, column);
+		boolean found=false;
+		while (res.next())
+			if(res.getString("COLUMN_NAME").equals(column))
+				found=true;
+		res.close();
+		if(!found)
+			throw new SQLException("Colonna "+column+" non presente nella tabella "+table);
+	}
 }
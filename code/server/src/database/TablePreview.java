@@ -0,0 +1,95 @@
+package database;
+
+import java.util.List;
+
+import database.TableSchema.Column;
+
+/**
+ * Anteprima di una tabella: statistiche riassuntive e un numero limitato di tuple.
+ *
+ * <p>Viene restituita al client al posto del dataset completo, che viene caricato
+ * solo quando è richiesto il clustering. Per ogni colonna riporta il numero di
+ * valori distinti e, per le colonne numeriche, il minimo e il massimo.</p>
+ *
+ * @see TableData#getPreview(String, TableQuery, int)
+ */
+public class TablePreview {
+	private final TableSchema schema;
+	private final long rowCount;
+	private final long[] distinctCounts;
+	private final double[] min;
+	private final double[] max;
+	private final List<Example> rows;
+
+	/**
+     * Costruisce un'anteprima.
+     *
+     * @param schema schema delle colonne in anteprima
+     * @param rowCount numero di righe della tabella (filtrate)
+     * @param distinctCounts numero di valori distinti per colonna
+     * @param min valore minimo per colonna (significativo solo per le colonne numeriche)
+     * @param max valore massimo per colonna (significativo solo per le colonne numeriche)
+     * @param rows tuple di esempio
+     */
+	TablePreview(TableSchema schema, long rowCount, long[] distinctCounts, double[] min, double[] max, List<Example> rows) {
+		this.schema=schema;
+		this.rowCount=rowCount;
+		this.distinctCounts=distinctCounts;
+		this.min=min;
+		this.max=max;
+		this.rows=rows;
+	}
+
+	/**
+     * Restituisce il numero di righe della tabella.
+     *
+     * @return numero di righe che soddisfano il filtro
+     */
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	/**
+     * Restituisce le tuple di esempio incluse nell'anteprima.
+     *
+     * @return lista delle tuple di esempio
+     */
+	public List<Example> getRows() {
+		return rows;
+	}
+
+	/**
+     * Restituisce la rappresentazione testuale dell'anteprima: statistiche per colonna
+     * seguite dalle tuple di esempio, numerate a partire da 1.
+     *
+     * @return stringa dell'anteprima
+     */
+	public String toString() {
+		StringBuilder sb=new StringBuilder();
+		sb.append("Righe: ").append(rowCount).append("\n");
+		for(int i=0;i<schema.getNumberOfAttributes();i++) {
+			Column c=schema.getColumn(i);
+			sb.append(c.getColumnName()).append(": valori distinti=").append(distinctCounts[i]);
+			if(c.isNumber())
+				sb.append(", min=").append(min[i]).append(", max=").append(max[i]);
+			sb.append("\n");
+		}
+		sb.append("Prime ").append(rows.size()).append(" tuple distinte:\n");
+		for(int i=0;i<schema.getNumberOfAttributes();i++) {
+			if(i>0)
+				sb.append(",");
+			sb.append(schema.getColumn(i).getColumnName());
+		}
+		sb.append("\n");
+		for(int i=0;i<rows.size();i++) {
+			sb.append(i+1).append(":");
+			for(int j=0;j<schema.getNumberOfAttributes();j++) {
+				if(j>0)
+					sb.append(", ");
+				sb.append(rows.get(i).get(j));
+			}
+			sb.append("\n");
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,234 @@
+package database;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rappresenta una richiesta di caricamento ristretta di una tabella: un sottoinsieme
+ * di colonne (proiezione) e un filtro sulle righe, entrambi tradotti nella query SQL
+ * costruita da {@link TableData}.
+ *
+ * <p>Il filtro è una congiunzione ({@code AND}) di condizioni semplici nella forma
+ * {@code colonna operatore valore}, con operatori {@code = <> != < <= > >=}. I nomi
+ * di colonna possono contenere solo lettere, cifre, {@code _} e {@code $}; i valori,
+ * eventualmente racchiusi tra apici singoli, non vengono mai inseriti nel testo della
+ * query ma passati come parametri di un {@link PreparedStatement}. Un valore che
+ * contiene spazi deve essere racchiuso tra apici.</p>
+ *
+ * <p>Una richiesta senza colonne e senza condizioni corrisponde all'intera tabella.</p>
+ */
+public class TableQuery {
+	private static final Pattern COLUMN = Pattern.compile("[A-Za-z0-9_$]+");
+	private static final Pattern CONDITION =
+			Pattern.compile("\\s*([A-Za-z0-9_$]+)\\s*(<=|>=|<>|!=|=|<|>)\\s*(.*?)\\s*");
+
+	/**
+	 * Condizione elementare del filtro.
+	 */
+	public static class Condition {
+		private final String column;
+		private final String operator;
+		private final String value;
+
+		/**
+         * Costruisce una condizione.
+         *
+         * @param column nome della colonna
+         * @param operator operatore di confronto
+         * @param value valore con cui confrontare la colonna
+         */
+		Condition(String column, String operator, String value) {
+			this.column=column;
+			this.operator=operator;
+			this.value=value;
+		}
+
+		/**
+         * Restituisce il nome della colonna su cui è espressa la condizione.
+         *
+         * @return nome della colonna
+         */
+		public String getColumn() {
+			return column;
+		}
+
+		/**
+         * Restituisce la rappresentazione testuale della condizione.
+         *
+         * @return stringa nella forma {@code colonna operatore 'valore'}
+         */
+		public String toString() {
+			return column+" "+operator+" '"+value.replace("'", "''")+"'";
+		}
+	}
+
+	private final List<String> columns;
+	private final List<Condition> conditions;
+
+	/**
+     * Costruisce una richiesta che comprende l'intera tabella.
+     */
+	public TableQuery() {
+		this.columns=Collections.emptyList();
+		this.conditions=Collections.emptyList();
+	}
+
+	/**
+     * Costruisce una richiesta a partire dalla sua forma testuale.
+     *
+     * @param columns nomi delle colonne separati da virgole, stringa vuota per tutte le colonne
+     * @param filter condizioni separate da {@code AND}, stringa vuota per nessun filtro
+     * @throws IllegalArgumentException se le colonne o il filtro non sono sintatticamente validi
+     */
+	public TableQuery(String columns, String filter) {
+		List<String> cols=new ArrayList<String>();
+		if(columns!=null && !columns.trim().isEmpty()) {
+			for(String c:columns.split(",")) {
+				c=c.trim();
+				if(!COLUMN.matcher(c).matches())
+					throw new IllegalArgumentException("Nome di colonna non valido: '"+c+"'");
+				if(!cols.contains(c))
+					cols.add(c);
+			}
+		}
+		List<Condition> conds=new ArrayList<Condition>();
+		if(filter!=null && !filter.trim().isEmpty()) {
+			for(String part:splitConditions(filter)) {
+				Matcher m=CONDITION.matcher(part);
+				if(!m.matches() || m.group(3).isEmpty() || (!m.group(3).startsWith("'") && m.group(3).matches(".*\\s.*")))
+					throw new IllegalArgumentException("Condizione non valida: '"+part.trim()+"'");
+				String op=m.group(2).equals("!=") ? "<>" : m.group(2);
+				conds.add(new Condition(m.group(1), op, unquote(m.group(3))));
+			}
+		}
+		this.columns=Collections.unmodifiableList(cols);
+		this.conditions=Collections.unmodifiableList(conds);
+	}
+
+	/**
+     * Suddivide il filtro sulle occorrenze di {@code AND} esterne agli apici.
+     */
+	private static List<String> splitConditions(String filter) {
+		List<String> parts=new ArrayList<String>();
+		String lower=filter.toLowerCase(Locale.ROOT);
+		boolean inQuotes=false;
+		int start=0;
+		for(int i=0;i<filter.length();i++) {
+			char ch=filter.charAt(i);
+			if(ch=='\'')
+				inQuotes=!inQuotes;
+			else if(!inQuotes && lower.startsWith("and", i)
+					&& i>0 && Character.isWhitespace(filter.charAt(i-1))
+					&& i+3<filter.length() && Character.isWhitespace(filter.charAt(i+3))) {
+				parts.add(filter.substring(start, i));
+				start=i+3;
+			}
+		}
+		if(inQuotes)
+			throw new IllegalArgumentException("Apice non chiuso nel filtro");
+		parts.add(filter.substring(start));
+		return parts;
+	}
+
+	/**
+     * Rimuove gli apici singoli attorno al valore, sostituendo {@code ''} con {@code '}.
+     */
+	private static String unquote(String value) {
+		if(value.length()>=2 && value.startsWith("'") && value.endsWith("'"))
+			return value.substring(1, value.length()-1).replace("''", "'");
+		return value;
+	}
+
+	/**
+     * Restituisce le colonne richieste.
+     *
+     * @return lista dei nomi di colonna, vuota se sono richieste tutte le colonne
+     */
+	public List<String> getColumns() {
+		return columns;
+	}
+
+	/**
+     * Restituisce le condizioni del filtro.
+     *
+     * @return lista delle condizioni, vuota se non c'è filtro
+     */
+	public List<Condition> getConditions() {
+		return conditions;
+	}
+
+	/**
+     * Verifica se la richiesta comprende l'intera tabella.
+     *
+     * @return {@code true} se non sono specificate né colonne né condizioni
+     */
+	public boolean isFullTable() {
+		return columns.isEmpty() && conditions.isEmpty();
+	}
+
+	/**
+     * Restituisce la clausola WHERE con un segnaposto per ogni valore.
+     *
+     * @return clausola WHERE preceduta da uno spazio, stringa vuota se non c'è filtro
+     */
+	String toWhereClause() {
+		if(conditions.isEmpty())
+			return "";
+		String where=" WHERE ";
+		for(int i=0;i<conditions.size();i++) {
+			if(i>0)
+				where+=" AND ";
+			where+=conditions.get(i).column+" "+conditions.get(i).operator+" ?";
+		}
+		return where;
+	}
+
+	/**
+     * Assegna i valori delle condizioni ai parametri della query.
+     *
+     * @param statement query preparata con la clausola di {@link #toWhereClause()}
+     * @param firstIndex indice del primo parametro da assegnare
+     * @throws SQLException se l'assegnazione dei parametri fallisce
+     */
+	void bind(PreparedStatement statement, int firstIndex) throws SQLException {
+		for(int i=0;i<conditions.size();i++)
+			statement.setString(firstIndex+i, conditions.get(i).value);
+	}
+
+	/**
+     * Confronta due richieste.
+     *
+     * @param o oggetto da confrontare
+     * @return {@code true} se colonne e condizioni coincidono
+     */
+	public boolean equals(Object o) {
+		return o instanceof TableQuery && toString().equals(o.toString());
+	}
+
+	/**
+     * Restituisce il codice hash coerente con {@link #equals(Object)}.
+     *
+     * @return codice hash della richiesta
+     */
+	public int hashCode() {
+		return toString().hashCode();
+	}
+
+	/**
+     * Restituisce una rappresentazione testuale canonica della richiesta.
+     *
+     * @return stringa con le colonne e le condizioni
+     */
+	public String toString() {
+		String str=columns.isEmpty() ? "*" : String.join(",", columns);
+		for(int i=0;i<conditions.size();i++)
+			str+=(i==0 ? " WHERE " : " AND ")+conditions.get(i);
+		return str;
+	}
+}
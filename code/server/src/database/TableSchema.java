@@ -113,6 +113,39 @@ public class TableSchema {
 		res.close();
 	}
 
+	/**
+     * Costruisce lo schema della tabella ristretto alle colonne richieste.
+     *
+     * <p>Le colonne mantengono l'ordine che hanno nella tabella. Se la richiesta
+     * non specifica colonne, lo schema comprende tutte le colonne supportate.</p>
+     *
+     * @param db        istanza di {@link DbAccess} per la connessione al database
+     * @param tableName nome della tabella di cui recuperare lo schema
+     * @param query     richiesta con le colonne da mantenere
+     * @throws SQLException se si verifica un errore durante l'accesso ai metadati o se
+     *         una colonna richiesta non esiste o non è di un tipo supportato
+     */
+	public TableSchema(DbAccess db, String tableName, TableQuery query) throws SQLException{
+		this(db, tableName);
+		if(!query.getColumns().isEmpty()) {
+			List<Column> projected=new ArrayList<Column>();
+			for(Column c:tableSchema)
+				if(query.getColumns().contains(c.getColumnName()))
+					projected.add(c);
+			if(projected.size()!=query.getColumns().size()) {
+				for(String name:query.getColumns()) {
+					boolean found=false;
+					for(Column c:projected)
+						if(c.getColumnName().equals(name))
+							found=true;
+					if(!found)
+						throw new SQLException("Colonna "+name+" non presente o di tipo non supportato");
+				}
+			}
+			tableSchema=projected;
+		}
+	}
+
 	/**
      * Restituisce il numero di attributi (colonne) della tabella.
      *
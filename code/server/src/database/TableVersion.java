@@ -0,0 +1,95 @@
+package database;
+
+/**
+ * Rappresenta la versione di una tabella del database in un dato istante,
+ * identificata dal numero di righe e dall'istante dell'ultima modifica.
+ *
+ * <p>Due versioni uguali indicano che il contenuto della tabella non è
+ * cambiato e che un dataset caricato in precedenza può essere riutilizzato.</p>
+ *
+ * <p>L'istante di modifica ha la risoluzione del secondo: una modifica che non cambia
+ * il numero di righe e avviene nello stesso secondo della modifica precedente non
+ * cambia la versione. Per questo {@link TableData#getTableVersion(String)} non riporta
+ * un istante che cade nel secondo in cui la versione viene letta, e una versione senza
+ * istante non valida alcun dataset ({@link #isKnown()}).</p>
+ *
+ * @see TableData#getTableVersion(String)
+ */
+public class TableVersion {
+	private final long rowCount;
+	private final long updateTime;
+
+	/**
+     * Costruisce una versione di tabella.
+     *
+     * @param rowCount numero di righe della tabella
+     * @param updateTime istante dell'ultima modifica in millisecondi, 0 se non disponibile
+     */
+	public TableVersion(long rowCount, long updateTime) {
+		this.rowCount=rowCount;
+		this.updateTime=updateTime;
+	}
+
+	/**
+     * Restituisce il numero di righe della tabella.
+     *
+     * @return numero di righe
+     */
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	/**
+     * Restituisce l'istante dell'ultima modifica della tabella.
+     *
+     * @return istante in millisecondi, 0 se non disponibile
+     */
+	public long getUpdateTime() {
+		return updateTime;
+	}
+
+	/**
+     * Indica se la versione permette di stabilire che la tabella non è cambiata.
+     *
+     * <p>Senza istante di modifica il solo numero di righe non basta: una modifica
+     * che non cambia il numero di righe non sarebbe rilevata, quindi un dataset
+     * caricato con questa versione non va riutilizzato né salvato.</p>
+     *
+     * @return {@code true} se l'istante dell'ultima modifica è disponibile e precede
+     *         il secondo in cui la versione è stata letta
+     */
+	public boolean isKnown() {
+		return updateTime>0;
+	}
+
+	/**
+     * Confronta due versioni di tabella.
+     *
+     * @param o oggetto da confrontare
+     * @return {@code true} se numero di righe e istante di modifica coincidono
+     */
+	public boolean equals(Object o) {
+		if(!(o instanceof TableVersion))
+			return false;
+		TableVersion v=(TableVersion)o;
+		return rowCount==v.rowCount && updateTime==v.updateTime;
+	}
+
+	/**
+     * Restituisce il codice hash coerente con {@link #equals(Object)}.
+     *
+     * @return codice hash della versione
+     */
+	public int hashCode() {
+		return Long.hashCode(rowCount)*31+Long.hashCode(updateTime);
+	}
+
+	/**
+     * Restituisce una rappresentazione testuale della versione.
+     *
+     * @return stringa con numero di righe e istante di modifica
+     */
+	public String toString() {
+		return "rows="+rowCount+" updated="+updateTime;
+	}
+}
@@ -0,0 +1,195 @@
+package mining;
+
+import data.Tuple;
+import data.TupleCodec;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Indice dei centroidi di un clustering, per assegnare nuove tuple al centroide più
+ * vicino entro il raggio senza confrontarle con tutti i centroidi.
+ *
+ * <p>I centroidi sono ordinati secondo il valore di un attributo continuo, il pivot,
+ * scelto tra quelli su cui i centroidi sono più distanti tra loro. Poiché la distanza
+ * tra tuple è la somma delle distanze sui singoli attributi, la distanza sul pivot è
+ * un limite inferiore della distanza complessiva: la ricerca parte dalla posizione del
+ * valore della tupla nell'ordinamento e procede nei due versi, fermandosi quando la
+ * distanza sul pivot supera il raggio o la migliore distanza trovata. Anche il calcolo
+ * della distanza da un centroide si interrompe appena supera questa soglia. Senza
+ * attributi continui i centroidi sono confrontati tutti.</p>
+ *
+ * <p>L'indice non viene modificato dopo la costruzione e può essere usato da più
+ * thread contemporaneamente.</p>
+ */
+public final class CentroidIndex {
+    private final Tuple[] centroids;
+    private final int[] ids;
+    private final double[] keys;
+    private final int pivot;
+    private final double radius;
+
+    /**
+     * Costruisce l'indice dei centroidi indicati.
+     *
+     * @param centroids centroidi, nell'ordine dei cluster; tutti con lo stesso schema
+     * @param radius raggio entro cui una tupla viene assegnata a un cluster
+     * @throws IllegalArgumentException se non ci sono centroidi o il raggio non è positivo
+     */
+    public CentroidIndex(List<Tuple> centroids, double radius) {
+        if (centroids.isEmpty()) {
+            throw new IllegalArgumentException("Nessun centroide da indicizzare");
+        }
+        if (!(radius > 0)) {
+            throw new IllegalArgumentException("Raggio non valido: " + radius);
+        }
+        this.radius = radius;
+        int n = centroids.size();
+        pivot = choosePivot(centroids);
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        if (pivot >= 0) {
+            Arrays.sort(order, Comparator.comparingDouble(i -> key(centroids.get(i), pivot)));
+        }
+        this.centroids = new Tuple[n];
+        ids = new int[n];
+        keys = new double[n];
+        for (int k = 0; k < n; k++) {
+            ids[k] = order[k];
+            this.centroids[k] = centroids.get(order[k]);
+            keys[k] = pivot >= 0 ? key(this.centroids[k], pivot) : 0;
+        }
+    }
+
+    /**
+     * Sceglie come pivot l'attributo continuo su cui il primo e l'ultimo centroide
+     * dell'ordinamento sono più distanti, -1 se non ce ne sono.
+     */
+    private static int choosePivot(List<Tuple> centroids) {
+        TupleCodec schema = new TupleCodec(centroids.get(0));
+        int best = -1;
+        double bestSpread = 0;
+        for (int j = 0; j < schema.getNumberOfAttributes(); j++) {
+            if (!schema.isContinuous(j)) {
+                continue;
+            }
+            Tuple min = centroids.get(0);
+            Tuple max = min;
+            for (Tuple c : centroids) {
+                if (key(c, j) < key(min, j)) {
+                    min = c;
+                }
+                if (key(c, j) > key(max, j)) {
+                    max = c;
+                }
+            }
+            double spread = min.getDistance(j, max.get(j).getValue());
+            if (spread > bestSpread) {
+                best = j;
+                bestSpread = spread;
+            }
+        }
+        return best;
+    }
+
+    private static double key(Tuple centroid, int attribute) {
+        return ((Number) centroid.get(attribute).getValue()).doubleValue();
+    }
+
+    /**
+     * Restituisce il numero di centroidi.
+     *
+     * @return numero di centroidi
+     */
+    public int size() {
+        return centroids.length;
+    }
+
+    /**
+     * Restituisce il raggio entro cui le tuple vengono assegnate.
+     *
+     * @return raggio
+     */
+    public double getRadius() {
+        return radius;
+    }
+
+    /**
+     * Restituisce l'attributo usato per ordinare i centroidi.
+     *
+     * @return indice dell'attributo, -1 se i centroidi non sono ordinati
+     */
+    public int getPivot() {
+        return pivot;
+    }
+
+    /**
+     * Cerca il centroide più vicino ai valori indicati entro il raggio. A parità di
+     * distanza prevale il cluster con indice minore. Una tupla con valori mancanti
+     * non viene assegnata.
+     *
+     * @param values valori della tupla, nell'ordine degli attributi dei centroidi: un
+     *               {@link Number} per gli attributi continui, {@code null} per un
+     *               valore mancante
+     * @param distances array in cui registrare la distanza dal centroide trovato, o
+     *                  {@link Double#NaN} se nessun centroide è entro il raggio
+     * @param pos posizione di {@code distances} in cui registrare la distanza
+     * @return indice del cluster del centroide trovato, -1 se nessun centroide è entro il raggio
+     */
+    public int nearest(Object[] values, double[] distances, int pos) {
+        int best = -1;
+        double bestDistance = radius;
+        for (Object value : values) {
+            if (value == null) {
+                distances[pos] = Double.NaN;
+                return -1;
+            }
+        }
+        if (pivot < 0) {
+            for (int k = 0; k < centroids.length; k++) {
+                double d = distance(centroids[k], values, bestDistance);
+                if (d < bestDistance || (d == bestDistance && (best < 0 || ids[k] < best))) {
+                    best = ids[k];
+                    bestDistance = d;
+                }
+            }
+        } else {
+            Object value = values[pivot];
+            int start = Arrays.binarySearch(keys, ((Number) value).doubleValue());
+            if (start < 0) {
+                start = -start - 1;
+            }
+            for (int step = 1; step >= -1; step -= 2) {
+                for (int k = step > 0 ? start : start - 1; k >= 0 && k < centroids.length; k += step) {
+                    if (centroids[k].getDistance(pivot, value) > bestDistance) {
+                        break;
+                    }
+                    double d = distance(centroids[k], values, bestDistance);
+                    if (d < bestDistance || (d == bestDistance && (best < 0 || ids[k] < best))) {
+                        best = ids[k];
+                        bestDistance = d;
+                    }
+                }
+            }
+        }
+        distances[pos] = best < 0 ? Double.NaN : bestDistance;
+        return best;
+    }
+
+    /**
+     * Calcola la distanza tra il centroide e i valori, interrompendosi appena supera
+     * la soglia.
+     *
+     * @return la distanza, o un valore maggiore della soglia
+     */
+    private static double distance(Tuple centroid, Object[] values, double limit) {
+        double d = 0;
+        for (int j = 0; j < values.length && d <= limit; j++) {
+            d += centroid.getDistance(j, values[j]);
+        }
+        return d;
+    }
+}
@@ -3,7 +3,11 @@ package mining;
 import data.Data;
 import data.Tuple;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 
@@ -29,8 +33,24 @@ import java.util.Iterator;
  * @param <T> tipo degli identificativi delle tuple (estende {@link Integer})
  */
 class Cluster<T extends Integer> implements Iterable<Integer>, Comparable<Cluster<T>>, Serializable {
+    private static final long serialVersionUID = 5157176546688279326L;
+
     private final Tuple centroid;
-    private final HashSet<Integer> clusteredData;
+
+    /**
+     * Tuple del cluster durante la costruzione; dopo {@link #finish(Data, double[])}
+     * vale {@code null} e le tuple sono lette da {@link #members}. Nella
+     * serializzazione Java viene sempre scritto, ricostruendolo se necessario.
+     */
+    private HashSet<Integer> clusteredData;
+
+    /**
+     * Indici delle tuple in ordine crescente e rispettive distanze dal centroide,
+     * registrati da {@link #finish(Data, double[])}; non vengono serializzati.
+     */
+    private transient int[] members;
+    private transient double[] distances;
+    private transient ClusterStats stats;
 
     /**
      * Crea un nuovo cluster con il centroide specificato.
@@ -52,7 +72,8 @@ class Cluster<T extends Integer> implements Iterable<Integer>, Comparable<Cluste
     }
 
     /**
-     * Aggiunge un identificativo di tupla al cluster.
+     * Aggiunge un identificativo di tupla al cluster. Non può essere invocato dopo
+     * {@link #finish(Data, double[])}.
      *
      * @param id l'identificativo della tupla
      * @return {@code true} se l'id è stato aggiunto, {@code false} se era già presente
@@ -86,18 +107,100 @@ class Cluster<T extends Integer> implements Iterable<Integer>, Comparable<Cluste
      * @return iteratore sugli ID delle tuple
      */
     int getSize() {
-        return clusteredData.size();
+        return members != null ? members.length : clusteredData.size();
     }
 
 
     /**
-     * Restituisce un iteratore per scorrere gli ID delle tuple nel cluster.
+     * Registra le distanze delle tuple dal centroide, calcolate durante la costruzione
+     * del cluster, e ne calcola le statistiche. Va invocato quando il cluster non
+     * riceve più tuple: da qui in poi le tuple sono conservate solo in ordine
+     * crescente insieme alle distanze, senza l'insieme usato per costruirlo.
+     *
+     * @param data dataset su cui è stato calcolato il cluster
+     * @param distances distanza dal centroide indicizzata per indice di tupla
+     */
+    void finish(Data data, double[] distances) {
+        members = ClusterFile.sortedMembers(this);
+        this.distances = new double[members.length];
+        for (int k = 0; k < members.length; k++) {
+            this.distances[k] = distances[members[k]];
+        }
+        stats = new ClusterStats(data, members, this.distances);
+        clusteredData = null;
+    }
+
+    /**
+     * Restituisce la distanza dal centroide registrata per una tupla del cluster.
+     *
+     * @param id identificativo della tupla
+     * @return la distanza, {@link Double#NaN} se non è stata registrata
+     */
+    double getDistance(int id) {
+        if (members == null) {
+            return Double.NaN;
+        }
+        int k = Arrays.binarySearch(members, id);
+        return k < 0 ? Double.NaN : distances[k];
+    }
+
+    /**
+     * Restituisce gli indici delle tuple in ordine crescente registrati da
+     * {@link #finish(Data, double[])}.
+     *
+     * @return indici delle tuple, {@code null} se non registrati
+     */
+    int[] getMembers() {
+        return members;
+    }
+
+    /**
+     * Restituisce le distanze dal centroide registrate da {@link #finish(Data, double[])},
+     * nell'ordine di {@link #getMembers()}.
+     *
+     * @return distanze delle tuple, {@code null} se non registrate
+     */
+    double[] getDistances() {
+        return distances;
+    }
+
+    /**
+     * Restituisce le statistiche del cluster.
+     *
+     * @return le statistiche, {@code null} se il cluster non è stato calcolato con
+     *         {@link QTMiner#compute(Data)} (ad esempio se è stato letto da file)
+     */
+    ClusterStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Restituisce un iteratore per scorrere gli ID delle tuple nel cluster, in ordine
+     * crescente dopo {@link #finish(Data, double[])}.
      *
      * @return iteratore sugli ID delle tuple
      */
     @Override
     public Iterator<Integer> iterator() {
-        return clusteredData.iterator();
+        return members != null ? Arrays.stream(members).iterator() : clusteredData.iterator();
+    }
+
+    /**
+     * Scrive il cluster nel formato della serializzazione Java, con l'insieme delle
+     * tuple ricostruito se il cluster è già stato completato.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        HashSet<Integer> set = clusteredData;
+        if (set == null) {
+            set = new HashSet<>(members.length * 4 / 3 + 1);
+            for (int id : members) {
+                set.add(id);
+            }
+        }
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("centroid", centroid);
+        fields.put("clusteredData", set);
+        out.writeFields();
     }
 
     /**
@@ -107,8 +210,9 @@ class Cluster<T extends Integer> implements Iterable<Integer>, Comparable<Cluste
      * del centroide, confrontando attributo per attributo le rispettive
      * rappresentazioni testuali.</p>
      *
-     * <p>L'ordinamento definito da questo metodo è utilizzato ad esempio
-     * nei {@link java.util.TreeSet} che memorizzano cluster.</p>
+     * <p>L'ordinamento definito da questo metodo è utilizzato dai
+     * {@link java.util.TreeSet} dei file salvati con la serializzazione Java;
+     * {@link ClusterSet} ordina invece i cluster con {@link ClusterSet#sort()}.</p>
      *
      * @param other il cluster da confrontare
      * @return un valore negativo se questo cluster è "minore", zero se uguale,
@@ -137,11 +241,11 @@ class Cluster<T extends Integer> implements Iterable<Integer>, Comparable<Cluste
      * @return stringa con i valori del centroide tra parentesi
      */
     public String toString() {
-        String str = "Centroid=(";
+        StringBuilder sb = new StringBuilder("Centroid=(");
         for (int i = 0; i < centroid.getLength(); i++)
-            str += centroid.get(i);
-        str += ")";
-        return str;
+            sb.append(centroid.get(i));
+        sb.append(")");
+        return sb.toString();
     }
 
     /**
@@ -160,26 +264,13 @@ class Cluster<T extends Integer> implements Iterable<Integer>, Comparable<Cluste
      * @return stringa multi-riga con centroide, esempi e distanza media
      */
     String toString(Data data) {
-        String str = "Centroid=(";
-        for (int i = 0; i < centroid.getLength(); i++)
-            str += centroid.get(i) + " ";
-        str += ")\nExamples:\n";
-
-        Iterator<Integer> it = clusteredData.iterator();
+        StringBuilder sb = new StringBuilder();
         try {
-        	while (it.hasNext()) {
-        		int id = it.next();
-        		str += "[";
-        		for (int j = 0; j < data.getNumberOfAttributes(); j++)
-        			str += data.getValue(id, j) + " ";
-        		str += "] dist=" + getCentroid().getDistance(data.getItemSet(id)) + "\n";
-        	}
-        	str += "AvgDistance=" + getCentroid().avgDistance(data, clusteredData);
-        } catch (Exception e) {
-            System.out.println(e);
+            ClusterReport.write(this, data, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringBuilder non solleva IOException
         }
-        str += " \n";
-        return str;
+        return sb.toString();
     }
 
 }
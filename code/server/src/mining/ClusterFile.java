@@ -0,0 +1,374 @@
+package mining;
+
+import data.Tuple;
+import data.TupleCodec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Formato binario versionato dei file in cui vengono salvati i cluster.
+ *
+ * <p>Il file è composto da:</p>
+ * <ul>
+ *   <li>intestazione: numero magico, versione, raggio, numero di cluster e schema
+ *       degli attributi (vedi {@link TupleCodec});</li>
+ *   <li>un blocco per cluster con il numero di tuple e gli indici delle tuple in ordine
+ *       crescente, codificati come differenze dal precedente in interi a lunghezza
+ *       variabile (7 bit per byte);</li>
+ *   <li>la directory: per ogni cluster numero di tuple, posizione del blocco nel file
+ *       e centroide come valori primitivi;</li>
+ *   <li>la coda: posizione della directory, CRC32 di tutto il contenuto precedente e
+ *       di nuovo il numero magico.</li>
+ * </ul>
+ *
+ * <p>I file vengono scritti in modo atomico: il contenuto va in un file temporaneo
+ * nella stessa directory, forzato su disco e poi rinominato con il nome finale. Un
+ * errore o un arresto durante la scrittura lasciano quindi intatto il file
+ * precedente, senza mai produrre un file troncato.</p>
+ *
+ * <p>Rispetto alla serializzazione Java il file non contiene descrittori di classe né
+ * un oggetto per ogni indice, e non dipende dalla struttura delle classi. I file
+ * salvati in precedenza con la serializzazione Java (che iniziano con
+ * {@code 0xACED}) restano leggibili da {@link QTMiner#QTMiner(String)}.</p>
+ */
+final class ClusterFile {
+    /**
+     * Numero magico che identifica il formato ("QTCR").
+     */
+    static final int MAGIC = 0x51544352;
+
+    /**
+     * Versione corrente del formato.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Lunghezza della coda del file, in byte.
+     */
+    static final int TRAILER_SIZE = 8 + 4 + 4;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private ClusterFile() {
+    }
+
+    /**
+     * Verifica se il file è stato salvato con la serializzazione Java.
+     *
+     * @param fileName nome del file
+     * @return {@code true} se il file inizia con l'intestazione della serializzazione Java
+     * @throws FileNotFoundException se il file non esiste
+     * @throws IOException se la lettura fallisce
+     */
+    static boolean isLegacy(String fileName) throws IOException {
+        try (InputStream in = new FileInputStream(fileName)) {
+            return in.read() == 0xAC && in.read() == 0xED;
+        }
+    }
+
+    /**
+     * Scrive in modo atomico un insieme di cluster nel formato binario.
+     *
+     * @param clusters insieme dei cluster
+     * @param radius raggio con cui sono stati calcolati i cluster
+     * @param fileName nome del file di destinazione
+     * @throws IOException se la scrittura fallisce
+     */
+    static void write(ClusterSet clusters, double radius, String fileName) throws IOException {
+        Path target = Paths.get(fileName).toAbsolutePath();
+        Path tmp = tempFile(target);
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                write(clusters, radius, channel);
+                channel.force(true);
+            }
+            commit(tmp, target);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Copia in modo atomico un file dei cluster.
+     *
+     * @param source file da copiare
+     * @param fileName nome del file di destinazione
+     * @throws IOException se la copia fallisce
+     */
+    static void copy(Path source, String fileName) throws IOException {
+        Path target = Paths.get(fileName).toAbsolutePath();
+        if (Files.exists(target) && Files.isSameFile(source, target)) {
+            return;
+        }
+        Path tmp = tempFile(target);
+        try {
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                long size = in.size();
+                for (long position = 0; position < size; ) {
+                    position += in.transferTo(position, size - position, out);
+                }
+                out.force(true);
+            }
+            commit(tmp, target);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Restituisce un nome di file temporaneo nella directory del file di destinazione.
+     * Il file viene creato aprendolo, e non con {@link Files#createTempFile}, così da
+     * avere gli stessi permessi di un file creato direttamente.
+     */
+    private static Path tempFile(Path target) {
+        return target.resolveSibling(target.getFileName() + "."
+                + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+    }
+
+    /**
+     * Rinomina il file temporaneo con il nome finale, in modo atomico se il file
+     * system lo consente.
+     */
+    private static void commit(Path tmp, Path target) throws IOException {
+        try {
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Scrive un insieme di cluster sul canale, attraverso un buffer, senza chiuderlo.
+     */
+    private static void write(ClusterSet clusters, double radius, FileChannel channel) throws IOException {
+        Tuple sample = null;
+        for (Cluster<Integer> c : clusters) {
+            sample = c.getCentroid();
+            break;
+        }
+        TupleCodec codec = new TupleCodec(sample);
+        CRC32 crc = new CRC32();
+        // lo stream non va chiuso: chiuderebbe anche il canale
+        Counter counter = new Counter(new CheckedOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE), crc));
+        DataOutputStream out = new DataOutputStream(counter);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeDouble(radius);
+        out.writeInt(clusters.size());
+        codec.writeSchema(out);
+
+        long[] offsets = new long[clusters.size()];
+        int i = 0;
+        for (Cluster<Integer> c : clusters) {
+            out.flush();
+            offsets[i++] = counter.count;
+            int[] members = sortedMembers(c);
+            writeVarint(out, members.length);
+            int previous = 0;
+            for (int id : members) {
+                writeVarint(out, id - previous);
+                previous = id;
+            }
+        }
+
+        out.flush();
+        long directory = counter.count;
+        i = 0;
+        for (Cluster<Integer> c : clusters) {
+            out.writeInt(c.getSize());
+            out.writeLong(offsets[i++]);
+            codec.write(out, c.getCentroid());
+        }
+        out.writeLong(directory);
+        out.flush();
+        out.writeInt((int) crc.getValue());
+        out.writeInt(MAGIC);
+        out.flush();
+    }
+
+    /**
+     * Legge un insieme di cluster scritto da {@link #write(ClusterSet, double, String)},
+     * verificandone il checksum.
+     *
+     * @param fileName nome del file
+     * @return il miner con i cluster e il raggio letti
+     * @throws FileNotFoundException se il file non esiste
+     * @throws IOException se la lettura fallisce o il file non è valido
+     */
+    static QTMiner read(String fileName) throws IOException {
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(fileName), BUFFER_SIZE), crc))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("File non nel formato dei cluster atteso");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Versione del formato dei cluster non supportata: " + version);
+            }
+            double radius = in.readDouble();
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("Numero di cluster non valido: " + count);
+            }
+            TupleCodec codec = TupleCodec.readSchema(in);
+
+            int[][] members = new int[count][];
+            for (int i = 0; i < count; i++) {
+                members[i] = readMembers(in);
+            }
+
+            ClusterSet clusters = new ClusterSet();
+            for (int i = 0; i < count; i++) {
+                int size = in.readInt();
+                in.readLong();
+                Cluster<Integer> c = new Cluster<>(codec.read(in));
+                if (size != members[i].length) {
+                    throw new IOException("File dei cluster danneggiato: dimensione del cluster " + i);
+                }
+                for (int id : members[i]) {
+                    c.addData(id);
+                }
+                clusters.add(c);
+            }
+            in.readLong();
+            int expected = (int) crc.getValue();
+            if (in.readInt() != expected || in.readInt() != MAGIC) {
+                throw new IOException("File dei cluster danneggiato: checksum non valido");
+            }
+            return new QTMiner(radius, clusters);
+        }
+    }
+
+    /**
+     * Legge un blocco di indici di tuple.
+     */
+    static int[] readMembers(DataInput in) throws IOException {
+        int size = readVarint(in);
+        if (size < 0) {
+            throw new IOException("Numero di tuple non valido: " + size);
+        }
+        int[] members = new int[size];
+        int previous = 0;
+        for (int k = 0; k < size; k++) {
+            previous += readVarint(in);
+            members[k] = previous;
+        }
+        return members;
+    }
+
+    /**
+     * Legge un blocco di indici di tuple da un buffer, ad esempio mappato in memoria.
+     */
+    static int[] readMembers(ByteBuffer in) throws IOException {
+        int size = readVarint(in);
+        if (size < 0 || size > in.remaining()) {
+            throw new IOException("Numero di tuple non valido: " + size);
+        }
+        int[] members = new int[size];
+        int previous = 0;
+        for (int k = 0; k < size; k++) {
+            previous += readVarint(in);
+            members[k] = previous;
+        }
+        return members;
+    }
+
+    /**
+     * Restituisce gli indici delle tuple del cluster in ordine crescente.
+     */
+    static int[] sortedMembers(Cluster<?> c) {
+        if (c.getMembers() != null) {
+            return c.getMembers().clone();
+        }
+        int[] members = new int[c.getSize()];
+        int k = 0;
+        for (int id : c) {
+            members[k++] = id;
+        }
+        Arrays.sort(members);
+        return members;
+    }
+
+    private static void writeVarint(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarint(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Intero a lunghezza variabile non valido");
+    }
+
+    private static int readVarint(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35 && in.hasRemaining(); shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Intero a lunghezza variabile non valido");
+    }
+
+    /**
+     * Conta i byte scritti, per registrare la posizione dei blocchi nel file.
+     */
+    private static final class Counter extends FilterOutputStream {
+        private long count;
+
+        Counter(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package mining;
+
+import data.Tuple;
+import data.TupleCodec;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Accesso in sola lettura a un risultato salvato su file, senza caricarlo per intero.
+ *
+ * <p>All'apertura di un file nel formato di {@link ClusterFile} vengono letti solo
+ * l'intestazione e la directory, mappata in memoria: raggio, centroidi e numero di
+ * tuple di ogni cluster sono disponibili in tempo proporzionale al numero di cluster.
+ * Gli indici delle tuple di un cluster vengono decodificati, dal blocco mappato in
+ * memoria, solo quando sono richiesti con {@link #getMembers(int)}.</p>
+ *
+ * <p>L'apertura non verifica il checksum, che richiederebbe la lettura dell'intero
+ * file: controlla il numero magico in testa e in coda e la coerenza della directory.
+ * I file salvati con la serializzazione Java vengono invece caricati per intero.</p>
+ *
+ * <p>Il file resta aperto fino alla chiamata di {@link #close()}.</p>
+ */
+public final class ClusterIndex implements Closeable {
+    private final Path path;
+    private final double radius;
+    private final Tuple[] centroids;
+    private final int[] sizes;
+    private final long[] offsets;
+    private final long directoryOffset;
+    private final FileChannel channel;
+    private final ClusterSet loaded;
+
+    private ClusterIndex(Path path, double radius, Tuple[] centroids, int[] sizes, long[] offsets,
+                         long directoryOffset, FileChannel channel, ClusterSet loaded) {
+        this.path = path;
+        this.radius = radius;
+        this.centroids = centroids;
+        this.sizes = sizes;
+        this.offsets = offsets;
+        this.directoryOffset = directoryOffset;
+        this.channel = channel;
+        this.loaded = loaded;
+    }
+
+    /**
+     * Apre un risultato salvato con {@link QTMiner#salva(String)}.
+     *
+     * @param fileName nome del file
+     * @return l'indice del risultato
+     * @throws FileNotFoundException se il file non esiste
+     * @throws IOException se la lettura fallisce o il file non è valido
+     * @throws ClassNotFoundException se il file è stato salvato con la serializzazione
+     *                                Java e il suo contenuto non è compatibile
+     */
+    public static ClusterIndex open(String fileName) throws IOException, ClassNotFoundException {
+        if (ClusterFile.isLegacy(fileName)) {
+            return load(fileName);
+        }
+        Path path = Paths.get(fileName);
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException(fileName);
+        }
+        try {
+            return map(path, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Verifica se il file contiene un risultato salvato con {@link QTMiner#salva(String)},
+     * nel formato di {@link ClusterFile} o con la serializzazione Java, controllandone
+     * solo l'intestazione.
+     *
+     * @param fileName nome del file
+     * @return {@code true} se il file inizia con l'intestazione di un risultato
+     * @throws FileNotFoundException se il file non esiste
+     * @throws IOException se la lettura fallisce
+     */
+    public static boolean isResultFile(String fileName) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(fileName))) {
+            int magic = in.readInt();
+            return magic == ClusterFile.MAGIC || magic >>> 16 == 0xACED;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    private static ClusterIndex map(Path path, FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < ClusterFile.TRAILER_SIZE) {
+            throw new IOException("File non nel formato dei cluster atteso");
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(ClusterFile.TRAILER_SIZE);
+        readFully(channel, trailer, fileSize - ClusterFile.TRAILER_SIZE);
+        long directoryOffset = trailer.getLong(0);
+        if (trailer.getInt(12) != ClusterFile.MAGIC) {
+            throw new IOException("File dei cluster incompleto o danneggiato");
+        }
+
+        channel.position(0);
+        // lo stream non va chiuso: chiuderebbe anche il canale
+        DataInputStream header = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        if (header.readInt() != ClusterFile.MAGIC) {
+            throw new IOException("File non nel formato dei cluster atteso");
+        }
+        int version = header.readInt();
+        if (version != ClusterFile.VERSION) {
+            throw new IOException("Versione del formato dei cluster non supportata: " + version);
+        }
+        double radius = header.readDouble();
+        int count = header.readInt();
+        TupleCodec codec = TupleCodec.readSchema(header);
+
+        int entrySize = 4 + 8 + codec.getEncodedSize();
+        long directorySize = fileSize - ClusterFile.TRAILER_SIZE - directoryOffset;
+        if (count < 0 || directoryOffset < 0 || directorySize != (long) count * entrySize) {
+            throw new IOException("File dei cluster danneggiato: directory non valida");
+        }
+        MappedByteBuffer directory = channel.map(FileChannel.MapMode.READ_ONLY, directoryOffset, directorySize);
+        Tuple[] centroids = new Tuple[count];
+        int[] sizes = new int[count];
+        long[] offsets = new long[count];
+        byte[] centroid = new byte[codec.getEncodedSize()];
+        for (int i = 0; i < count; i++) {
+            int entry = i * entrySize;
+            sizes[i] = directory.getInt(entry);
+            offsets[i] = directory.getLong(entry + 4);
+            if (sizes[i] < 0 || offsets[i] < 0 || offsets[i] >= directoryOffset
+                    || (i > 0 && offsets[i] < offsets[i - 1])) {
+                throw new IOException("File dei cluster danneggiato: cluster " + i);
+            }
+            directory.get(entry + 12, centroid);
+            centroids[i] = codec.read(new DataInputStream(new ByteArrayInputStream(centroid)));
+        }
+        return new ClusterIndex(path, radius, centroids, sizes, offsets, directoryOffset, channel, null);
+    }
+
+    /**
+     * Carica per intero un file salvato con la serializzazione Java.
+     */
+    private static ClusterIndex load(String fileName) throws IOException, ClassNotFoundException {
+        QTMiner miner = new QTMiner(fileName);
+        ClusterSet clusters = miner.getC();
+        Tuple[] centroids = new Tuple[clusters.size()];
+        int[] sizes = new int[clusters.size()];
+        int i = 0;
+        for (Cluster<Integer> c : clusters) {
+            centroids[i] = c.getCentroid();
+            sizes[i++] = c.getSize();
+        }
+        return new ClusterIndex(Paths.get(fileName), miner.getRadius(), centroids, sizes, null, 0, null, clusters);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("File dei cluster incompleto");
+            }
+        }
+    }
+
+    /**
+     * Restituisce il raggio con cui sono stati calcolati i cluster.
+     *
+     * @return il raggio, 0 se il file è stato salvato con la serializzazione Java
+     */
+    public double getRadius() {
+        return radius;
+    }
+
+    /**
+     * Restituisce il numero di cluster.
+     *
+     * @return numero di cluster
+     */
+    public int size() {
+        return centroids.length;
+    }
+
+    /**
+     * Restituisce il centroide di un cluster.
+     *
+     * @param cluster posizione del cluster, a partire da 0
+     * @return il centroide
+     */
+    public Tuple getCentroid(int cluster) {
+        return centroids[cluster];
+    }
+
+    /**
+     * Restituisce il numero di tuple di un cluster.
+     *
+     * @param cluster posizione del cluster, a partire da 0
+     * @return numero di tuple
+     */
+    public int getSize(int cluster) {
+        return sizes[cluster];
+    }
+
+    /**
+     * Decodifica gli indici delle tuple di un cluster.
+     *
+     * @param cluster posizione del cluster, a partire da 0
+     * @return indici delle tuple, in ordine crescente
+     * @throws IOException se la lettura fallisce o il blocco non è valido
+     */
+    public int[] getMembers(int cluster) throws IOException {
+        if (loaded != null) {
+            int i = 0;
+            for (Cluster<Integer> c : loaded) {
+                if (i++ == cluster) {
+                    return ClusterFile.sortedMembers(c);
+                }
+            }
+            throw new IndexOutOfBoundsException("Cluster " + cluster + " inesistente");
+        }
+        long end = cluster + 1 < offsets.length ? offsets[cluster + 1] : directoryOffset;
+        if (end - offsets[cluster] > Integer.MAX_VALUE) {
+            throw new IOException("Cluster troppo grande per essere mappato: " + cluster);
+        }
+        MappedByteBuffer block = channel.map(FileChannel.MapMode.READ_ONLY, offsets[cluster], end - offsets[cluster]);
+        int[] members = ClusterFile.readMembers(block);
+        if (members.length != sizes[cluster]) {
+            throw new IOException("File dei cluster danneggiato: dimensione del cluster " + cluster);
+        }
+        return members;
+    }
+
+    /**
+     * Restituisce il riepilogo di ciascun cluster, con la stessa numerazione di
+     * {@link ClusterSet#summarize(data.Data)}. Gli indici delle tuple di un cluster
+     * vengono decodificati alla prima richiesta di una loro pagina.
+     *
+     * @return lista dei riepiloghi dei cluster
+     */
+    public List<ClusterSummary> summarize() {
+        List<ClusterSummary> summary = new ArrayList<>(centroids.length);
+        for (int i = 0; i < centroids.length; i++) {
+            summary.add(new ClusterSummary(i, centroids[i], sizes[i], this));
+        }
+        return summary;
+    }
+
+    /**
+     * Copia in modo atomico il risultato in un altro file, nel formato di {@link ClusterFile}.
+     *
+     * @param fileName nome del file di destinazione
+     * @throws IOException se la copia fallisce
+     */
+    public void copyTo(String fileName) throws IOException {
+        if (loaded != null) {
+            new QTMiner(radius, loaded).salva(fileName);
+        } else {
+            ClusterFile.copy(path, fileName);
+        }
+    }
+
+    /**
+     * Restituisce una rappresentazione testuale dei centroidi, nello stesso formato
+     * di {@link ClusterSet#toString()}.
+     *
+     * @return stringa descrittiva dei centroidi dei cluster
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder("\n");
+        for (int i = 0; i < centroids.length; i++) {
+            sb.append("Cluster ").append(i).append(": Centroid=(");
+            for (int j = 0; j < centroids[i].getLength(); j++) {
+                sb.append(centroids[i].get(j));
+            }
+            sb.append(")\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Chiude il file.
+     *
+     * @throws IOException se la chiusura fallisce
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package mining;
+
+import data.Data;
+import data.Tuple;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Report testuale di un insieme di cluster, con le tuple di ogni cluster e la loro
+ * distanza dal centroide, nel formato di {@link ClusterSet#toString(Data)}.
+ *
+ * <p>Il report viene scritto direttamente su un {@link Appendable} (ad esempio un
+ * {@link java.io.Writer}), senza costruirlo prima per intero in memoria. Le tuple di
+ * ogni cluster sono elencate in ordine di indice; le distanze dal centroide sono
+ * quelle registrate da {@link QTMiner#compute(Data)}, lette insieme agli indici, e
+ * per i cluster che non le hanno vengono calcolate una sola volta e riusate per la
+ * distanza media del cluster.</p>
+ *
+ * <p>Con un {@link Executor} i cluster sono suddivisi in blocchi di al più
+ * {@link #CHUNK_MEMBERS} tuple, composti in parallelo e scritti nell'ordine dei
+ * cluster: più cluster piccoli formano un blocco, mentre un cluster grande viene
+ * diviso in intervalli di tuple su più blocchi. Al più due blocchi per thread sono
+ * in memoria contemporaneamente.</p>
+ */
+public final class ClusterReport {
+    /**
+     * Tuple per blocco nella composizione in parallelo.
+     */
+    static final int CHUNK_MEMBERS = 4096;
+
+    private final ClusterSet clusters;
+    private final Data data;
+
+    /**
+     * Crea il report dei cluster indicati.
+     *
+     * @param clusters insieme dei cluster
+     * @param data dataset su cui sono stati calcolati i cluster
+     */
+    public ClusterReport(ClusterSet clusters, Data data) {
+        this.clusters = clusters;
+        this.data = data;
+    }
+
+    /**
+     * Scrive il report.
+     *
+     * @param out destinazione
+     * @throws IOException se la scrittura fallisce
+     */
+    public void writeTo(Appendable out) throws IOException {
+        out.append('\n');
+        int i = 1;
+        for (Cluster<Integer> cluster : clusters) {
+            out.append(Integer.toString(i++)).append(": ");
+            write(cluster, data, out);
+            out.append('\n');
+        }
+    }
+
+    /**
+     * Scrive il report componendo i blocchi di tuple in parallelo.
+     *
+     * @param out destinazione
+     * @param executor esecutore che compone i blocchi
+     * @param parallelism numero di thread dell'esecutore
+     * @throws IOException se la scrittura fallisce
+     * @throws InterruptedException se il thread viene interrotto
+     */
+    public void writeTo(Appendable out, Executor executor, int parallelism) throws IOException, InterruptedException {
+        out.append('\n');
+        Deque<CompletableFuture<List<Part>>> pending = new ArrayDeque<>();
+        double[] sum = {0};
+        try {
+            List<Segment> chunk = new ArrayList<>();
+            int size = 0;
+            int number = 0;
+            for (Cluster<Integer> cluster : clusters) {
+                number++;
+                int[] members = members(cluster);
+                int from = 0;
+                do {
+                    int to = Math.min(members.length, from + CHUNK_MEMBERS - size);
+                    chunk.add(new Segment(cluster, number, members, from, to));
+                    size += to - from;
+                    from = to;
+                    if (size >= CHUNK_MEMBERS) {
+                        List<Segment> full = chunk;
+                        pending.add(CompletableFuture.supplyAsync(() -> render(full), executor));
+                        chunk = new ArrayList<>();
+                        size = 0;
+                        if (pending.size() >= 2 * parallelism) {
+                            append(await(pending.poll()), out, sum);
+                        }
+                    }
+                } while (from < members.length);
+            }
+            if (!chunk.isEmpty()) {
+                List<Segment> last = chunk;
+                pending.add(CompletableFuture.supplyAsync(() -> render(last), executor));
+            }
+            while (!pending.isEmpty()) {
+                append(await(pending.poll()), out, sum);
+            }
+        } finally {
+            for (CompletableFuture<List<Part>> f : pending) {
+                f.cancel(true);
+            }
+        }
+    }
+
+    private List<Part> render(List<Segment> chunk) {
+        List<Part> parts = new ArrayList<>(chunk.size());
+        try {
+            for (Segment s : chunk) {
+                StringBuilder sb = new StringBuilder();
+                if (s.from == 0) {
+                    sb.append(s.number).append(": ");
+                    writeCentroid(s.cluster, sb);
+                }
+                double[] distances = s.cluster.getDistances() == null ? new double[s.to - s.from] : null;
+                writeMembers(s.cluster, data, s.members, s.from, s.to, sb, distances);
+                parts.add(new Part(s, sb, distances));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringBuilder non solleva IOException
+        }
+        return parts;
+    }
+
+    /**
+     * Scrive le parti composte, chiudendo ogni cluster con la distanza media quando
+     * ne è stata scritta l'ultima parte. Le distanze calcolate sono sommate qui, una
+     * per una nell'ordine delle tuple, così che la media coincida con quella di
+     * {@link #writeTo(Appendable)}.
+     *
+     * @param sum somma delle distanze delle parti già scritte del cluster in corso
+     */
+    private static void append(List<Part> parts, Appendable out, double[] sum) throws IOException {
+        for (Part p : parts) {
+            out.append(p.text);
+            if (p.distances != null) {
+                for (double d : p.distances) {
+                    sum[0] += d;
+                }
+            }
+            if (p.segment.to == p.segment.members.length) {
+                writeAverage(p.segment.cluster, sum[0], out);
+                out.append('\n');
+                sum[0] = 0;
+            }
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> f) throws InterruptedException {
+        try {
+            return f.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("composizione del report fallita: " + e.getCause(), e.getCause());
+        }
+    }
+
+    /**
+     * Scrive la descrizione di un cluster: centroide, tuple con la distanza dal
+     * centroide e distanza media.
+     */
+    static void write(Cluster<?> cluster, Data data, Appendable out) throws IOException {
+        writeCentroid(cluster, out);
+        int[] members = members(cluster);
+        double sum = writeMembers(cluster, data, members, 0, members.length, out, null);
+        writeAverage(cluster, sum, out);
+    }
+
+    /**
+     * Restituisce gli indici delle tuple del cluster in ordine crescente: quelli
+     * registrati durante il calcolo, allineati alle distanze, o altrimenti ordinati.
+     */
+    private static int[] members(Cluster<?> cluster) {
+        int[] members = cluster.getMembers();
+        return members != null ? members : ClusterFile.sortedMembers(cluster);
+    }
+
+    private static void writeCentroid(Cluster<?> cluster, Appendable out) throws IOException {
+        Tuple centroid = cluster.getCentroid();
+        out.append("Centroid=(");
+        for (int i = 0; i < centroid.getLength(); i++) {
+            out.append(String.valueOf(centroid.get(i))).append(' ');
+        }
+        out.append(")\nExamples:\n");
+    }
+
+    /**
+     * Scrive le tuple del cluster dalla posizione {@code from} (inclusa) a {@code to}
+     * (esclusa) di {@code members}.
+     *
+     * @param computed array in cui registrare le distanze, dalla posizione 0, oppure {@code null}
+     * @return somma delle distanze delle tuple scritte
+     */
+    private static double writeMembers(Cluster<?> cluster, Data data, int[] members, int from, int to,
+                                       Appendable out, double[] computed) throws IOException {
+        double[] distances = cluster.getDistances();
+        Tuple centroid = cluster.getCentroid();
+        double sum = 0;
+        for (int k = from; k < to; k++) {
+            int id = members[k];
+            double d = distances != null ? distances[k] : centroid.getDistance(data.getItemSet(id));
+            sum += d;
+            if (computed != null) {
+                computed[k - from] = d;
+            }
+            out.append('[');
+            for (int j = 0; j < data.getNumberOfAttributes(); j++) {
+                out.append(String.valueOf(data.getValue(id, j))).append(' ');
+            }
+            out.append("] dist=").append(Double.toString(d)).append('\n');
+        }
+        return sum;
+    }
+
+    /**
+     * Scrive la distanza media del cluster, usando la somma registrata durante il
+     * calcolo se disponibile.
+     */
+    private static void writeAverage(Cluster<?> cluster, double sum, Appendable out) throws IOException {
+        ClusterStats stats = cluster.getStats();
+        if (cluster.getSize() > 0) {
+            double total = stats != null ? stats.getSumDistance() : sum;
+            out.append("AvgDistance=").append(Double.toString(total / cluster.getSize()));
+        }
+        out.append(" \n");
+    }
+
+    /**
+     * Intervallo di tuple di un cluster da comporre.
+     */
+    private static final class Segment {
+        final Cluster<?> cluster;
+        final int number;
+        final int[] members;
+        final int from;
+        final int to;
+
+        Segment(Cluster<?> cluster, int number, int[] members, int from, int to) {
+            this.cluster = cluster;
+            this.number = number;
+            this.members = members;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * Testo composto di un intervallo di tuple, con le distanze calcolate se il
+     * cluster non le ha registrate.
+     */
+    private static final class Part {
+        final Segment segment;
+        final StringBuilder text;
+        final double[] distances;
+
+        Part(Segment segment, StringBuilder text, double[] distances) {
+            this.segment = segment;
+            this.text = text;
+            this.distances = distances;
+        }
+    }
+}
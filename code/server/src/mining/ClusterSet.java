@@ -2,30 +2,54 @@ package mining;
 
 import data.Data;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.TreeSet;
 
 /**
  * Rappresenta un insieme ordinato di cluster generati dal processo di clustering.
  *
  * <p>Ogni cluster è identificato da un centroide e contiene un insieme di tuple 
- * (rappresentate dai rispettivi ID). I cluster sono mantenuti all'interno di un 
- * {@link TreeSet}, che garantisce l'ordinamento naturale definito dalla classe {@link Cluster}.</p>
+ * (rappresentate dai rispettivi ID). I cluster sono mantenuti in un array, nell'ordine
+ * in cui vengono trovati; al termine del clustering {@link #sort()} li ordina una sola
+ * volta per numero di tuple crescente e, a parità, per ordine di scoperta. A
+ * differenza di un insieme ordinato, due cluster con la stessa dimensione e lo stesso
+ * centroide vengono mantenuti entrambi.</p>
  *
  * <p>La classe implementa {@code Iterable<Cluster<Integer>>}, consentendo 
  * l'iterazione diretta sull'insieme dei cluster.</p>
  *
+ * <p>La forma serializzata è quella delle versioni precedenti, con i cluster in un
+ * campo {@code C} di tipo {@link Set}: i file salvati con la serializzazione Java
+ * restano leggibili.</p>
+ *
  * @see Cluster
  * @see Data
  */
 public class ClusterSet implements Iterable<Cluster<Integer>>, Serializable {
-	
+	private static final long serialVersionUID = 5859275874835996114L;
+
+    /**
+     * Campi della forma serializzata: l'insieme dei cluster, come nelle versioni precedenti.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("C", Set.class)
+    };
+
 	/**
-     * Insieme ordinato di cluster.
+     * Cluster, in ordine di scoperta fino a {@link #sort()}.
      */
-    private final Set<Cluster<Integer>> C = new TreeSet<>();
+    private transient List<Cluster<Integer>> C = new ArrayList<>();
 
     /**
      * Costruttore di default. 
@@ -36,7 +60,7 @@ public class ClusterSet implements Iterable<Cluster<Integer>>, Serializable {
     }
 
     /**
-     * Aggiunge un nuovo cluster all'insieme.
+     * Aggiunge un nuovo cluster in fondo all'insieme.
      *
      * @param newCluster il cluster da aggiungere
      */
@@ -44,15 +68,69 @@ public class ClusterSet implements Iterable<Cluster<Integer>>, Serializable {
         C.add(newCluster);
     }
 
+    /**
+     * Ordina i cluster per numero di tuple crescente e, a parità, per ordine di
+     * inserimento. L'ordinamento usa una chiave primitiva per cluster (dimensione e
+     * posizione), senza confrontare i centroidi.
+     */
+    void sort() {
+        long[] keys = new long[C.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = (long) C.get(i).getSize() << 32 | i;
+        }
+        Arrays.sort(keys);
+        List<Cluster<Integer>> sorted = new ArrayList<>(keys.length);
+        for (long key : keys) {
+            sorted.add(C.get((int) key));
+        }
+        C = sorted;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("C", new LinkedHashSet<>(C));
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        Set<Cluster<Integer>> set = (Set<Cluster<Integer>>) in.readFields().get("C", null);
+        C = set == null ? new ArrayList<>() : new ArrayList<>(set);
+    }
+
+    /**
+     * Restituisce il numero di cluster presenti nell'insieme.
+     *
+     * @return numero di cluster
+     */
+    public int size() {
+        return C.size();
+    }
+
+    /**
+     * Restituisce una stima dell'occupazione in memoria dell'insieme di cluster, in byte.
+     * <p>Per ogni cluster considera il centroide e, per ogni tupla appartenente al
+     * cluster, l'indice e la distanza registrati durante il clustering oppure, se il
+     * cluster non li ha registrati, una voce dell'insieme degli ID.</p>
+     *
+     * @return occupazione stimata in byte
+     */
+    public long getEstimatedSize() {
+        long size = 64;
+        for (Cluster<Integer> c : C) {
+            size += 96 + 48L * c.getCentroid().getLength() + (c.getMembers() != null ? 12L : 60L) * c.getSize();
+        }
+        return size;
+    }
+
     /**
      * Restituisce un iteratore per i cluster presenti nell'insieme.
      *
-     * @return un iteratore che scorre tutti i cluster nell'ordine stabilito
-     *         dall'implementazione di {@link Cluster#compareTo(Object)}
+     * @return un iteratore che scorre tutti i cluster nell'ordine dell'insieme
      */
     @Override
     public Iterator<Cluster<Integer>> iterator() {
-        return C.iterator();
+        return Collections.unmodifiableList(C).iterator();
     }
 
     /**
@@ -64,14 +142,14 @@ public class ClusterSet implements Iterable<Cluster<Integer>>, Serializable {
      * @return stringa descrittiva dei centroidi dei cluster
      */
     public String toString() {
-        String str = "\n";
+        StringBuilder sb = new StringBuilder("\n");
         Iterator<Cluster<Integer>> it = this.iterator();
         int i = 0;
         while (it.hasNext()) {
             Cluster<Integer> cluster = it.next();
-            str += "Cluster " + i++ + ": " + cluster.toString() + "\n";
+            sb.append("Cluster ").append(i++).append(": ").append(cluster).append("\n");
         }
-        return str;
+        return sb.toString();
     }
 
     /**
@@ -86,17 +164,57 @@ public class ClusterSet implements Iterable<Cluster<Integer>>, Serializable {
      * </ul>
      * I cluster sono numerati progressivamente a partire da 1.</p>
      *
+     * <p>Per report di grandi dimensioni conviene scrivere direttamente su uno stream
+     * con {@link ClusterReport}.</p>
+     *
      * @param data l'oggetto {@link Data} contenente le tuple originali
      * @return una stringa multi-riga con la descrizione completa di tutti i cluster
      */
     public String toString(Data data) {
-        String str = "\n";
-        Iterator<Cluster<Integer>> it = this.iterator();
-        int i = 1;
-        while (it.hasNext()) {
-            Cluster<Integer> cluster = it.next();
-            str += i++ + ": " + cluster.toString(data) + "\n";
+        StringBuilder sb = new StringBuilder();
+        try {
+            new ClusterReport(this, data).writeTo(sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringBuilder non solleva IOException
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Restituisce il riepilogo di ciascun cluster, nello stesso ordine e con la
+     * stessa numerazione (a partire da 0) di {@link #toString()}.
+     *
+     * <p>Il riepilogo non contiene la descrizione testuale delle tuple: gli indici
+     * delle tuple possono essere letti a pagine e descritti solo se necessario. Per i
+     * cluster appena calcolati riusa le distanze e le statistiche registrate da
+     * {@link QTMiner#compute(Data)}.</p>
+     *
+     * @param data il dataset su cui è stato calcolato il clustering, {@code null} se non
+     *             disponibile (ad esempio per cluster letti da file): in tal caso la
+     *             distanza media non viene calcolata
+     * @return lista dei riepiloghi dei cluster
+     */
+    public List<ClusterSummary> summarize(Data data) {
+        List<ClusterSummary> summary = new ArrayList<>(C.size());
+        int i = 0;
+        for (Cluster<Integer> cluster : C) {
+            ClusterStats stats = cluster.getStats();
+            if (stats != null) {
+                summary.add(new ClusterSummary(i++, cluster.getCentroid(), cluster.getMembers(),
+                        stats.getAvgDistance(), cluster.getDistances(), stats));
+                continue;
+            }
+            int[] members = ClusterFile.sortedMembers(cluster);
+            double avg = Double.NaN;
+            if (data != null && members.length > 0) {
+                double sum = 0;
+                for (int id : members) {
+                    sum += cluster.getCentroid().getDistance(data.getItemSet(id));
+                }
+                avg = sum / members.length;
+            }
+            summary.add(new ClusterSummary(i++, cluster.getCentroid(), members, avg, null, null));
         }
-        return str;
+        return summary;
     }
 }
\ No newline at end of file
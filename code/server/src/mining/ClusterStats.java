@@ -0,0 +1,195 @@
+package mining;
+
+import data.Data;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Statistiche di un cluster raccolte durante {@link QTMiner#compute(Data)}: somma,
+ * media e massimo delle distanze delle tuple dal centroide e, per ogni attributo,
+ * minimo, massimo e media dei valori continui oppure istogramma dei valori discreti.
+ *
+ * <p>Le statistiche sono calcolate in un'unica passata sulle tuple, quando il
+ * cluster viene scelto, riusando le distanze già calcolate per costruirlo. Non sono
+ * disponibili per i cluster letti da file.</p>
+ */
+public final class ClusterStats {
+    private final int size;
+    private final double sumDistance;
+    private final double maxDistance;
+    private final String[] names;
+    private final double[] min;
+    private final double[] max;
+    private final double[] mean;
+    private final Map<String, Integer>[] histograms;
+
+    /**
+     * Calcola le statistiche delle tuple indicate.
+     *
+     * @param data dataset su cui è stato calcolato il cluster
+     * @param members indici delle tuple del cluster
+     * @param distances distanza dal centroide di ciascuna tupla, nello stesso ordine
+     */
+    @SuppressWarnings("unchecked")
+    ClusterStats(Data data, int[] members, double[] distances) {
+        int attributes = data.getNumberOfAttributes();
+        size = members.length;
+        names = new String[attributes];
+        min = new double[attributes];
+        max = new double[attributes];
+        mean = new double[attributes];
+        histograms = new Map[attributes];
+        for (int j = 0; j < attributes; j++) {
+            names[j] = String.valueOf(data.getAttribute(j));
+            min[j] = Double.POSITIVE_INFINITY;
+            max[j] = Double.NEGATIVE_INFINITY;
+        }
+        double sum = 0;
+        double maxD = size == 0 ? Double.NaN : 0;
+        for (int k = 0; k < size; k++) {
+            sum += distances[k];
+            maxD = Math.max(maxD, distances[k]);
+            for (int j = 0; j < attributes; j++) {
+                Object value = data.getValue(members[k], j);
+                if (value instanceof Number) {
+                    double v = ((Number) value).doubleValue();
+                    min[j] = Math.min(min[j], v);
+                    max[j] = Math.max(max[j], v);
+                    mean[j] += v;
+                } else {
+                    if (histograms[j] == null) {
+                        histograms[j] = new TreeMap<>();
+                    }
+                    histograms[j].merge(String.valueOf(value), 1, Integer::sum);
+                }
+            }
+        }
+        for (int j = 0; j < attributes; j++) {
+            if (histograms[j] != null || size == 0) {
+                min[j] = max[j] = mean[j] = Double.NaN;
+            } else {
+                mean[j] /= size;
+            }
+        }
+        sumDistance = sum;
+        maxDistance = maxD;
+    }
+
+    /**
+     * Restituisce il numero di tuple del cluster.
+     *
+     * @return numero di tuple
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Restituisce la somma delle distanze delle tuple dal centroide.
+     *
+     * @return somma delle distanze
+     */
+    public double getSumDistance() {
+        return sumDistance;
+    }
+
+    /**
+     * Restituisce la distanza media delle tuple dal centroide.
+     *
+     * @return distanza media, {@link Double#NaN} per un cluster vuoto
+     */
+    public double getAvgDistance() {
+        return size == 0 ? Double.NaN : sumDistance / size;
+    }
+
+    /**
+     * Restituisce la distanza massima di una tupla dal centroide.
+     *
+     * @return distanza massima, {@link Double#NaN} per un cluster vuoto
+     */
+    public double getMaxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * Restituisce il numero di attributi.
+     *
+     * @return numero di attributi
+     */
+    public int getNumberOfAttributes() {
+        return names.length;
+    }
+
+    /**
+     * Restituisce il nome dell'attributo in posizione {@code j}.
+     *
+     * @param j indice dell'attributo
+     * @return nome dell'attributo
+     */
+    public String getAttributeName(int j) {
+        return names[j];
+    }
+
+    /**
+     * Restituisce il valore minimo dell'attributo continuo in posizione {@code j}.
+     *
+     * @param j indice dell'attributo
+     * @return valore minimo, {@link Double#NaN} per un attributo discreto
+     */
+    public double getMin(int j) {
+        return min[j];
+    }
+
+    /**
+     * Restituisce il valore massimo dell'attributo continuo in posizione {@code j}.
+     *
+     * @param j indice dell'attributo
+     * @return valore massimo, {@link Double#NaN} per un attributo discreto
+     */
+    public double getMax(int j) {
+        return max[j];
+    }
+
+    /**
+     * Restituisce il valore medio dell'attributo continuo in posizione {@code j}.
+     *
+     * @param j indice dell'attributo
+     * @return valore medio, {@link Double#NaN} per un attributo discreto
+     */
+    public double getMean(int j) {
+        return mean[j];
+    }
+
+    /**
+     * Restituisce l'istogramma dei valori dell'attributo discreto in posizione {@code j}.
+     *
+     * @param j indice dell'attributo
+     * @return numero di tuple per valore, in ordine di valore; vuoto per un attributo continuo
+     */
+    public Map<String, Integer> getHistogram(int j) {
+        return histograms[j] == null ? Collections.emptyMap() : Collections.unmodifiableMap(histograms[j]);
+    }
+
+    /**
+     * Restituisce una descrizione delle statistiche.
+     *
+     * @return distanze e, per ogni attributo, intervallo e media o istogramma
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("size=").append(size)
+                .append(" avgDistance=").append(getAvgDistance())
+                .append(" maxDistance=").append(maxDistance);
+        for (int j = 0; j < names.length; j++) {
+            sb.append(' ').append(names[j]).append('=');
+            if (histograms[j] != null) {
+                sb.append(histograms[j]);
+            } else {
+                sb.append('[').append(min[j]).append(", ").append(max[j]).append("] mean ").append(mean[j]);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,176 @@
+package mining;
+
+import data.Tuple;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Riepilogo di un cluster: identificativo, centroide, numero di tuple e distanza
+ * media dal centroide, insieme agli indici delle tuple in ordine crescente.
+ *
+ * <p>Permette di descrivere un risultato senza costruirne la rappresentazione
+ * testuale completa e di leggerne le tuple a pagine con {@link #getMembers(int, int)}.
+ * Per un risultato aperto con {@link ClusterIndex} gli indici delle tuple vengono
+ * decodificati alla prima richiesta di una pagina.</p>
+ *
+ * @see ClusterSet#summarize(data.Data)
+ * @see ClusterIndex#summarize()
+ */
+public class ClusterSummary {
+    private final int id;
+    private final Tuple centroid;
+    private final int size;
+    private final double avgDistance;
+    private final ClusterIndex index;
+    private final double[] distances;
+    private final ClusterStats stats;
+    private int[] members;
+
+    /**
+     * Crea il riepilogo di un cluster.
+     *
+     * @param id posizione del cluster nell'insieme, a partire da 0
+     * @param centroid centroide del cluster
+     * @param members indici delle tuple del cluster, in ordine crescente
+     * @param avgDistance distanza media dal centroide, {@link Double#NaN} se non disponibile
+     * @param distances distanze dal centroide delle tuple, nell'ordine di {@code members};
+     *                  {@code null} se non registrate durante il clustering
+     * @param stats statistiche del cluster, {@code null} se non disponibili
+     */
+    ClusterSummary(int id, Tuple centroid, int[] members, double avgDistance, double[] distances, ClusterStats stats) {
+        this.id = id;
+        this.centroid = centroid;
+        this.size = members.length;
+        this.members = members;
+        this.avgDistance = avgDistance;
+        this.distances = distances;
+        this.stats = stats;
+        this.index = null;
+    }
+
+    /**
+     * Crea il riepilogo di un cluster di un risultato salvato, senza distanza media.
+     *
+     * @param id posizione del cluster nel risultato, a partire da 0
+     * @param centroid centroide del cluster
+     * @param size numero di tuple del cluster
+     * @param index risultato da cui decodificare gli indici delle tuple
+     */
+    ClusterSummary(int id, Tuple centroid, int size, ClusterIndex index) {
+        this.id = id;
+        this.centroid = centroid;
+        this.size = size;
+        this.avgDistance = Double.NaN;
+        this.distances = null;
+        this.stats = null;
+        this.index = index;
+    }
+
+    /**
+     * Restituisce l'identificativo del cluster.
+     *
+     * @return posizione del cluster nell'insieme, a partire da 0
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Restituisce il centroide del cluster.
+     *
+     * @return il centroide
+     */
+    public Tuple getCentroid() {
+        return centroid;
+    }
+
+    /**
+     * Restituisce il numero di tuple del cluster.
+     *
+     * @return numero di tuple
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Restituisce la distanza media delle tuple dal centroide.
+     *
+     * @return distanza media, {@link Double#NaN} se il dataset non era disponibile
+     */
+    public double getAvgDistance() {
+        return avgDistance;
+    }
+
+    /**
+     * Restituisce le statistiche del cluster (distanze, intervalli e istogrammi degli
+     * attributi).
+     *
+     * @return le statistiche, {@code null} se il cluster non è stato appena calcolato
+     */
+    public ClusterStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Restituisce una pagina degli indici delle tuple del cluster.
+     *
+     * @param offset posizione della prima tupla della pagina
+     * @param limit numero massimo di tuple della pagina
+     * @return indici delle tuple, in ordine crescente; vuoto oltre l'ultima tupla
+     * @throws UncheckedIOException se non è possibile decodificare gli indici dal file
+     */
+    public int[] getMembers(int offset, int limit) {
+        if (members == null) {
+            try {
+                members = index.getMembers(id);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        int from = Math.max(0, Math.min(offset, members.length));
+        int to = (int) Math.min(members.length, (long) from + Math.max(0, limit));
+        return Arrays.copyOfRange(members, from, to);
+    }
+
+    /**
+     * Restituisce le distanze dal centroide delle tuple di una pagina, registrate
+     * durante il clustering, senza ricalcolarle.
+     *
+     * @param offset posizione della prima tupla della pagina
+     * @param limit numero massimo di tuple della pagina
+     * @return distanze nello stesso ordine di {@link #getMembers(int, int)}, {@code null}
+     *         se non sono state registrate
+     */
+    public double[] getDistances(int offset, int limit) {
+        if (distances == null) {
+            return null;
+        }
+        int from = Math.max(0, Math.min(offset, distances.length));
+        int to = (int) Math.min(distances.length, (long) from + Math.max(0, limit));
+        return Arrays.copyOfRange(distances, from, to);
+    }
+
+    /**
+     * Restituisce una rappresentazione testuale del riepilogo.
+     *
+     * @return identificativo, centroide, numero di tuple e distanza media
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(id).append(": Centroid=(");
+        for (int i = 0; i < centroid.getLength(); i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(centroid.get(i));
+        }
+        sb.append(") size=").append(size);
+        if (!Double.isNaN(avgDistance)) {
+            sb.append(" AvgDistance=").append(avgDistance);
+        }
+        return sb.toString();
+    }
+}
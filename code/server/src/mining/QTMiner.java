@@ -4,6 +4,7 @@ import data.Data;
 import data.Tuple;
 import java.io.*;
 import java.util.Iterator;
+import java.util.concurrent.CancellationException;
 
 /**
  * Implementa l'algoritmo di clustering <b>QT (Quality Threshold)</b>.
@@ -22,7 +23,7 @@ import java.util.Iterator;
  *
  * <p>
  * La classe consente inoltre di <b>salvare</b> e <b>ricaricare</b> un risultato di 
- * clusterizzazione da/verso file.
+ * clusterizzazione da/verso file, nel formato binario descritto in {@link ClusterFile}.
  * </p>
  *
  * @see Cluster
@@ -40,6 +41,18 @@ public class QTMiner {
      */
     double radius;
 
+    /**
+     * Indica se è stata richiesta l'interruzione del clustering in corso.
+     */
+    private volatile boolean cancelled;
+
+    /**
+     * Numero di tuple già assegnate a un cluster e numero totale di tuple del
+     * clustering in corso, usati per riportarne l'avanzamento.
+     */
+    private volatile int clustered;
+    private volatile int total;
+
     /**
      * Costruttore che inizializza il miner con un valore di raggio specificato.
      *
@@ -50,15 +63,35 @@ public class QTMiner {
         C = new ClusterSet();
     }
 
+    /**
+     * Costruttore che inizializza il miner con un insieme di cluster già calcolato
+     * con il raggio indicato, ad esempio recuperato da una cache di risultati.
+     *
+     * @param radius il raggio con cui sono stati calcolati i cluster
+     * @param C l'insieme dei cluster
+     */
+    public QTMiner(double radius, ClusterSet C) {
+        this.radius = radius;
+        this.C = C;
+    }
+
     /**
      * Costruttore che carica un insieme di cluster precedentemente salvato da file.
+     * Sono accettati sia i file nel formato binario di {@link ClusterFile}, che
+     * riportano anche il raggio, sia quelli salvati con la serializzazione Java.
      *
      * @param fileName nome del file da cui caricare i cluster
      * @throws FileNotFoundException se il file non esiste
-     * @throws IOException se si verifica un errore I/O durante la lettura
+     * @throws IOException se si verifica un errore I/O durante la lettura o il file non è valido
      * @throws ClassNotFoundException se il contenuto del file non è compatibile
      */
     public QTMiner(String fileName) throws FileNotFoundException, IOException, ClassNotFoundException {
+        if (!ClusterFile.isLegacy(fileName)) {
+            QTMiner loaded = ClusterFile.read(fileName);
+            radius = loaded.radius;
+            C = loaded.C;
+            return;
+        }
         ObjectInputStream in = new ObjectInputStream(new FileInputStream(fileName));
         ClusterSet temp = (ClusterSet) in.readObject();
         in.close();
@@ -69,16 +102,25 @@ public class QTMiner {
     }
 
     /**
-     * Salva l'insieme dei cluster trovati su file.
+     * Salva l'insieme dei cluster trovati e il raggio su file, nel formato binario
+     * di {@link ClusterFile}. La scrittura è atomica: se fallisce, il file di
+     * destinazione conserva il contenuto precedente.
      *
      * @param fileName nome del file di destinazione
      * @throws FileNotFoundException se il file non può essere creato
      * @throws IOException se si verifica un errore durante la scrittura
      */
     public void salva(String fileName) throws FileNotFoundException, IOException {
-        ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(fileName));
-        out.writeObject(C);
-        out.close();
+        ClusterFile.write(C, radius, fileName);
+    }
+
+    /**
+     * Restituisce il raggio usato per il clustering.
+     *
+     * @return il raggio massimo di inclusione nel cluster
+     */
+    public double getRadius() {
+        return radius;
     }
 
     /**
@@ -90,6 +132,25 @@ public class QTMiner {
         return C;
     }
 
+    /**
+     * Richiede l'interruzione del clustering in corso. Il metodo {@link #compute(Data)}
+     * termina alla successiva tupla esaminata sollevando {@link CancellationException}.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Restituisce l'avanzamento del clustering come frazione delle tuple già
+     * assegnate a un cluster.
+     *
+     * @return valore tra 0 e 1, 0 se il clustering non è ancora iniziato
+     */
+    public double getProgress() {
+        int n = total;
+        return n == 0 ? 0 : (double) clustered / n;
+    }
+
     /**
      * Esegue l'algoritmo QT per costruire i cluster da un dataset.
      *
@@ -97,6 +158,7 @@ public class QTMiner {
      * @return il numero di cluster trovati
      * @throws ClusteringRadiusException se tutte le tuple finiscono in un unico cluster
      * @throws EmptyDatasetException se il dataset è vuoto
+     * @throws CancellationException se il clustering è stato interrotto con {@link #cancel()}
      */
     public int compute(Data data) throws ClusteringRadiusException, EmptyDatasetException {
         if (data.getNumberOfExamples() == 0) {
@@ -107,8 +169,11 @@ public class QTMiner {
         for (int i = 0; i < isClustered.length; i++)
             isClustered[i] = false; 
         int countClustered = 0;
+        total = data.getNumberOfExamples();
+        double[][] distances = new double[2][data.getNumberOfExamples()];
         while (countClustered != data.getNumberOfExamples()) {
-            Cluster<Integer> c = buildCandidateCluster(data, isClustered);
+            Cluster<Integer> c = buildCandidateCluster(data, isClustered, distances);
+            c.finish(data, distances[0]);
             C.add(c); // cluster finali
             numclusters++;
 
@@ -116,7 +181,9 @@ public class QTMiner {
                 isClustered[id] = true;
             }
             countClustered += c.getSize();
+            clustered = countClustered;
         }
+        C.sort();
 
         if (numclusters == 1) {
             throw new ClusteringRadiusException(data.getNumberOfExamples() + " tuples in one cluster!");
@@ -129,30 +196,44 @@ public class QTMiner {
      * Costruisce il cluster candidato migliore partendo da ogni tupla non ancora clusterizzata
      * e selezionando quella che genera il cluster più numeroso rispettando il raggio.
      *
+     * <p>Le distanze dal centroide calcolate per il candidato corrente vengono scritte in
+     * {@code distances[1]}; quando il candidato diventa il migliore i due array vengono
+     * scambiati, così che al termine {@code distances[0]} contenga le distanze delle
+     * tuple del cluster restituito senza allocare un array per ogni candidato.</p>
+     *
      * @param data dataset su cui lavorare
      * @param isClustered array booleano che indica se un elemento è già stato clusterizzato
+     * @param distances due array di lunghezza pari al numero di tuple, per le distanze
+     *                  del miglior candidato e del candidato corrente
      * @return il cluster più grande tra i candidati
      */
-    private Cluster<Integer> buildCandidateCluster(Data data, boolean[] isClustered) {
+    private Cluster<Integer> buildCandidateCluster(Data data, boolean[] isClustered, double[][] distances) {
         Cluster<Integer> bestCluster = null;
         int maxSize = -1;
 
         for (int i = 0; i < data.getNumberOfExamples(); i++) {
+            if (cancelled) {
+                throw new CancellationException("Clustering interrotto");
+            }
             if (!isClustered[i]) {
                 Tuple centroid = data.getItemSet(i); // considera ogni tupla come centroide
                 Cluster<Integer> candidateCluster = new Cluster<>(centroid);
+                double[] current = distances[1];
 
                 for (int j = 0; j < data.getNumberOfExamples(); j++) {
                     if (!isClustered[j]) {
-                        Tuple current = data.getItemSet(j);
-                        if (centroid.getDistance(current) <= radius) {
+                        double d = centroid.getDistance(data.getItemSet(j));
+                        if (d <= radius) {
                             candidateCluster.addData(j); // se ogni tupla entra nel radius del
-                        }                                // centroide viene agguinta nel cluster
+                            current[j] = d;              // centroide viene agguinta nel cluster
+                        }
                     }
                 }
                 if (candidateCluster.getSize() > maxSize) { // il cluster appena fatto sara il piu grande
                     bestCluster = candidateCluster;         // quindi itera tutte le tuple per cercare
                     maxSize = candidateCluster.getSize();   // il cluster piu grande in assoluto
+                    distances[1] = distances[0];
+                    distances[0] = current;
                 }
             }
         }
@@ -0,0 +1,220 @@
+package server;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Controllo di ammissione dei clustering in base alla memoria e al calcolo stimati.
+ *
+ * <p>Prima di caricare i dati e avviare un clustering il server ne stima il costo a
+ * partire dal numero di righe, dal numero di attributi e dall'algoritmo
+ * ({@link #estimate(long, int, String, boolean)}). Un lavoro la cui stima supera da
+ * sola i limiti viene rifiutato subito; altrimenti la memoria stimata viene riservata
+ * e rilasciata al termine. Se la memoria in uso (i dataset in cache) più quella già
+ * riservata non lascia spazio sufficiente, la richiesta attende in coda fino a un
+ * tempo massimo e poi viene rifiutata. Le richieste in attesa vengono risvegliate
+ * quando un clustering termina e quando la cache dei dataset libera memoria
+ * ({@link #memoryReleased()}).</p>
+ */
+public class AdmissionControl {
+
+    /**
+     * Stima del costo di un clustering.
+     */
+    public static class Estimate {
+        private final long bytes;
+        private final long work;
+
+        Estimate(long bytes, long work) {
+            this.bytes = bytes;
+            this.work = work;
+        }
+
+        /**
+         * Restituisce la memoria stimata.
+         *
+         * @return byte necessari al lavoro
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Restituisce il calcolo stimato.
+         *
+         * @return numero di confronti tra attributi nel caso peggiore
+         */
+        public long getWork() {
+            return work;
+        }
+
+        /**
+         * Restituisce una rappresentazione testuale della stima.
+         *
+         * @return memoria in MB e calcolo stimati
+         */
+        public String toString() {
+            return mb(bytes) + " MB, " + work + " confronti";
+        }
+    }
+
+    /**
+     * Memoria riservata a un clustering ammesso, da chiudere al termine del lavoro.
+     */
+    public class Reservation implements AutoCloseable {
+        private final long bytes;
+        private boolean released;
+
+        private Reservation(long bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * Rilascia la memoria riservata. Le chiamate successive alla prima non hanno effetto.
+         */
+        @Override
+        public void close() {
+            synchronized (AdmissionControl.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                reservedBytes -= bytes;
+                running--;
+                AdmissionControl.this.notifyAll();
+            }
+        }
+    }
+
+    private final long maxBytes;
+    private final long maxWork;
+    private final long maxWaitMillis;
+    private final LongSupplier inUseBytes;
+    private long reservedBytes;
+    private int running;
+    private int waiting;
+    private long admitted;
+    private long rejected;
+
+    /**
+     * Crea il controllo di ammissione.
+     *
+     * @param maxBytes memoria complessiva disponibile per dataset e clustering, in byte
+     * @param maxWork calcolo massimo stimato di un singolo clustering
+     * @param maxWaitMillis attesa massima in coda di una richiesta, in millisecondi
+     * @param inUseBytes memoria già occupata dai dataset in cache
+     */
+    public AdmissionControl(long maxBytes, long maxWork, long maxWaitMillis, LongSupplier inUseBytes) {
+        this.maxBytes = maxBytes;
+        this.maxWork = maxWork;
+        this.maxWaitMillis = maxWaitMillis;
+        this.inUseBytes = inUseBytes;
+    }
+
+    /**
+     * Stima il costo di un clustering.
+     * <p>
+     * Per l'algoritmo QT la memoria comprende il dataset in formato colonnare (se non
+     * è già in cache), il cluster candidato e il migliore trovato durante ogni passata,
+     * l'insieme dei cluster risultante e la rappresentazione testuale inviata al client.
+     * Il calcolo è quello di una passata di {@code buildCandidateCluster}: una distanza
+     * tra ogni coppia di tuple, su tutti gli attributi.
+     *
+     * @param rows numero di righe del dataset
+     * @param attributes numero di attributi
+     * @param engine algoritmo di clustering (vedi {@link ResultCache#ENGINE})
+     * @param datasetCached {@code true} se il dataset è già in memoria
+     * @return stima del costo
+     * @throws IllegalArgumentException se l'algoritmo non è supportato
+     */
+    public static Estimate estimate(long rows, int attributes, String engine, boolean datasetCached) {
+        if (!ResultCache.ENGINE.equals(engine)) {
+            throw new IllegalArgumentException("Algoritmo non supportato: " + engine);
+        }
+        long dataset = datasetCached ? 0 : 64 + rows * (16 + 8L * attributes);
+        long clustering = rows * (1 + 3 * 48L) + rows / 2 * (96 + 48L * attributes);
+        long report = rows * attributes * 24L * 2 * 2;
+        long work = saturatingMultiply(saturatingMultiply(rows, rows), Math.max(1, attributes));
+        return new Estimate(dataset + clustering + report, work);
+    }
+
+    /**
+     * Ammette il clustering stimato, attendendo se necessario che si liberi memoria.
+     *
+     * @param estimate stima del costo del clustering
+     * @return la memoria riservata, da chiudere al termine del lavoro
+     * @throws AdmissionException se il lavoro supera i limiti o l'attesa scade
+     * @throws InterruptedException se il thread viene interrotto durante l'attesa
+     */
+    public synchronized Reservation admit(Estimate estimate) throws AdmissionException, InterruptedException {
+        if (estimate.work > maxWork) {
+            rejected++;
+            throw new AdmissionException("clustering troppo oneroso (" + estimate.work
+                    + " confronti stimati, limite " + maxWork + "); ridurre righe o colonne");
+        }
+        if (estimate.bytes > maxBytes) {
+            rejected++;
+            throw new AdmissionException("memoria insufficiente (" + mb(estimate.bytes)
+                    + " MB stimati, limite " + mb(maxBytes) + " MB); ridurre righe o colonne");
+        }
+        long deadline = System.currentTimeMillis() + maxWaitMillis;
+        waiting++;
+        try {
+            while (running > 0 && inUseBytes.getAsLong() + reservedBytes + estimate.bytes > maxBytes) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    rejected++;
+                    throw new AdmissionException("server occupato (" + mb(estimate.bytes) + " MB richiesti, "
+                            + mb(reservedBytes) + " MB riservati, " + mb(inUseBytes.getAsLong())
+                            + " MB in uso), riprovare più tardi");
+                }
+                wait(remaining);
+            }
+        } finally {
+            waiting--;
+        }
+        reservedBytes += estimate.bytes;
+        running++;
+        admitted++;
+        return new Reservation(estimate.bytes);
+    }
+
+    /**
+     * Segnala che la memoria in uso è diminuita, risvegliando le richieste in attesa
+     * perché verifichino di nuovo lo spazio disponibile.
+     */
+    public synchronized void memoryReleased() {
+        if (waiting > 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Restituisce la memoria riservata dai clustering in corso.
+     *
+     * @return byte riservati
+     */
+    public synchronized long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    /**
+     * Restituisce una descrizione dello stato del controllo di ammissione.
+     *
+     * @return memoria in uso e riservata, lavori in corso, in attesa, ammessi e rifiutati
+     */
+    public synchronized String toString() {
+        return "AdmissionControl[in uso=" + mb(inUseBytes.getAsLong()) + " MB, riservati=" + mb(reservedBytes)
+                + " MB, limite=" + mb(maxBytes) + " MB, in corso=" + running + ", in attesa=" + waiting
+                + ", ammessi=" + admitted + ", rifiutati=" + rejected + "]";
+    }
+
+    private static long mb(long bytes) {
+        return bytes >> 20;
+    }
+
+    private static long saturatingMultiply(long a, long b) {
+        long hi = Math.multiplyHigh(a, b);
+        long lo = a * b;
+        return (hi == 0 && lo >= 0) ? lo : Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,21 @@
+package server;
+
+/**
+ * Eccezione lanciata quando un clustering non viene ammesso perché la sua stima
+ * di memoria o di calcolo supera i limiti del server.
+ *
+ * <p>Estende {@link Exception} ed è una checked exception.</p>
+ *
+ * @see AdmissionControl
+ */
+public class AdmissionException extends Exception {
+
+    /**
+     * Costruttore che accetta un messaggio descrittivo dell'errore.
+     *
+     * @param message messaggio che descrive il motivo del rifiuto
+     */
+    public AdmissionException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,476 @@
+package server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Costanti e codifica del protocollo binario usato da {@link BinaryServerOneClient}.
+ *
+ * <p>Ogni messaggio è un frame composto da lunghezza del contenuto (int, 4 byte
+ * big-endian), tipo (1 byte) e contenuto. Nel contenuto gli interi e i double sono
+ * codificati come da {@link DataOutput}, le stringhe come lunghezza in byte (int)
+ * seguita dai byte UTF-8.</p>
+ *
+ * <p>Richieste del client e relativo contenuto:</p>
+ * <ul>
+ *     <li>{@link #SELECT_TABLE}: tabella, colonne, filtro (stringhe); risposta {@link #PREVIEW}</li>
+ *     <li>{@link #CLUSTER}: raggio (double); risposta {@link #SUMMARY}</li>
+ *     <li>{@link #SAVE}: nome file (stringa); risposta {@link #OK}</li>
+ *     <li>{@link #LOAD_FILE}: nome file (stringa); risposta {@link #SUMMARY}</li>
+ *     <li>{@link #SUBMIT}: raggio (double), priorità (byte); risposta {@link #JOB}</li>
+ *     <li>{@link #STATUS}: id (long); risposta {@link #JOB_STATUS}</li>
+ *     <li>{@link #WAIT}: id (long), attesa massima in ms (long, 0 senza limite); risposta {@link #JOB_STATUS}</li>
+ *     <li>{@link #RESULT}: id (long); risposta {@link #SUMMARY}</li>
+ *     <li>{@link #CANCEL}: id (long); risposta {@link #OK}</li>
+ *     <li>{@link #GET_SUMMARY}: vuoto; risposta {@link #SUMMARY} degli ultimi cluster</li>
+ *     <li>{@link #GET_MEMBERS}: cluster (int), posizione della prima tupla (int), numero
+ *         massimo di tuple (int, al più {@link #MAX_PAGE}); risposta {@link #MEMBERS}</li>
+ *     <li>{@link #BATCH}: interruzione al primo errore (byte, 0 o 1), numero di richieste
+ *         (int, al più {@link #MAX_BATCH}) e per ciascuna id scelto dal client (int), tipo
+ *         (byte), lunghezza (int) e contenuto; risposta: una {@link #TAGGED} per richiesta,
+ *         inviata appena disponibile, seguita da {@link #BATCH_DONE}</li>
+ *     <li>{@link #COMPRESS}: livello di compressione (byte, da 1 a 9, 0 per disattivarla,
+ *         -1 per {@link #DEFAULT_LEVEL}), dimensione minima del contenuto da comprimere in
+ *         byte (int, -1 per {@link #DEFAULT_THRESHOLD}); risposta {@link #OK}. Le risposte
+ *         successive il cui contenuto supera la soglia sono inviate come {@link #COMPRESSED}</li>
+ *     <li>{@link #GET_STATS}: vuoto; risposta {@link #STATS}</li>
+ *     <li>{@link #SAVE_ASYNC}: nome file (stringa); risposta {@link #JOB} con l'id del
+ *         salvataggio, avviato in background</li>
+ *     <li>{@link #SAVE_STATUS}: id del salvataggio (long), attesa massima in ms (long, 0
+ *         senza limite, negativo per non attendere); risposta {@link #SAVE_STATE}</li>
+ *     <li>{@link #LIST_RESULTS}: tabella (stringa, vuota per tutte); risposta {@link #CATALOG}</li>
+ *     <li>{@link #DOWNLOAD}: nome di un file salvato (stringa), posizione iniziale (long),
+ *         numero di byte (long, -1 fino alla fine) e dimensione del file attesa dal client
+ *         (long, -1 se non nota); se la dimensione attesa è diversa da quella attuale il
+ *         file viene inviato dall'inizio. Risposta {@link #FILE_DATA}. Non è ammessa in un
+ *         {@link #BATCH}</li>
+ *     <li>{@link #EXPORT}: tabella di destinazione (stringa), sostituzione della tabella se
+ *         esiste (byte, 0 o 1), righe per lotto (int, 0 per il valore configurato);
+ *         risposta {@link #EXPORTED}</li>
+ *     <li>{@link #SCORE}: file dei cluster salvati, tabella e filtro sulle righe (stringhe),
+ *         raggio (double, 0 per quello salvato nel file), destinazione (byte, 0 file CSV e
+ *         1 tabella del database), nome della destinazione (stringa), sostituzione della
+ *         destinazione se esiste (byte, 0 o 1); risposta {@link #SCORED}</li>
+ * </ul>
+ *
+ * <p>Risposte del server e relativo contenuto:</p>
+ * <ul>
+ *     <li>{@link #OK}: vuoto</li>
+ *     <li>{@link #ERROR}: messaggio (stringa)</li>
+ *     <li>{@link #PREVIEW}: anteprima della tabella (stringa)</li>
+ *     <li>{@link #SUMMARY}: numero di attributi (int) e loro nomi (stringhe, vuote se il
+ *         dataset non è disponibile); numero di cluster (int) e per ciascuno id (int),
+ *         numero di tuple (int), distanza media dal centroide (double, NaN se non
+ *         disponibile), numero di valori del centroide (int) e valori (stringhe)</li>
+ *     <li>{@link #MEMBERS}: cluster (int), numero totale di tuple del cluster (int),
+ *         posizione della prima tupla (int), numero di tuple della pagina (int) e per
+ *         ciascuna indice (int), distanza dal centroide (double, NaN se non disponibile),
+ *         numero di valori (int, 0 se il dataset non è disponibile) e valori (stringhe)</li>
+ *     <li>{@link #JOB}: id del lavoro (long)</li>
+ *     <li>{@link #JOB_STATUS}: id (long), stato (byte, ordinale di {@link ClusteringJob.State}),
+ *         avanzamento tra 0 e 1 (double), errore (stringa, vuota se assente)</li>
+ *     <li>{@link #TAGGED}: id della richiesta del batch (int), tipo (byte) e contenuto
+ *         della risposta</li>
+ *     <li>{@link #BATCH_DONE}: numero di richieste eseguite (int)</li>
+ *     <li>{@link #COMPRESSED}: tipo (byte) e lunghezza (int) del contenuto originale,
+ *         seguiti dal contenuto compresso in formato zlib; può comparire anche come
+ *         risposta all'interno di {@link #TAGGED}</li>
+ *     <li>{@link #STATS}: risposte inviate sulla connessione (long), byte che avrebbero
+ *         occupato senza compressione (long) e byte effettivamente inviati (long)</li>
+ *     <li>{@link #SAVE_STATE}: id (long), stato (byte, ordinale di {@link SaveTask.State}),
+ *         errore (stringa, vuota se assente)</li>
+ *     <li>{@link #CATALOG}: numero di risultati (int) e per ciascuno tabella e richiesta
+ *         (stringhe), raggio (double), algoritmo (stringa), numero di cluster (int),
+ *         impronta del dataset, durata del calcolo in ms, istanti di creazione e di ultimo
+ *         uso in ms dall'epoch e dimensione del file in byte (long)</li>
+ *     <li>{@link #FILE_DATA}: dimensione del file, posizione iniziale e numero di byte
+ *         inviati (long), mai compressa. Il frame è seguito, fuori dal frame, dai byte
+ *         del file nell'intervallo indicato</li>
+ *     <li>{@link #EXPORTED}: righe scritte (long) e durata della scrittura in ms (long)</li>
+ *     <li>{@link #SCORED}: righe lette (long), righe assegnate a un cluster (long) e durata
+ *         in ms (long)</li>
+ * </ul>
+ * <p>Ogni richiesta riceve esattamente una risposta (per un batch, una per ciascuna
+ * delle sue richieste); a qualunque richiesta il server può rispondere con {@link #ERROR}. I risultati di clustering sono inviati come
+ * riepilogo: le tuple dei cluster vengono trasferite solo se richieste, a pagine.</p>
+ */
+public final class BinaryProtocol {
+
+    /** Richiesta: selezione della tabella con proiezione e filtro. */
+    public static final byte SELECT_TABLE = 0x01;
+    /** Richiesta: clustering con attesa del risultato. */
+    public static final byte CLUSTER = 0x02;
+    /** Richiesta: salvataggio dei cluster su file. */
+    public static final byte SAVE = 0x03;
+    /** Richiesta: caricamento dei cluster da file. */
+    public static final byte LOAD_FILE = 0x04;
+    /** Richiesta: avvio di un clustering in background. */
+    public static final byte SUBMIT = 0x05;
+    /** Richiesta: stato di un clustering in background. */
+    public static final byte STATUS = 0x06;
+    /** Richiesta: attesa di un clustering in background. */
+    public static final byte WAIT = 0x07;
+    /** Richiesta: risultato di un clustering in background, dopo il quale il lavoro è dimenticato. */
+    public static final byte RESULT = 0x08;
+    /** Richiesta: annullamento di un clustering in background. */
+    public static final byte CANCEL = 0x09;
+    /** Richiesta: riepilogo degli ultimi cluster. */
+    public static final byte GET_SUMMARY = 0x0A;
+    /** Richiesta: pagina delle tuple di un cluster. */
+    public static final byte GET_MEMBERS = 0x0B;
+    /** Richiesta: sequenza di richieste eseguite in ordine. */
+    public static final byte BATCH = 0x0C;
+    /** Richiesta: attivazione della compressione delle risposte. */
+    public static final byte COMPRESS = 0x0D;
+    /** Richiesta: contatori dei byte inviati sulla connessione. */
+    public static final byte GET_STATS = 0x0E;
+    /** Richiesta: salvataggio dei cluster su file in background. */
+    public static final byte SAVE_ASYNC = 0x0F;
+    /** Richiesta: stato di un salvataggio in background. */
+    public static final byte SAVE_STATUS = 0x10;
+    /** Richiesta: elenco dei risultati del catalogo. */
+    public static final byte LIST_RESULTS = 0x11;
+    /** Richiesta: invio di un intervallo di un file salvato. */
+    public static final byte DOWNLOAD = 0x12;
+    /** Richiesta: scrittura delle assegnazioni ai cluster in una tabella del database. */
+    public static final byte EXPORT = 0x13;
+    /** Richiesta: assegnazione di una tabella ai cluster salvati in un file. */
+    public static final byte SCORE = 0x14;
+
+    /** Risposta: operazione eseguita. */
+    public static final byte OK = (byte) 0x80;
+    /** Risposta: errore. */
+    public static final byte ERROR = (byte) 0x81;
+    /** Risposta: anteprima della tabella. */
+    public static final byte PREVIEW = (byte) 0x82;
+    /** Risposta: riepilogo dei cluster. */
+    public static final byte SUMMARY = (byte) 0x83;
+    /** Risposta: identificativo di un lavoro. */
+    public static final byte JOB = (byte) 0x84;
+    /** Risposta: stato di un lavoro. */
+    public static final byte JOB_STATUS = (byte) 0x85;
+    /** Risposta: pagina delle tuple di un cluster. */
+    public static final byte MEMBERS = (byte) 0x86;
+    /** Risposta: risposta a una richiesta di un batch. */
+    public static final byte TAGGED = (byte) 0x87;
+    /** Risposta: fine delle risposte di un batch. */
+    public static final byte BATCH_DONE = (byte) 0x88;
+    /** Risposta: risposta compressa. */
+    public static final byte COMPRESSED = (byte) 0x89;
+    /** Risposta: contatori dei byte inviati. */
+    public static final byte STATS = (byte) 0x8A;
+    /** Risposta: stato di un salvataggio. */
+    public static final byte SAVE_STATE = (byte) 0x8B;
+    /** Risposta: elenco dei risultati del catalogo. */
+    public static final byte CATALOG = (byte) 0x8C;
+    /** Risposta: intestazione dei byte di un file, che la seguono. */
+    public static final byte FILE_DATA = (byte) 0x8D;
+    /** Risposta: righe scritte nel database. */
+    public static final byte EXPORTED = (byte) 0x8E;
+    /** Risposta: righe assegnate ai cluster salvati. */
+    public static final byte SCORED = (byte) 0x8F;
+
+    /**
+     * Lunghezza massima del contenuto di un frame ricevuto, in byte.
+     */
+    public static final int MAX_FRAME = 16 << 20;
+
+    /**
+     * Numero massimo di tuple in una pagina {@link #MEMBERS}.
+     */
+    public static final int MAX_PAGE = 10_000;
+
+    /**
+     * Numero massimo di richieste in un {@link #BATCH}.
+     */
+    public static final int MAX_BATCH = 1_000;
+
+    /**
+     * Livello di compressione usato se il client non ne indica uno: il più veloce,
+     * sufficiente per il testo molto ripetitivo di anteprime e risultati.
+     */
+    public static final int DEFAULT_LEVEL = Deflater.BEST_SPEED;
+
+    /**
+     * Dimensione minima, in byte, del contenuto compresso se il client non ne indica
+     * una: sotto questa soglia la compressione costa più di quanto risparmia.
+     */
+    public static final int DEFAULT_THRESHOLD = 8 << 10;
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * Frame ricevuto: tipo e contenuto da decodificare.
+     */
+    public static final class Frame {
+        private final byte type;
+        private final DataInputStream payload;
+
+        Frame(byte type, byte[] payload) {
+            this.type = type;
+            this.payload = new DataInputStream(new ByteArrayInputStream(payload));
+        }
+
+        /**
+         * Restituisce il tipo del frame.
+         *
+         * @return tipo del frame
+         */
+        public byte getType() {
+            return type;
+        }
+
+        /**
+         * Restituisce il contenuto del frame, da leggere nell'ordine previsto dal tipo.
+         *
+         * @return contenuto del frame
+         */
+        public DataInputStream getPayload() {
+            return payload;
+        }
+    }
+
+    /**
+     * Compressione delle risposte negoziata su una connessione. Il {@link Deflater}
+     * è riusato da tutti i frame della connessione, che vanno quindi costruiti e
+     * inviati uno alla volta.
+     */
+    public static final class Compression {
+        private final Deflater deflater;
+        private final int threshold;
+
+        /**
+         * Crea la compressione con i parametri indicati.
+         *
+         * @param level livello di compressione, da 1 a 9
+         * @param threshold dimensione minima, in byte, del contenuto da comprimere
+         * @throws IllegalArgumentException se i parametri non sono validi
+         */
+        public Compression(int level, int threshold) {
+            if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION || threshold < 0) {
+                throw new IllegalArgumentException("parametri di compressione non validi.");
+            }
+            this.deflater = new Deflater(level);
+            this.threshold = threshold;
+        }
+
+        /**
+         * Rilascia le risorse native del compressore.
+         */
+        public void end() {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Costruttore del contenuto di un frame da inviare.
+     *
+     * <p>Con una {@link Compression}, il contenuto viene tenuto in chiaro finché non
+     * supera la soglia; da quel momento quanto già scritto e tutto il seguito passano
+     * per il compressore man mano che vengono scritti, e il frame viene inviato come
+     * {@link #COMPRESSED}. Il contenuto in chiaro di una risposta grande non viene
+     * quindi mai tenuto in memoria per intero.</p>
+     */
+    public static final class FrameBuilder {
+        private final byte type;
+        private final Compression compression;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final Sink sink = new Sink();
+        private final DataOutputStream payload = new DataOutputStream(sink);
+        private DeflaterOutputStream deflating;
+
+        /**
+         * Crea un frame vuoto del tipo indicato.
+         *
+         * @param type tipo del frame
+         */
+        public FrameBuilder(byte type) {
+            this(type, null);
+        }
+
+        /**
+         * Crea un frame vuoto del tipo indicato, compresso se il contenuto supera la
+         * soglia della compressione.
+         *
+         * @param type tipo del frame
+         * @param compression compressione della connessione, {@code null} per nessuna
+         */
+        public FrameBuilder(byte type, Compression compression) {
+            this.type = type;
+            this.compression = compression;
+        }
+
+        /**
+         * Destinazione del contenuto: in chiaro fino alla soglia, poi il compressore.
+         */
+        private final class Sink extends OutputStream {
+            private int size;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                size += len;
+                if (deflating != null) {
+                    deflating.write(b, off, len);
+                    return;
+                }
+                bytes.write(b, off, len);
+                if (compression != null && size > compression.threshold) {
+                    byte[] plain = bytes.toByteArray();
+                    bytes.reset();
+                    compression.deflater.reset();
+                    deflating = new DeflaterOutputStream(bytes, compression.deflater, 8192);
+                    deflating.write(plain);
+                }
+            }
+        }
+
+        /**
+         * Restituisce lo stream su cui scrivere il contenuto del frame.
+         *
+         * @return contenuto del frame
+         */
+        public DataOutputStream getPayload() {
+            return payload;
+        }
+
+        /**
+         * Scrive il frame sullo stream indicato, senza svuotarlo.
+         *
+         * @param out stream di destinazione
+         * @return numero di byte scritti
+         * @throws IOException se la scrittura fallisce
+         */
+        public int writeTo(DataOutputStream out) throws IOException {
+            finish();
+            if (deflating == null) {
+                out.writeInt(bytes.size());
+                out.writeByte(type);
+            } else {
+                out.writeInt(1 + 4 + bytes.size());
+                out.writeByte(COMPRESSED);
+                out.writeByte(type);
+                out.writeInt(sink.size);
+            }
+            bytes.writeTo(out);
+            return 4 + getEncodedSize();
+        }
+
+        /**
+         * Scrive il frame come risposta {@link #TAGGED} alla richiesta di un batch,
+         * senza svuotare lo stream.
+         *
+         * @param out stream di destinazione
+         * @param requestId id della richiesta nel batch
+         * @return numero di byte scritti
+         * @throws IOException se la scrittura fallisce
+         */
+        public int writeTaggedTo(DataOutputStream out, int requestId) throws IOException {
+            finish();
+            out.writeInt(4 + getEncodedSize());
+            out.writeByte(TAGGED);
+            out.writeInt(requestId);
+            if (deflating == null) {
+                out.writeByte(type);
+            } else {
+                out.writeByte(COMPRESSED);
+                out.writeByte(type);
+                out.writeInt(sink.size);
+            }
+            bytes.writeTo(out);
+            return 4 + 1 + 4 + getEncodedSize();
+        }
+
+        /**
+         * Restituisce la lunghezza del contenuto in chiaro.
+         *
+         * @return lunghezza del contenuto scritto finora, in byte
+         */
+        public int getSize() {
+            return sink.size;
+        }
+
+        private int getEncodedSize() {
+            return 1 + bytes.size() + (deflating == null ? 0 : 1 + 4);
+        }
+
+        private void finish() throws IOException {
+            payload.flush();
+            if (deflating != null) {
+                deflating.finish();
+            }
+        }
+
+        /**
+         * Restituisce il tipo del frame.
+         *
+         * @return tipo del frame
+         */
+        public byte getType() {
+            return type;
+        }
+    }
+
+    /**
+     * Legge un frame.
+     *
+     * @param in stream da cui leggere
+     * @return il frame letto
+     * @throws java.io.EOFException se lo stream termina prima dell'inizio di un frame
+     * @throws IOException se la lettura fallisce o il frame supera {@link #MAX_FRAME}
+     */
+    public static Frame read(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME) {
+            throw new IOException("Lunghezza del frame non valida: " + length);
+        }
+        byte type = in.readByte();
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new Frame(type, payload);
+    }
+
+    /**
+     * Scrive una stringa come lunghezza in byte seguita dai byte UTF-8.
+     *
+     * @param out destinazione
+     * @param s stringa da scrivere
+     * @throws IOException se la scrittura fallisce
+     */
+    public static void writeString(DataOutput out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    /**
+     * Legge una stringa scritta da {@link #writeString(DataOutput, String)}.
+     *
+     * @param in sorgente
+     * @return la stringa letta
+     * @throws IOException se la lettura fallisce o la lunghezza non è valida
+     */
+    public static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME) {
+            throw new IOException("Lunghezza della stringa non valida: " + length);
+        }
+        byte[] b = new byte[length];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,620 @@
+package server;
+
+import data.Data;
+import data.Tuple;
+import database.DatabaseConnectionException;
+import database.TableQuery;
+import mining.ClusterSummary;
+import server.BinaryProtocol.Compression;
+import server.BinaryProtocol.Frame;
+import server.BinaryProtocol.FrameBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gestisce un client connesso con il protocollo binario descritto in {@link BinaryProtocol}.
+ *
+ * <p>Offre le stesse operazioni di {@link ServerOneClient}, condividendo con esso i
+ * servizi di clustering e la logica di sessione ({@link ClusteringSession}), ma
+ * scambia frame binari con lunghezza esplicita invece di oggetti serializzati: non
+ * c'è il costo della serializzazione Java né la crescita delle tabelle di riferimenti
+ * degli stream di oggetti. Viene eseguito da un thread virtuale per connessione.</p>
+ *
+ * <p>I risultati sono inviati come riepilogo strutturato (centroidi, dimensioni e
+ * distanze medie); le tuple di ciascun cluster vengono descritte solo quando il
+ * client ne richiede una pagina.</p>
+ *
+ * <p>Le richieste di un {@link BinaryProtocol#BATCH} vengono eseguite in ordine e le
+ * risposte inviate appena pronte. I clustering del batch che seguono la stessa
+ * selezione di tabella vengono però avviati in anticipo, al più tanti quanti i thread
+ * di calcolo ({@code qt.compute.threads}), così da essere calcolati in parallelo
+ * mentre il batch attende il primo; ogni volta che una richiesta viene eseguita ne
+ * viene avviata un'altra.</p>
+ *
+ * <p>Se il client attiva la compressione ({@link BinaryProtocol#COMPRESS}), le risposte
+ * grandi vengono compresse mentre sono costruite. La connessione conta i byte inviati
+ * e quelli che sarebbero stati inviati senza compressione.</p>
+ */
+public class BinaryServerOneClient implements Runnable {
+    private final Socket socket;
+    private final ClusteringSession session;
+    private DataOutputStream out;
+    /** Id della richiesta del batch in esecuzione, {@code null} fuori da un batch. */
+    private Integer batchRequest;
+    /** Clustering avviato in anticipo per la richiesta del batch in esecuzione. */
+    private ClusteringJob prefetched;
+    private boolean failed;
+    private Compression compression;
+    private long responses;
+    private long plainBytes;
+    private long sentBytes;
+
+    /**
+     * Crea il gestore del client. La gestione inizia quando l'istanza viene eseguita da un thread.
+     *
+     * @param s il socket connesso al client
+     */
+    public BinaryServerOneClient(Socket s) {
+        this.socket = s;
+        this.session = new ClusteringSession(ServerOneClient.SERVICE, s.getInetAddress().getHostAddress());
+    }
+
+    /**
+     * Ciclo di ricezione dei frame del client. Un frame di tipo sconosciuto riceve
+     * una risposta d'errore; un frame non valido chiude la connessione.
+     */
+    @Override
+    public void run() {
+        System.out.println("Client binario connesso");
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            while (true) {
+                Frame frame;
+                try {
+                    frame = BinaryProtocol.read(in);
+                } catch (EOFException e) {
+                    System.out.println("Client binario disconnesso: " + responses + " risposte, "
+                            + sentBytes + " byte inviati (" + plainBytes + " senza compressione).");
+                    return;
+                }
+                handle(frame);
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Errore nella connessione binaria: " + e.getMessage());
+        } finally {
+            session.close();
+            if (compression != null) {
+                compression.end();
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                System.err.println("Errore durante la chiusura del socket.");
+            }
+        }
+    }
+
+    /**
+     * Esegue la richiesta contenuta nel frame e invia la risposta.
+     */
+    private void handle(Frame frame) throws IOException {
+        DataInputStream p = frame.getPayload();
+        try {
+            switch (frame.getType()) {
+                case BinaryProtocol.SELECT_TABLE:
+                    selectTable(BinaryProtocol.readString(p), BinaryProtocol.readString(p), BinaryProtocol.readString(p));
+                    break;
+                case BinaryProtocol.CLUSTER:
+                    cluster(p.readDouble());
+                    break;
+                case BinaryProtocol.SAVE:
+                    save(BinaryProtocol.readString(p));
+                    break;
+                case BinaryProtocol.LOAD_FILE:
+                    loadFile(BinaryProtocol.readString(p));
+                    break;
+                case BinaryProtocol.SUBMIT: {
+                    double radius = p.readDouble();
+                    FrameBuilder f = frame(BinaryProtocol.JOB);
+                    f.getPayload().writeLong(session.submit(radius, p.readByte()).getId());
+                    send(f);
+                    break;
+                }
+                case BinaryProtocol.STATUS:
+                    status(job(p.readLong()));
+                    break;
+                case BinaryProtocol.WAIT: {
+                    ClusteringJob job = job(p.readLong());
+                    job.await(p.readLong());
+                    status(job);
+                    break;
+                }
+                case BinaryProtocol.RESULT:
+                    result(job(p.readLong()));
+                    break;
+                case BinaryProtocol.CANCEL:
+                    if (!session.cancel(p.readLong())) {
+                        throw new IllegalArgumentException("lavoro inesistente.");
+                    }
+                    ok();
+                    break;
+                case BinaryProtocol.GET_SUMMARY:
+                    summary();
+                    break;
+                case BinaryProtocol.GET_MEMBERS:
+                    members(p.readInt(), p.readInt(), p.readInt());
+                    break;
+                case BinaryProtocol.BATCH:
+                    batch(p);
+                    break;
+                case BinaryProtocol.COMPRESS:
+                    compress(p.readByte(), p.readInt());
+                    break;
+                case BinaryProtocol.GET_STATS: {
+                    FrameBuilder f = frame(BinaryProtocol.STATS);
+                    f.getPayload().writeLong(responses);
+                    f.getPayload().writeLong(plainBytes);
+                    f.getPayload().writeLong(sentBytes);
+                    send(f);
+                    break;
+                }
+                case BinaryProtocol.SAVE_ASYNC: {
+                    FrameBuilder f = frame(BinaryProtocol.JOB);
+                    f.getPayload().writeLong(session.saveAsync(BinaryProtocol.readString(p)).getId());
+                    send(f);
+                    break;
+                }
+                case BinaryProtocol.SAVE_STATUS: {
+                    SaveTask save = session.getSave(p.readLong());
+                    if (save == null) {
+                        throw new IllegalArgumentException("salvataggio inesistente.");
+                    }
+                    long timeout = p.readLong();
+                    if (timeout >= 0) {
+                        save.await(timeout);
+                    }
+                    FrameBuilder f = frame(BinaryProtocol.SAVE_STATE);
+                    f.getPayload().writeLong(save.getId());
+                    f.getPayload().writeByte(save.getState().ordinal());
+                    BinaryProtocol.writeString(f.getPayload(), save.getError() == null ? "" : save.getError());
+                    send(f);
+                    break;
+                }
+                case BinaryProtocol.DOWNLOAD:
+                    download(BinaryProtocol.readString(p), p.readLong(), p.readLong(), p.readLong());
+                    break;
+                case BinaryProtocol.EXPORT:
+                    export(BinaryProtocol.readString(p), p.readBoolean(), p.readInt());
+                    break;
+                case BinaryProtocol.SCORE:
+                    score(BinaryProtocol.readString(p), BinaryProtocol.readString(p), BinaryProtocol.readString(p),
+                            p.readDouble(), p.readBoolean(), BinaryProtocol.readString(p), p.readBoolean());
+                    break;
+                case BinaryProtocol.LIST_RESULTS:
+                    catalog(BinaryProtocol.readString(p));
+                    break;
+                default:
+                    error("Comando non valido.");
+            }
+        } catch (EOFException e) {
+            error("Richiesta incompleta.");
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            error("Errore: " + e.getMessage());
+        } catch (FileNotFoundException e) {
+            error("Errore: file non trovato.");
+        } catch (ClassNotFoundException e) {
+            error("Errore caricamento cluster: " + e.getMessage());
+        } catch (UncheckedIOException e) {
+            error("Errore caricamento cluster: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Connessione interrotta", e);
+        }
+    }
+
+    private void selectTable(String table, String columns, String filter) throws IOException {
+        TableQuery query = new TableQuery(columns, filter);
+        FrameBuilder f = frame(BinaryProtocol.PREVIEW);
+        try {
+            BinaryProtocol.writeString(f.getPayload(), session.selectTable(table, query).toString());
+        } catch (Exception e) {
+            error("Errore durante il caricamento dati: " + e.getMessage());
+            return;
+        }
+        send(f);
+    }
+
+    private void save(String filename) throws IOException {
+        try {
+            session.save(filename);
+        } catch (IOException e) {
+            error("Errore salvataggio cluster: " + e.getMessage());
+            return;
+        }
+        ok();
+    }
+
+    private void cluster(double radius) throws IOException, InterruptedException {
+        ClusteringJob job = prefetched != null ? prefetched : session.prepare(radius);
+        prefetched = null;
+        result(session.finish(job));
+    }
+
+    /**
+     * Esegue le richieste di un batch, inviando ciascuna risposta come
+     * {@link BinaryProtocol#TAGGED} e infine {@link BinaryProtocol#BATCH_DONE}.
+     */
+    private void batch(DataInputStream p) throws IOException, InterruptedException {
+        boolean stopOnError = p.readBoolean();
+        int count = p.readInt();
+        if (count < 0 || count > BinaryProtocol.MAX_BATCH) {
+            throw new IllegalArgumentException("numero di richieste non valido: " + count);
+        }
+        int[] ids = new int[count];
+        List<Frame> requests = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids[i] = p.readInt();
+            byte type = p.readByte();
+            int length = p.readInt();
+            if (type == BinaryProtocol.BATCH) {
+                throw new IllegalArgumentException("batch annidato.");
+            }
+            if (length < 0 || length > p.available()) {
+                throw new IllegalArgumentException("richiesta " + ids[i] + " non valida.");
+            }
+            byte[] payload = new byte[length];
+            p.readFully(payload);
+            requests.add(new Frame(type, payload));
+        }
+
+        Map<Integer, ClusteringJob> started = new HashMap<>();
+        int executed = 0;
+        boolean stopped = false;
+        try {
+            int next = prefetch(requests, 0, started);
+            for (int i = 0; i < count; i++) {
+                batchRequest = ids[i];
+                if (stopped) {
+                    error("Errore: richiesta non eseguita.");
+                } else {
+                    failed = false;
+                    prefetched = started.remove(i);
+                    if (next == i && requests.get(i).getType() != BinaryProtocol.SELECT_TABLE) {
+                        next = i + 1; // eseguita ora, senza anticipo
+                    }
+                    next = prefetch(requests, next, started);
+                    handle(requests.get(i));
+                    executed++;
+                    if (failed) {
+                        stopped = stopOnError;
+                    } else if (requests.get(i).getType() == BinaryProtocol.SELECT_TABLE) {
+                        next = prefetch(requests, i + 1, started);
+                    }
+                }
+                out.flush();
+            }
+        } finally {
+            batchRequest = null;
+            if (prefetched != null) {
+                prefetched.close();
+                prefetched = null;
+            }
+            for (ClusteringJob job : started.values()) {
+                job.close();
+            }
+        }
+        FrameBuilder f = frame(BinaryProtocol.BATCH_DONE);
+        f.getPayload().writeInt(executed);
+        send(f);
+    }
+
+    /**
+     * Avvia i clustering del batch a partire dalla richiesta indicata, finché quelli
+     * avviati in anticipo non sono tanti quanti i thread di calcolo o fino alla
+     * successiva selezione di tabella. Se nessuna tabella è selezionata non avvia
+     * nulla: l'errore sarà riportato all'esecuzione delle singole richieste.
+     *
+     * @return indice della prima richiesta non ancora considerata
+     */
+    private int prefetch(List<Frame> requests, int from, Map<Integer, ClusteringJob> started)
+            throws IOException {
+        if (session.getTableName() == null) {
+            return from;
+        }
+        int i = from;
+        for (; i < requests.size() && started.size() < ServerOneClient.SERVICE.computeThreads; i++) {
+            Frame request = requests.get(i);
+            if (request.getType() == BinaryProtocol.SELECT_TABLE) {
+                return i;
+            }
+            if (request.getType() == BinaryProtocol.CLUSTER) {
+                DataInputStream p = request.getPayload();
+                p.mark(Double.BYTES);
+                double radius;
+                try {
+                    radius = p.readDouble();
+                } catch (EOFException e) {
+                    continue;
+                } finally {
+                    p.reset();
+                }
+                started.put(i, session.prepare(radius));
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Attiva, modifica o disattiva la compressione delle risposte successive.
+     */
+    private void compress(int level, int threshold) throws IOException {
+        Compression c = null;
+        if (level != 0) {
+            c = new Compression(level == -1 ? BinaryProtocol.DEFAULT_LEVEL : level,
+                    threshold == -1 ? BinaryProtocol.DEFAULT_THRESHOLD : threshold);
+        }
+        if (compression != null) {
+            compression.end();
+        }
+        compression = c;
+        ok();
+    }
+
+    private FrameBuilder frame(byte type) {
+        return new FrameBuilder(type, compression);
+    }
+
+    /**
+     * Invia una risposta, etichettata con l'id della richiesta se è in esecuzione un
+     * batch, e ne aggiorna i contatori.
+     */
+    private void send(FrameBuilder f) throws IOException {
+        if (f.getType() == BinaryProtocol.ERROR) {
+            failed = true;
+        }
+        if (batchRequest != null) {
+            plainBytes += 4 + 1 + 4 + 1 + f.getSize();
+            sentBytes += f.writeTaggedTo(out, batchRequest);
+        } else {
+            plainBytes += 4 + 1 + f.getSize();
+            sentBytes += f.writeTo(out);
+        }
+        responses++;
+    }
+
+    private void loadFile(String filename) throws IOException, ClassNotFoundException {
+        try {
+            session.load(filename);
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            error("Errore caricamento cluster: " + e.getMessage());
+            return;
+        }
+        summary();
+    }
+
+    private void result(ClusteringJob job) throws IOException {
+        if (session.adopt(job)) {
+            summary();
+        } else if (job.getError() != null) {
+            error(job.getError());
+        } else {
+            error("Errore: lavoro non ancora completato (" + job + ")");
+        }
+    }
+
+    /**
+     * Invia un intervallo di un file salvato: l'intestazione {@link BinaryProtocol#FILE_DATA}
+     * e poi i byte del file, trasferiti dal file al socket con
+     * {@link FileChannel#transferTo} senza passare dalla memoria del server. Se il
+     * client riprende un download di un file di dimensione diversa da quella attuale,
+     * il file è cambiato e viene inviato dall'inizio.
+     */
+    private void download(String filename, long offset, long length, long expectedSize) throws IOException {
+        if (batchRequest != null) {
+            throw new IllegalStateException("download non ammesso in un batch.");
+        }
+        FileChannel file;
+        try {
+            file = session.openResult(filename);
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            throw new FileNotFoundException(filename);
+        } catch (IOException e) {
+            error("Errore: " + e.getMessage());
+            return;
+        }
+        try (FileChannel f = file) {
+            long size = f.size();
+            if (expectedSize >= 0 && expectedSize != size) {
+                offset = 0;
+            }
+            if (offset < 0 || offset > size) {
+                throw new IllegalArgumentException("posizione non valida: " + offset);
+            }
+            long count = length < 0 ? size - offset : Math.min(length, size - offset);
+            // l'intestazione non viene mai compressa: il client deve poterla leggere prima dei byte
+            FrameBuilder header = new FrameBuilder(BinaryProtocol.FILE_DATA, null);
+            header.getPayload().writeLong(size);
+            header.getPayload().writeLong(offset);
+            header.getPayload().writeLong(count);
+            send(header);
+            out.flush();
+            WritableByteChannel target = socket.getChannel() != null ? socket.getChannel() : Channels.newChannel(out);
+            for (long sent = 0; sent < count; ) {
+                sent += f.transferTo(offset + sent, count - sent, target);
+            }
+            plainBytes += count;
+            sentBytes += count;
+        }
+    }
+
+    private void export(String table, boolean replace, int batchSize) throws IOException {
+        long start = System.nanoTime();
+        long rows;
+        try {
+            rows = session.export(table, replace, batchSize);
+        } catch (SQLException | DatabaseConnectionException e) {
+            error("Errore esportazione: " + e.getMessage());
+            return;
+        }
+        FrameBuilder f = frame(BinaryProtocol.EXPORTED);
+        f.getPayload().writeLong(rows);
+        f.getPayload().writeLong(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        send(f);
+    }
+
+    private void score(String file, String table, String filter, double radius, boolean toTable,
+                       String output, boolean replace) throws IOException, ClassNotFoundException, InterruptedException {
+        TableScorer scorer;
+        try {
+            scorer = session.score(file, table, filter, radius, output, toTable, replace);
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (SQLException | DatabaseConnectionException | IOException e) {
+            error("Errore assegnazione: " + e.getMessage());
+            return;
+        }
+        FrameBuilder f = frame(BinaryProtocol.SCORED);
+        f.getPayload().writeLong(scorer.getRows());
+        f.getPayload().writeLong(scorer.getAssigned());
+        f.getPayload().writeLong(scorer.getMillis());
+        send(f);
+    }
+
+    private void catalog(String table) throws IOException {
+        List<ResultCatalog.Entry> entries = session.listResults(table);
+        FrameBuilder f = frame(BinaryProtocol.CATALOG);
+        DataOutputStream p = f.getPayload();
+        p.writeInt(entries.size());
+        for (ResultCatalog.Entry e : entries) {
+            BinaryProtocol.writeString(p, e.getTableName());
+            BinaryProtocol.writeString(p, e.getQuery());
+            p.writeDouble(e.getRadius());
+            BinaryProtocol.writeString(p, e.getEngine());
+            p.writeInt(e.getClusters());
+            p.writeLong(e.getChecksum());
+            p.writeLong(e.getComputeMillis());
+            p.writeLong(e.getCreated());
+            p.writeLong(e.getLastUsed());
+            p.writeLong(e.getBytes());
+        }
+        send(f);
+    }
+
+    private void status(ClusteringJob job) throws IOException {
+        FrameBuilder f = frame(BinaryProtocol.JOB_STATUS);
+        f.getPayload().writeLong(job.getId());
+        f.getPayload().writeByte(job.getState().ordinal());
+        f.getPayload().writeDouble(job.getProgress());
+        BinaryProtocol.writeString(f.getPayload(), job.getError() == null ? "" : job.getError());
+        send(f);
+    }
+
+    private ClusteringJob job(long id) {
+        ClusteringJob job = session.getJob(id);
+        if (job == null) {
+            throw new IllegalArgumentException("lavoro inesistente.");
+        }
+        return job;
+    }
+
+    /**
+     * Invia il riepilogo degli ultimi cluster della sessione.
+     */
+    private void summary() throws IOException {
+        List<ClusterSummary> summary = session.getSummary();
+        Data data = session.getData();
+        FrameBuilder f = frame(BinaryProtocol.SUMMARY);
+        DataOutputStream p = f.getPayload();
+        if (data == null) {
+            p.writeInt(0);
+        } else {
+            p.writeInt(data.getNumberOfAttributes());
+            for (Object attribute : data.getAttributeSchema()) {
+                BinaryProtocol.writeString(p, attribute.toString());
+            }
+        }
+        p.writeInt(summary.size());
+        for (ClusterSummary c : summary) {
+            p.writeInt(c.getId());
+            p.writeInt(c.getSize());
+            p.writeDouble(c.getAvgDistance());
+            Tuple centroid = c.getCentroid();
+            p.writeInt(centroid.getLength());
+            for (int i = 0; i < centroid.getLength(); i++) {
+                BinaryProtocol.writeString(p, String.valueOf(centroid.get(i)));
+            }
+        }
+        send(f);
+    }
+
+    /**
+     * Invia una pagina delle tuple di un cluster, con i valori e la distanza dal
+     * centroide se il dataset è disponibile.
+     */
+    private void members(int clusterId, int offset, int limit) throws IOException {
+        List<ClusterSummary> summary = session.getSummary();
+        if (clusterId < 0 || clusterId >= summary.size()) {
+            throw new IllegalArgumentException("cluster inesistente: " + clusterId);
+        }
+        if (offset < 0 || limit < 0 || limit > BinaryProtocol.MAX_PAGE) {
+            throw new IllegalArgumentException("pagina non valida.");
+        }
+        ClusterSummary cluster = summary.get(clusterId);
+        Data data = session.getData();
+        int[] rows = cluster.getMembers(offset, limit);
+        double[] distances = cluster.getDistances(offset, limit);
+        FrameBuilder f = frame(BinaryProtocol.MEMBERS);
+        DataOutputStream p = f.getPayload();
+        p.writeInt(clusterId);
+        p.writeInt(cluster.getSize());
+        p.writeInt(offset);
+        p.writeInt(rows.length);
+        for (int k = 0; k < rows.length; k++) {
+            int row = rows[k];
+            p.writeInt(row);
+            if (data == null) {
+                p.writeDouble(Double.NaN);
+                p.writeInt(0);
+            } else {
+                p.writeDouble(distances != null ? distances[k] : cluster.getCentroid().getDistance(data.getItemSet(row)));
+                p.writeInt(data.getNumberOfAttributes());
+                for (int j = 0; j < data.getNumberOfAttributes(); j++) {
+                    BinaryProtocol.writeString(p, String.valueOf(data.getValue(row, j)));
+                }
+            }
+        }
+        send(f);
+    }
+
+    private void ok() throws IOException {
+        send(frame(BinaryProtocol.OK));
+    }
+
+    private void error(String message) throws IOException {
+        FrameBuilder f = frame(BinaryProtocol.ERROR);
+        BinaryProtocol.writeString(f.getPayload(), message);
+        send(f);
+    }
+}
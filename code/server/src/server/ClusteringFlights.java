@@ -0,0 +1,215 @@
+package server;
+
+import data.Data;
+import mining.ClusterSet;
+import mining.ClusteringRadiusException;
+import mining.EmptyDatasetException;
+import mining.QTMiner;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Coordina i clustering in corso in modo che richieste identiche e contemporanee
+ * condividano un'unica esecuzione di {@link QTMiner#compute(Data)}.
+ *
+ * <p>La prima richiesta per una chiave accoda il calcolo sul {@link JobScheduler},
+ * con la propria priorità;
+ * le richieste successive con la stessa chiave, finché il calcolo non termina, si
+ * agganciano ad esso e ricevono lo stesso {@link ClusterSet}. Ogni richiesta ottiene
+ * un {@link Ticket}: il calcolo viene interrotto solo quando tutti i ticket che lo
+ * attendono sono stati abbandonati con {@link Ticket#detach()}.</p>
+ */
+public class ClusteringFlights {
+
+    /**
+     * Calcolo in corso con il numero di richieste che lo attendono.
+     */
+    private static class Flight {
+        private final String key;
+        private final QTMiner miner;
+        private final CompletableFuture<ClusterSet> result = new CompletableFuture<>();
+        private Runnable task;
+        private volatile boolean started;
+        private int waiters;
+
+        Flight(String key, QTMiner miner) {
+            this.key = key;
+            this.miner = miner;
+        }
+    }
+
+    /**
+     * Partecipazione di una richiesta a un calcolo in corso.
+     */
+    public class Ticket {
+        private final Flight flight;
+        private boolean detached;
+
+        private Ticket(Flight flight) {
+            this.flight = flight;
+        }
+
+        /**
+         * Attende il termine del calcolo e ne restituisce il risultato.
+         * Se l'attesa viene interrotta, il ticket viene abbandonato.
+         *
+         * @return l'insieme dei cluster
+         * @throws ClusteringRadiusException se tutte le tuple finiscono in un unico cluster
+         * @throws EmptyDatasetException se il dataset è vuoto
+         * @throws InterruptedException se il thread viene interrotto durante l'attesa
+         * @throws CancellationException se il calcolo è stato interrotto
+         */
+        public ClusterSet await() throws ClusteringRadiusException, EmptyDatasetException, InterruptedException {
+            try {
+                return flight.result.get();
+            } catch (InterruptedException e) {
+                detach();
+                throw e;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof ClusteringRadiusException) throw (ClusteringRadiusException) cause;
+                if (cause instanceof EmptyDatasetException) throw (EmptyDatasetException) cause;
+                if (cause instanceof CancellationException) throw (CancellationException) cause;
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                throw new IllegalStateException(cause);
+            }
+        }
+
+        /**
+         * Verifica se il calcolo è terminato.
+         *
+         * @return {@code true} se il risultato, o l'errore, è disponibile
+         */
+        public boolean isDone() {
+            return flight.result.isDone();
+        }
+
+        /**
+         * Verifica se il calcolo è stato avviato da un thread di calcolo.
+         *
+         * @return {@code false} finché il calcolo è in coda
+         */
+        public boolean isStarted() {
+            return flight.started;
+        }
+
+        /**
+         * Restituisce l'avanzamento del calcolo.
+         *
+         * @return frazione delle tuple già assegnate a un cluster, tra 0 e 1
+         */
+        public double getProgress() {
+            return flight.result.isDone() ? 1 : flight.miner.getProgress();
+        }
+
+        /**
+         * Abbandona il calcolo. Se era l'ultima richiesta in attesa e il calcolo
+         * non è ancora terminato, il calcolo viene interrotto.
+         */
+        public void detach() {
+            synchronized (ClusteringFlights.this) {
+                if (detached) {
+                    return;
+                }
+                detached = true;
+                flight.waiters--;
+                if (flight.waiters == 0 && !flight.result.isDone()) {
+                    flight.miner.cancel();
+                    flights.remove(flight.key, flight);
+                    if (scheduler.remove(flight.task)) {
+                        flight.result.completeExceptionally(new CancellationException("Clustering interrotto"));
+                    }
+                }
+            }
+        }
+    }
+
+    private final Map<String, Flight> flights = new HashMap<>();
+    private final JobScheduler scheduler;
+    private long started;
+    private long joined;
+
+    /**
+     * Crea il coordinatore.
+     *
+     * @param scheduler esecutore dei calcoli
+     */
+    public ClusteringFlights(JobScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Avvia il clustering del dataset con il raggio indicato, oppure si aggancia a un
+     * calcolo identico già in corso.
+     *
+     * @param key chiave che identifica il calcolo (vedi {@link ResultCache#key})
+     * @param data dataset da clusterizzare
+     * @param radius raggio del clustering
+     * @param client identificativo del client che richiede il calcolo
+     * @param priority priorità del calcolo, se viene avviato da questa richiesta
+     * @return il ticket con cui attendere il risultato
+     * @throws RejectedExecutionException se la coda dei calcoli è piena
+     */
+    public Ticket join(String key, Data data, double radius, String client, int priority) {
+        Flight flight;
+        boolean leader = false;
+        synchronized (this) {
+            flight = flights.get(key);
+            if (flight == null) {
+                flight = new Flight(key, new QTMiner(radius));
+                final Flight f = flight;
+                f.task = () -> run(f, data);
+                flights.put(key, flight);
+                leader = true;
+                started++;
+            } else {
+                joined++;
+            }
+            flight.waiters++;
+        }
+        if (leader) {
+            final Flight f = flight;
+            try {
+                scheduler.submit(client, priority, f.task);
+            } catch (RejectedExecutionException | IllegalArgumentException e) {
+                f.result.completeExceptionally(e);
+                synchronized (this) {
+                    flights.remove(f.key, f);
+                }
+                throw e;
+            }
+        }
+        return new Ticket(flight);
+    }
+
+    /**
+     * Esegue il calcolo e ne pubblica il risultato a tutte le richieste in attesa.
+     */
+    private void run(Flight flight, Data data) {
+        flight.started = true;
+        try {
+            flight.miner.compute(data);
+            flight.result.complete(flight.miner.getC());
+        } catch (Exception e) {
+            flight.result.completeExceptionally(e);
+        } finally {
+            synchronized (this) {
+                flights.remove(flight.key, flight);
+            }
+        }
+    }
+
+    /**
+     * Restituisce una descrizione dello stato del coordinatore.
+     *
+     * @return calcoli in corso, calcoli avviati e richieste agganciate
+     */
+    public synchronized String toString() {
+        return "ClusteringFlights[in corso=" + flights.size() + ", avviati=" + started + ", condivisi=" + joined + "]";
+    }
+}
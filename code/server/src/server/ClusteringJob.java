@@ -0,0 +1,337 @@
+package server;
+
+import data.Data;
+import database.DatabaseConnectionException;
+import database.EmptySetException;
+import database.NoValueException;
+import database.TableQuery;
+import mining.ClusterSet;
+import mining.ClusteringRadiusException;
+import mining.EmptyDatasetException;
+
+import java.sql.SQLException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Clustering eseguito in background per conto di un client.
+ *
+ * <p>Il lavoro viene creato da {@link ClusteringService#submit} ed eseguito su un
+ * thread virtuale, che attende l'ammissione, carica il dataset, cerca il risultato
+ * in cache e nel {@link ResultCatalog} e altrimenti accoda il calcolo sul
+ * {@link JobScheduler}; il risultato calcolato viene poi registrato nel catalogo.
+ * Il client può interrogarne lo stato e l'avanzamento, attenderne il termine,
+ * leggerne il risultato o annullarlo.</p>
+ *
+ * <p>Il dataset resta in uso finché il lavoro non viene chiuso con {@link #close()},
+ * così che il risultato possa essere descritto in termini delle tuple originali.</p>
+ */
+public class ClusteringJob implements Runnable {
+
+    /**
+     * Stato di un lavoro.
+     */
+    public enum State {
+        /** In attesa di ammissione, di caricamento dei dati o di un thread di calcolo. */
+        IN_CODA,
+        /** Calcolo in esecuzione. */
+        IN_ESECUZIONE,
+        /** Terminato con successo, il risultato è disponibile. */
+        COMPLETATO,
+        /** Terminato con errore. */
+        ERRORE,
+        /** Annullato dal client. */
+        ANNULLATO
+    }
+
+    private final ClusteringService service;
+    private final long id;
+    private final String client;
+    private final String tableName;
+    private final TableQuery query;
+    private final double radius;
+    private final int priority;
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private volatile State state = State.IN_CODA;
+    private volatile String error;
+    private volatile long finishedAt;
+    private volatile ClusteringFlights.Ticket ticket;
+    private Thread worker;
+    private boolean interruptible;
+    private boolean cancelled;
+    private boolean closed;
+    private DataCache.Lease lease;
+    private ClusterSet result;
+
+    ClusteringJob(ClusteringService service, long id, String client, String tableName, TableQuery query,
+                  double radius, int priority) {
+        this.service = service;
+        this.id = id;
+        this.client = client;
+        this.tableName = tableName;
+        this.query = query;
+        this.radius = radius;
+        this.priority = priority;
+    }
+
+    /**
+     * Esegue il lavoro. Viene invocato dal thread avviato da {@link ClusteringService#submit}.
+     */
+    @Override
+    public void run() {
+        synchronized (this) {
+            worker = Thread.currentThread();
+        }
+        try {
+            AdmissionControl.Estimate estimate = service.estimate(tableName, query);
+            AdmissionControl.Reservation reservation;
+            enterInterruptible();
+            try {
+                reservation = service.admission.admit(estimate);
+            } finally {
+                leaveInterruptible();
+            }
+            try (reservation) {
+                DataCache.Lease acquired = service.data.acquire(tableName, query);
+                synchronized (this) {
+                    lease = acquired;
+                }
+                checkCancelled();
+                Data data = acquired.getData();
+                String key = ResultCache.key(tableName, query, data, radius);
+                ClusterSet clusters = service.results.get(key);
+                if (clusters == null) {
+                    clusters = service.catalog.get(key);
+                    if (clusters != null) {
+                        service.results.put(key, clusters);
+                    }
+                }
+                if (clusters == null) {
+                    long start = System.nanoTime();
+                    ticket = service.flights.join(key, data, radius, client, priority);
+                    enterInterruptible();
+                    try {
+                        clusters = ticket.await();
+                    } finally {
+                        leaveInterruptible();
+                        ticket.detach();
+                    }
+                    service.results.put(key, clusters);
+                    service.record(key, tableName, query, data.getChecksum(), radius, clusters,
+                            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                }
+                synchronized (this) {
+                    result = clusters;
+                }
+                state = State.COMPLETATO;
+            }
+        } catch (CancellationException | InterruptedException e) {
+            fail(State.ANNULLATO, "Clustering interrotto");
+        } catch (EmptyDatasetException | ClusteringRadiusException | AdmissionException
+                 | RejectedExecutionException e) {
+            fail(State.ERRORE, "Errore clustering: " + e.getMessage());
+        } catch (DatabaseConnectionException | SQLException | EmptySetException | NoValueException e) {
+            fail(State.ERRORE, "Errore durante il caricamento dei dati: " + e.getMessage());
+        } catch (RuntimeException e) {
+            fail(State.ERRORE, "Errore clustering: " + e);
+        } finally {
+            synchronized (this) {
+                // completato sotto il monitor: close() vede il termine oppure lo vede questo blocco
+                worker = null;
+                finishedAt = System.currentTimeMillis();
+                done.complete(null);
+                if (closed && lease != null) {
+                    lease.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Restituisce l'identificativo del lavoro.
+     *
+     * @return identificativo univoco nel server
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Restituisce il raggio del clustering.
+     *
+     * @return raggio richiesto
+     */
+    public double getRadius() {
+        return radius;
+    }
+
+    /**
+     * Restituisce lo stato del lavoro.
+     *
+     * @return stato corrente
+     */
+    public State getState() {
+        State s = state;
+        ClusteringFlights.Ticket t = ticket;
+        if (s == State.IN_CODA && t != null && t.isStarted()) {
+            return State.IN_ESECUZIONE;
+        }
+        return s;
+    }
+
+    /**
+     * Restituisce l'avanzamento del calcolo.
+     *
+     * @return frazione delle tuple già assegnate a un cluster, tra 0 e 1
+     */
+    public double getProgress() {
+        if (state == State.COMPLETATO) {
+            return 1;
+        }
+        ClusteringFlights.Ticket t = ticket;
+        return t == null ? 0 : t.getProgress();
+    }
+
+    /**
+     * Restituisce il messaggio d'errore del lavoro.
+     *
+     * @return messaggio d'errore, {@code null} se il lavoro non è terminato con errore o annullato
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Restituisce l'istante in cui il lavoro è terminato.
+     *
+     * @return millisecondi dall'epoch, 0 se il lavoro non è terminato
+     */
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    /**
+     * Attende il termine del lavoro.
+     *
+     * @param timeoutMillis attesa massima in millisecondi, 0 per attendere senza limite
+     * @return {@code true} se il lavoro è terminato
+     * @throws InterruptedException se il thread viene interrotto durante l'attesa
+     */
+    public boolean await(long timeoutMillis) throws InterruptedException {
+        try {
+            if (timeoutMillis <= 0) {
+                done.get();
+            } else {
+                done.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Restituisce l'insieme dei cluster trovati.
+     *
+     * @return l'insieme dei cluster, {@code null} se il lavoro non è completato
+     */
+    public synchronized ClusterSet getResult() {
+        return result;
+    }
+
+    /**
+     * Restituisce il dataset su cui è stato calcolato il clustering.
+     *
+     * @return il dataset, {@code null} se il lavoro non è completato
+     */
+    public synchronized Data getData() {
+        return result == null || closed ? null : lease.getData();
+    }
+
+    /**
+     * Richiede l'annullamento del lavoro. Un calcolo condiviso con altre richieste
+     * prosegue per gli altri client.
+     */
+    public synchronized void cancel() {
+        if (done.isDone()) {
+            return;
+        }
+        cancelled = true;
+        if (interruptible && worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * Annulla il lavoro, se ancora in corso, e rilascia il dataset.
+     */
+    public synchronized void close() {
+        cancel();
+        closed = true;
+        if (done.isDone() && lease != null) {
+            lease.close();
+        }
+    }
+
+    /**
+     * Restituisce una descrizione dello stato del lavoro.
+     *
+     * @return identificativo, stato, avanzamento ed eventuale errore
+     */
+    public String toString() {
+        State s = getState();
+        String str = "Job " + id + " " + s + " " + Math.round(getProgress() * 100) + "%";
+        if (s == State.COMPLETATO) {
+            ClusterSet r = getResult();
+            str += " cluster=" + r.size();
+        } else if (error != null) {
+            str += " " + error;
+        }
+        return str;
+    }
+
+    /**
+     * Segnala che il thread può essere interrotto per annullare il lavoro.
+     * Il caricamento dei dati non viene mai interrotto, perché è condiviso con altre sessioni.
+     */
+    private synchronized void enterInterruptible() {
+        checkCancelled();
+        interruptible = true;
+    }
+
+    /**
+     * Revoca l'interrompibilità e scarta un'eventuale interruzione ricevuta nel frattempo.
+     */
+    private void leaveInterruptible() {
+        synchronized (this) {
+            interruptible = false;
+        }
+        Thread.interrupted();
+    }
+
+    private synchronized void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Clustering interrotto");
+        }
+    }
+
+    /**
+     * Registra la terminazione con errore e rilascia il dataset.
+     */
+    private synchronized void fail(State state, String message) {
+        error = message;
+        this.state = cancelled ? State.ANNULLATO : state;
+        if (cancelled) {
+            error = "Clustering interrotto";
+        }
+        if (lease != null) {
+            lease.close();
+        }
+    }
+}
@@ -0,0 +1,458 @@
+package server;
+
+import data.ContinuousAttribute;
+import data.Data;
+import data.TableSnapshotCache;
+import data.Tuple;
+import data.TupleCodec;
+import database.AssignmentWriter;
+import database.DatabaseConnectionException;
+import database.DbAccess;
+import database.EmptySetException;
+import database.TableCursor;
+import database.TableData;
+import database.TablePreview;
+import database.TableQuery;
+import database.TableSchema;
+import mining.CentroidIndex;
+import mining.ClusterIndex;
+import mining.ClusterSet;
+import mining.ClusterSummary;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Servizi di clustering condivisi da tutte le sessioni client: cache dei dataset e
+ * dei risultati, catalogo persistente dei risultati, controllo di ammissione, esecutore dei calcoli e avvio dei
+ * {@link ClusteringJob}, esecutore di I/O per i {@link SaveTask}, esecutore delle assegnazioni
+ * di tabelle ai cluster salvati ({@link TableScorer}).
+ *
+ * <p>La configurazione è letta dalle proprietà di sistema:</p>
+ * <ul>
+ *     <li>{@code qt.snapshot.dir}: directory degli snapshot su disco, default {@code snapshots};</li>
+ *     <li>{@code qt.refresh.key}: colonna chiave crescente per l'aggiornamento incrementale,
+ *         se assente disattivato;</li>
+ *     <li>{@code qt.cache.maxBytes}: occupazione massima stimata dei dataset in memoria,
+ *         default un quarto dello heap;</li>
+ *     <li>{@code qt.results.maxBytes}: occupazione massima stimata dei risultati in memoria,
+ *         default un ottavo dello heap;</li>
+ *     <li>{@code qt.catalog.dir}: directory del catalogo persistente dei risultati,
+ *         default {@code catalog};</li>
+ *     <li>{@code qt.catalog.maxAgeDays}: giorni dall'ultimo uso oltre i quali un risultato
+ *         viene rimosso dal catalogo, default 30, 0 senza limite;</li>
+ *     <li>{@code qt.catalog.maxBytes}: occupazione massima su disco del catalogo, default 1 GiB;</li>
+ *     <li>{@code qt.compute.threads}: thread di calcolo, default i processori disponibili;
+ *         è anche il numero di clustering di un batch avviati in anticipo;</li>
+ *     <li>{@code qt.compute.queue}: clustering in attesa, default quattro per thread;</li>
+ *     <li>{@code qt.io.threads}: thread per i salvataggi in background, default 2;</li>
+ *     <li>{@code qt.score.threads}: thread per l'assegnazione delle righe ai cluster salvati,
+ *         default i processori disponibili;</li>
+ *     <li>{@code qt.admission.maxBytes}: memoria per dataset e clustering, default metà dello heap;</li>
+ *     <li>{@code qt.admission.maxWork}: confronti stimati per un singolo clustering,
+ *         default 10<sup>12</sup>;</li>
+ *     <li>{@code qt.admission.waitMillis}: attesa massima per l'ammissione, default 30 secondi;</li>
+ *     <li>{@code qt.preview.rows}: tuple incluse nell'anteprima, default 20;</li>
+ *     <li>{@code qt.jobs.retentionMinutes}: minuti per cui un lavoro in background o un
+ *         salvataggio terminati restano consultabili, default 10;</li>
+ *     <li>{@code qt.export.batchSize}: righe per lotto nella scrittura delle assegnazioni
+ *         nel database, default 5000;</li>
+ *     <li>{@code qt.db.poolSize}: connessioni inattive conservate nel pool, default 8.</li>
+ * </ul>
+ */
+public class ClusteringService {
+    final DataCache data;
+    final ResultCache results;
+    final ResultCatalog catalog;
+    final JobScheduler scheduler;
+    final ClusteringFlights flights;
+    final AdmissionControl admission;
+    private final ExecutorService io;
+    private final ExecutorService scoring;
+    private final int scoringThreads;
+    final long retentionMillis;
+    final int computeThreads;
+    private final int previewRows;
+    private final int exportBatchSize;
+    private final AtomicLong nextJobId = new AtomicLong();
+    private final AtomicLong nextSaveId = new AtomicLong();
+
+    /**
+     * Crea i servizi configurandoli dalle proprietà di sistema.
+     */
+    public ClusteringService() {
+        long heap = Runtime.getRuntime().maxMemory();
+        int threads = Integer.getInteger("qt.compute.threads", Runtime.getRuntime().availableProcessors());
+        data = new DataCache(
+                Long.getLong("qt.cache.maxBytes", heap / 4),
+                new TableSnapshotCache(System.getProperty("qt.snapshot.dir", "snapshots")),
+                System.getProperty("qt.refresh.key"),
+                Long.getLong("qt.cache.checkMillis", 1000L));
+        results = new ResultCache(Long.getLong("qt.results.maxBytes", heap / 8));
+        catalog = new ResultCatalog(
+                System.getProperty("qt.catalog.dir", "catalog"),
+                TimeUnit.DAYS.toMillis(Long.getLong("qt.catalog.maxAgeDays", 30L)),
+                Long.getLong("qt.catalog.maxBytes", 1L << 30));
+        Runtime.getRuntime().addShutdownHook(new Thread(catalog::flush, "qt-catalog-flush"));
+        computeThreads = threads;
+        scheduler = new JobScheduler(threads, Integer.getInteger("qt.compute.queue", 4 * threads));
+        flights = new ClusteringFlights(scheduler);
+        admission = new AdmissionControl(
+                Long.getLong("qt.admission.maxBytes", heap / 2),
+                Long.getLong("qt.admission.maxWork", 1_000_000_000_000L),
+                Long.getLong("qt.admission.waitMillis", 30_000L),
+                data::getUsedBytes);
+        data.setReleaseListener(admission::memoryReleased);
+        AtomicInteger ioThreads = new AtomicInteger();
+        io = Executors.newFixedThreadPool(Integer.getInteger("qt.io.threads", 2), r -> {
+            Thread t = new Thread(r, "qt-io-" + ioThreads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        scoringThreads = Integer.getInteger("qt.score.threads", Runtime.getRuntime().availableProcessors());
+        AtomicInteger scoreThreads = new AtomicInteger();
+        scoring = Executors.newFixedThreadPool(scoringThreads, r -> {
+            Thread t = new Thread(r, "qt-score-" + scoreThreads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        previewRows = Integer.getInteger("qt.preview.rows", 20);
+        retentionMillis = TimeUnit.MINUTES.toMillis(Long.getLong("qt.jobs.retentionMinutes", 10L));
+        exportBatchSize = Integer.getInteger("qt.export.batchSize", 5000);
+    }
+
+    /**
+     * Avvia un salvataggio in background sull'esecutore di I/O.
+     *
+     * @param fileName nome del file di destinazione
+     * @param action scrittura del file
+     * @return il salvataggio avviato
+     */
+    SaveTask save(String fileName, SaveTask.Action action) {
+        SaveTask task = new SaveTask(nextSaveId.incrementAndGet(), fileName, action);
+        io.execute(task);
+        return task;
+    }
+
+    /**
+     * Avvia un clustering in background. Il lavoro passa dal controllo di ammissione,
+     * dal caricamento dei dati e dalla cache dei risultati, poi viene accodato
+     * sull'esecutore con la priorità indicata.
+     *
+     * @param client identificativo del client, usato per l'equità tra client
+     * @param tableName nome della tabella
+     * @param query colonne e righe richieste
+     * @param radius raggio del clustering
+     * @param priority priorità ({@link JobScheduler#HIGH}, {@link JobScheduler#NORMAL} o {@link JobScheduler#LOW})
+     * @return il lavoro avviato
+     * @throws IllegalArgumentException se la priorità non è valida
+     */
+    public ClusteringJob submit(String client, String tableName, TableQuery query, double radius, int priority) {
+        if (priority < JobScheduler.HIGH || priority > JobScheduler.LOW) {
+            throw new IllegalArgumentException("Priorità non valida: " + priority);
+        }
+        ClusteringJob job = new ClusteringJob(this, nextJobId.incrementAndGet(), client, tableName, query, radius, priority);
+        Thread.ofVirtual().name("qt-job-" + job.getId()).start(job);
+        return job;
+    }
+
+    /**
+     * Registra in background un risultato calcolato nel catalogo persistente.
+     *
+     * @param key chiave del risultato
+     * @param tableName nome della tabella
+     * @param query colonne e righe richieste
+     * @param checksum impronta del dataset
+     * @param radius raggio del clustering
+     * @param result l'insieme dei cluster
+     * @param computeMillis durata del calcolo in millisecondi
+     */
+    void record(String key, String tableName, TableQuery query, long checksum, double radius,
+                ClusterSet result, long computeMillis) {
+        io.execute(() -> {
+            try {
+                catalog.put(key, tableName, query.toString(), checksum, radius, result, computeMillis);
+            } catch (IOException e) {
+                System.err.println("Impossibile registrare il risultato nel catalogo: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Calcola l'anteprima della tabella indicata.
+     *
+     * @param tableName nome della tabella
+     * @param query colonne e righe richieste
+     * @return anteprima della tabella
+     * @throws SQLException se si verifica un errore SQL
+     * @throws EmptySetException se nessuna riga soddisfa la richiesta
+     * @throws DatabaseConnectionException se non è possibile connettersi al database
+     */
+    public TablePreview preview(String tableName, TableQuery query)
+            throws SQLException, EmptySetException, DatabaseConnectionException {
+        DbAccess db = new DbAccess();
+        db.initConnection();
+        try {
+            return new TableData(db).getPreview(tableName, query, previewRows);
+        } finally {
+            db.closeConnection();
+        }
+    }
+
+    /**
+     * Scrive nel database l'assegnazione di ogni tupla del dataset al suo cluster,
+     * con la distanza dal centroide (vedi {@link AssignmentWriter}). La scrittura usa
+     * una connessione del pool e avviene in un'unica transazione.
+     *
+     * @param data dataset su cui sono stati calcolati i cluster
+     * @param summary riepilogo dei cluster
+     * @param table tabella di destinazione
+     * @param source tabella da cui è stato caricato il dataset
+     * @param replace {@code true} per sostituire la tabella se esiste già
+     * @param batchSize righe per lotto, 0 per il valore configurato
+     * @return numero di righe scritte
+     * @throws SQLException se si verifica un errore SQL, ad esempio se la tabella esiste già
+     * @throws DatabaseConnectionException se non è possibile connettersi al database
+     * @throws IllegalArgumentException se il nome della tabella o la dimensione del lotto non
+     *                                  sono validi o la destinazione coincide con la sorgente
+     */
+    long export(Data data, List<ClusterSummary> summary, String table, String source, boolean replace, int batchSize)
+            throws SQLException, DatabaseConnectionException {
+        int attributes = data.getNumberOfAttributes();
+        List<String> columns = new ArrayList<>(attributes);
+        boolean[] numeric = new boolean[attributes];
+        for (Object attribute : data.getAttributeSchema()) {
+            numeric[columns.size()] = attribute instanceof ContinuousAttribute;
+            columns.add(attribute.toString());
+        }
+        DbAccess db = new DbAccess();
+        db.initConnection();
+        try (AssignmentWriter writer = new AssignmentWriter(db, table, source, columns, numeric,
+                batchSize > 0 ? batchSize : exportBatchSize, replace)) {
+            Object[] values = new Object[attributes];
+            for (ClusterSummary cluster : summary) {
+                int[] rows = cluster.getMembers(0, cluster.getSize());
+                double[] distances = cluster.getDistances(0, cluster.getSize());
+                for (int k = 0; k < rows.length; k++) {
+                    int row = rows[k];
+                    for (int j = 0; j < attributes; j++) {
+                        values[j] = data.getValue(row, j);
+                    }
+                    writer.add(row, values, cluster.getId(), distances != null
+                            ? distances[k] : cluster.getCentroid().getDistance(data.getItemSet(row)));
+                }
+            }
+            writer.commit();
+            return writer.getRows();
+        } finally {
+            db.closeConnection();
+        }
+    }
+
+    /**
+     * Assegna tutte le righe di una tabella ai cluster di un risultato salvato: ogni
+     * riga va al cluster del centroide più vicino, se entro il raggio. Le righe sono
+     * lette in streaming dalle colonne con il nome degli attributi dei centroidi e
+     * scritte, nell'ordine di lettura, in una tabella del database (vedi
+     * {@link AssignmentWriter}) oppure in un file CSV con le stesse colonne. Le righe
+     * senza un centroide entro il raggio hanno cluster -1 e distanza assente.
+     *
+     * @param clusters risultato salvato
+     * @param radius raggio, 0 per il raggio con cui sono stati calcolati i cluster
+     * @param table tabella da assegnare
+     * @param filter filtro sulle righe, stringa vuota per tutte
+     * @param output nome della tabella o del file di destinazione
+     * @param toTable {@code true} per scrivere in una tabella, {@code false} in un file CSV
+     * @param replace {@code true} per sostituire la destinazione se esiste già
+     * @return l'assegnazione eseguita, con il numero di righe lette e assegnate
+     * @throws SQLException se una colonna manca o ha un tipo diverso dall'attributo, o si
+     *                      verifica un errore SQL
+     * @throws DatabaseConnectionException se non è possibile connettersi al database
+     * @throws IOException se la scrittura del file fallisce o il file esiste già
+     * @throws InterruptedException se il thread viene interrotto
+     * @throws IllegalArgumentException se il file non contiene cluster, il raggio non è
+     *                                  indicato né salvato nel file, il filtro o un nome non
+     *                                  sono validi o la tabella di destinazione coincide con
+     *                                  quella da assegnare
+     */
+    TableScorer score(ClusterIndex clusters, double radius, String table, String filter,
+                      String output, boolean toTable, boolean replace)
+            throws SQLException, DatabaseConnectionException, IOException, InterruptedException {
+        if (clusters.size() == 0) {
+            throw new IllegalArgumentException("il file non contiene cluster.");
+        }
+        if (toTable && output.equalsIgnoreCase(table)) {
+            // la sostituzione attenderebbe il lock sui metadati del cursore ancora aperto
+            throw new IllegalArgumentException("la tabella di destinazione coincide con quella da assegnare.");
+        }
+        if (!(radius > 0)) {
+            radius = clusters.getRadius();
+        }
+        if (!(radius > 0)) {
+            throw new IllegalArgumentException("raggio non indicato e non salvato nel file dei cluster.");
+        }
+        List<Tuple> centroids = new ArrayList<>(clusters.size());
+        for (int i = 0; i < clusters.size(); i++) {
+            centroids.add(clusters.getCentroid(i));
+        }
+        CentroidIndex index = new CentroidIndex(centroids, radius);
+        TupleCodec schema = new TupleCodec(centroids.get(0));
+        int attributes = schema.getNumberOfAttributes();
+        List<String> names = new ArrayList<>(attributes);
+        boolean[] numeric = new boolean[attributes];
+        for (int j = 0; j < attributes; j++) {
+            names.add(schema.getAttributeName(j));
+            numeric[j] = schema.isContinuous(j);
+        }
+        TableQuery query = new TableQuery(String.join(",", names), filter);
+
+        DbAccess source = new DbAccess();
+        source.initConnection();
+        try (TableCursor cursor = new TableData(source).openCursor(table, query)) {
+            int[] columns = new int[attributes];
+            for (int j = 0; j < attributes; j++) {
+                columns[j] = -1;
+                for (int k = 0; k < cursor.getNumberOfAttributes(); k++) {
+                    if (cursor.getColumn(k).getColumnName().equals(names.get(j))) {
+                        columns[j] = k;
+                    }
+                }
+                if (columns[j] < 0 || cursor.getColumn(columns[j]).isNumber() != numeric[j]) {
+                    throw new SQLException("Colonna " + names.get(j) + " assente o di tipo diverso dall'attributo dei cluster");
+                }
+            }
+            TableScorer scorer = new TableScorer(index, columns);
+            if (toTable) {
+                DbAccess target = new DbAccess();
+                target.initConnection();
+                try (AssignmentWriter writer = new AssignmentWriter(target, output, table, names, numeric,
+                        exportBatchSize, replace)) {
+                    scorer.run(cursor, scoring, scoringThreads, writer::add);
+                    writer.commit();
+                } finally {
+                    target.closeConnection();
+                }
+            } else {
+                writeCsv(scorer, cursor, names, Paths.get(output), replace);
+            }
+            return scorer;
+        } finally {
+            source.closeConnection();
+        }
+    }
+
+    /**
+     * Scrive le righe assegnate in un file CSV. Il file viene scritto accanto alla
+     * destinazione con un nome temporaneo e poi rinominato, come in
+     * {@link mining.QTMiner#salva(String)}: se la scrittura fallisce un file esistente
+     * resta invariato.
+     */
+    private void writeCsv(TableScorer scorer, TableCursor cursor, List<String> names, Path file, boolean replace)
+            throws SQLException, IOException, InterruptedException {
+        if (!replace && Files.exists(file)) {
+            throw new IllegalArgumentException("il file " + file + " esiste già.");
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + "."
+                + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            out.write(AssignmentWriter.TUPLE_ID);
+            for (String name : names) {
+                out.write(',');
+                out.write(csv(name));
+            }
+            out.write("," + AssignmentWriter.CLUSTER_ID + "," + AssignmentWriter.DISTANCE);
+            out.newLine();
+            scorer.run(cursor, scoring, scoringThreads, (row, values, cluster, distance) -> {
+                out.write(Integer.toString(row));
+                for (Object value : values) {
+                    out.write(',');
+                    out.write(csv(value));
+                }
+                out.write("," + cluster + "," + (Double.isNaN(distance) ? "" : Double.toString(distance)));
+                out.newLine();
+            });
+        } catch (SQLException | IOException | InterruptedException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        try {
+            if (replace) {
+                try {
+                    Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } else {
+                Files.move(tmp, file);
+            }
+        } catch (FileAlreadyExistsException e) {
+            throw new IllegalArgumentException("il file " + file + " esiste già.");
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Restituisce il valore come campo CSV, tra virgolette se contiene separatori.
+     */
+    private static String csv(Object value) {
+        if (value == null) {
+            return "";
+        }
+        String s = value.toString();
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+            return s;
+        }
+        return '"' + s.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Stima il costo del clustering della tabella indicata a partire dal numero di
+     * righe e di colonne, letti dal database senza caricare i dati.
+     *
+     * @param tableName nome della tabella
+     * @param query colonne e righe richieste
+     * @return stima del costo del clustering
+     * @throws SQLException se si verifica un errore SQL
+     * @throws DatabaseConnectionException se non è possibile connettersi al database
+     */
+    AdmissionControl.Estimate estimate(String tableName, TableQuery query)
+            throws SQLException, DatabaseConnectionException {
+        DbAccess db = new DbAccess();
+        db.initConnection();
+        try {
+            long rows = new TableData(db).getTableVersion(tableName).getRowCount();
+            int attributes = new TableSchema(db, tableName, query).getNumberOfAttributes();
+            return AdmissionControl.estimate(rows, attributes, ResultCache.ENGINE, data.isCached(tableName, query));
+        } finally {
+            db.closeConnection();
+        }
+    }
+
+    /**
+     * Restituisce una descrizione dello stato dei servizi.
+     *
+     * @return stato delle cache, dell'esecutore e del controllo di ammissione
+     */
+    public String toString() {
+        return data + " " + results + " " + catalog + " " + flights + " " + scheduler + " " + admission;
+    }
+}
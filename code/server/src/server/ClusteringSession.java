@@ -0,0 +1,467 @@
+package server;
+
+import data.Data;
+import database.DatabaseConnectionException;
+import database.EmptySetException;
+import database.TablePreview;
+import database.TableQuery;
+import mining.ClusterIndex;
+import mining.ClusterSummary;
+import mining.QTMiner;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stato della sessione di un client, indipendente dal protocollo con cui il client
+ * comunica: tabella selezionata, ultimi cluster ottenuti e clustering in background.
+ *
+ * <p>Il lavoro che ha prodotto gli ultimi cluster resta aperto, e con esso il
+ * dataset, finché non viene sostituito: così il riepilogo e le tuple dei cluster
+ * possono essere letti a pagine ({@link #getSummary()}, {@link #getData()}). Allo
+ * stesso modo un risultato caricato da file resta aperto con {@link ClusterIndex},
+ * che ne decodifica le tuple solo per i cluster richiesti.</p>
+ *
+ * <p>I lavori in background restano consultabili finché il loro risultato non viene
+ * letto ({@link #adopt(ClusteringJob)}) o, se nessuno lo legge, fino a
+ * {@code qt.jobs.retentionMinutes} dal termine; allo scadere vengono chiusi,
+ * rilasciando il dataset, e dimenticati. Lo stesso vale per i salvataggi terminati.</p>
+ *
+ * <p>È usata sia da {@link ServerOneClient} (protocollo a oggetti serializzati) sia da
+ * {@link BinaryServerOneClient} (protocollo binario), che si limitano a decodificare
+ * le richieste e codificare le risposte.</p>
+ */
+public class ClusteringSession implements AutoCloseable {
+    private final ClusteringService service;
+    private final String clientId;
+    private final Map<Long, ClusteringJob> jobs = new LinkedHashMap<>();
+    private final Map<Long, SaveTask> saves = new LinkedHashMap<>();
+    private String tableName;
+    private TableQuery tableQuery = new TableQuery();
+    private QTMiner kmeans;
+    private ClusterIndex loaded;
+    private ClusteringJob current;
+    private List<ClusterSummary> summary;
+
+    /**
+     * Crea la sessione di un client.
+     *
+     * @param service servizi di clustering condivisi
+     * @param clientId identificativo del client, usato per l'equità tra client
+     */
+    public ClusteringSession(ClusteringService service, String clientId) {
+        this.service = service;
+        this.clientId = clientId;
+    }
+
+    /**
+     * Seleziona la tabella su cui eseguire i clustering successivi e ne calcola
+     * l'anteprima. La tabella resta selezionata anche se l'anteprima fallisce.
+     *
+     * @param table nome della tabella
+     * @param query colonne e righe richieste
+     * @return anteprima della tabella
+     * @throws SQLException se si verifica un errore SQL
+     * @throws EmptySetException se nessuna riga soddisfa la richiesta
+     * @throws DatabaseConnectionException se non è possibile connettersi al database
+     */
+    public TablePreview selectTable(String table, TableQuery query)
+            throws SQLException, EmptySetException, DatabaseConnectionException {
+        tableName = table;
+        tableQuery = query;
+        kmeans = null; // i cluster della tabella precedente non servono più
+        releaseCurrent();
+        return service.preview(tableName, tableQuery);
+    }
+
+    /**
+     * Restituisce il nome della tabella selezionata.
+     *
+     * @return nome della tabella, {@code null} se non è stata selezionata
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Avvia un clustering della tabella selezionata e ne attende il termine.
+     * Se il lavoro è completato i suoi cluster diventano quelli della sessione
+     * (vedi {@link #adopt(ClusteringJob)}); altrimenti il lavoro viene chiuso e
+     * ne resta leggibile l'errore.
+     *
+     * @param radius raggio del clustering
+     * @return il lavoro terminato
+     * @throws IllegalStateException se nessuna tabella è selezionata
+     * @throws InterruptedException se il thread viene interrotto durante l'attesa
+     */
+    public ClusteringJob cluster(double radius) throws InterruptedException {
+        return finish(prepare(radius));
+    }
+
+    /**
+     * Avvia, con priorità alta, un clustering della tabella selezionata di cui si
+     * attenderà il termine con {@link #finish(ClusteringJob)}. Permette di avviare
+     * più clustering insieme e raccoglierne i risultati uno alla volta; un lavoro
+     * che non viene passato a {@link #finish(ClusteringJob)} va chiuso.
+     *
+     * @param radius raggio del clustering
+     * @return il lavoro avviato
+     * @throws IllegalStateException se nessuna tabella è selezionata
+     */
+    public ClusteringJob prepare(double radius) {
+        return start(radius, JobScheduler.HIGH);
+    }
+
+    /**
+     * Attende il termine di un lavoro avviato con {@link #prepare(double)}, come
+     * {@link #cluster(double)}.
+     *
+     * @param job lavoro avviato da {@link #prepare(double)}
+     * @return il lavoro terminato
+     * @throws InterruptedException se il thread viene interrotto durante l'attesa
+     */
+    public ClusteringJob finish(ClusteringJob job) throws InterruptedException {
+        try {
+            job.await(0);
+        } catch (InterruptedException e) {
+            job.close();
+            throw e;
+        }
+        if (!adopt(job)) {
+            job.close();
+        }
+        return job;
+    }
+
+    /**
+     * Avvia un clustering in background della tabella selezionata.
+     *
+     * @param radius raggio del clustering
+     * @param priority priorità ({@link JobScheduler#HIGH}, {@link JobScheduler#NORMAL} o {@link JobScheduler#LOW})
+     * @return il lavoro avviato
+     * @throws IllegalStateException se nessuna tabella è selezionata
+     * @throws IllegalArgumentException se la priorità non è valida
+     */
+    public ClusteringJob submit(double radius, int priority) {
+        prune();
+        ClusteringJob job = start(radius, priority);
+        jobs.put(job.getId(), job);
+        return job;
+    }
+
+    /**
+     * Restituisce un lavoro in background avviato da questa sessione.
+     *
+     * @param id identificativo del lavoro
+     * @return il lavoro, {@code null} se non esiste
+     */
+    public ClusteringJob getJob(long id) {
+        prune();
+        return jobs.get(id);
+    }
+
+    /**
+     * Se il lavoro è completato, i suoi cluster diventano quelli della sessione,
+     * salvati da {@link #save(String)} e descritti da {@link #getSummary()}. Il
+     * lavoro resta aperto finché non viene sostituito da altri cluster.
+     *
+     * <p>Un lavoro terminato, completato o no, non è più tra quelli in background:
+     * il risultato o l'errore sono stati consegnati. Un lavoro terminato con errore
+     * viene anche chiuso.</p>
+     *
+     * @param job lavoro di questa sessione
+     * @return {@code true} se il lavoro è completato
+     */
+    public boolean adopt(ClusteringJob job) {
+        ClusteringJob.State state = job.getState();
+        if (state == ClusteringJob.State.ERRORE || state == ClusteringJob.State.ANNULLATO) {
+            if (jobs.remove(job.getId(), job)) {
+                job.close();
+            }
+            return false;
+        }
+        if (state != ClusteringJob.State.COMPLETATO) {
+            return false;
+        }
+        jobs.remove(job.getId(), job);
+        if (job != current) {
+            releaseCurrent();
+            current = job;
+        }
+        kmeans = new QTMiner(job.getRadius(), job.getResult());
+        return true;
+    }
+
+    /**
+     * Annulla un lavoro in background, se ancora in corso, e lo dimentica. Se i
+     * suoi cluster sono quelli della sessione, il lavoro resta aperto finché non
+     * vengono sostituiti.
+     *
+     * @param id identificativo del lavoro
+     * @return {@code true} se il lavoro esisteva
+     */
+    public boolean cancel(long id) {
+        ClusteringJob job = jobs.remove(id);
+        if (job == null) {
+            return false;
+        }
+        if (job != current) {
+            job.close();
+        }
+        return true;
+    }
+
+    /**
+     * Verifica se la sessione ha dei cluster, calcolati o caricati da file.
+     *
+     * @return {@code true} se ci sono cluster da descrivere o salvare
+     */
+    public boolean hasClusters() {
+        return kmeans != null || loaded != null;
+    }
+
+    /**
+     * Restituisce il riepilogo degli ultimi cluster ottenuti, calcolato alla prima
+     * richiesta.
+     *
+     * @return riepilogo di ciascun cluster
+     * @throws IllegalStateException se non ci sono cluster
+     */
+    public List<ClusterSummary> getSummary() {
+        if (!hasClusters()) {
+            throw new IllegalStateException("nessun cluster disponibile.");
+        }
+        if (summary == null) {
+            summary = kmeans != null ? kmeans.getC().summarize(getData()) : loaded.summarize();
+        }
+        return summary;
+    }
+
+    /**
+     * Restituisce il dataset su cui sono stati calcolati gli ultimi cluster.
+     *
+     * @return il dataset, {@code null} se i cluster sono stati letti da file
+     */
+    public Data getData() {
+        return current == null ? null : current.getData();
+    }
+
+    /**
+     * Salva su file gli ultimi cluster ottenuti. Un risultato caricato da file
+     * viene copiato.
+     *
+     * @param filename nome del file
+     * @throws IllegalStateException se non ci sono cluster da salvare
+     * @throws IOException se la scrittura fallisce
+     */
+    public void save(String filename) throws IOException {
+        if (!hasClusters()) {
+            throw new IllegalStateException("nessun cluster da salvare.");
+        }
+        if (kmeans != null) {
+            kmeans.salva(filename);
+        } else {
+            loaded.copyTo(filename);
+        }
+    }
+
+    /**
+     * Avvia in background il salvataggio su file degli ultimi cluster ottenuti, come
+     * {@link #save(String)}. La sessione può intanto calcolare o caricare altri
+     * cluster: viene salvato il risultato corrente al momento della richiesta.
+     *
+     * @param filename nome del file
+     * @return il salvataggio avviato
+     * @throws IllegalStateException se non ci sono cluster da salvare
+     */
+    public SaveTask saveAsync(String filename) {
+        if (!hasClusters()) {
+            throw new IllegalStateException("nessun cluster da salvare.");
+        }
+        prune();
+        SaveTask task;
+        if (kmeans != null) {
+            QTMiner miner = kmeans;
+            task = service.save(filename, () -> miner.salva(filename));
+        } else {
+            // la copia riapre il file, quindi non dipende dall'indice, che può essere chiuso
+            ClusterIndex index = loaded;
+            task = service.save(filename, () -> index.copyTo(filename));
+        }
+        saves.put(task.getId(), task);
+        return task;
+    }
+
+    /**
+     * Restituisce un salvataggio in background avviato da questa sessione.
+     *
+     * @param id identificativo del salvataggio
+     * @return il salvataggio, {@code null} se non esiste
+     */
+    public SaveTask getSave(long id) {
+        prune();
+        return saves.get(id);
+    }
+
+    /**
+     * Scrive in una tabella del database l'assegnazione di ogni tupla al suo cluster,
+     * con i valori della tupla e la distanza dal centroide.
+     *
+     * @param table tabella di destinazione
+     * @param replace {@code true} per sostituire la tabella se esiste già
+     * @param batchSize righe per lotto, 0 per il valore configurato
+     * @return numero di righe scritte
+     * @throws IllegalStateException se non ci sono cluster o se sono stati letti da
+     *                               file, senza il dataset
+     * @throws IllegalArgumentException se la tabella di destinazione non è valida o è
+     *                                  quella selezionata
+     * @throws SQLException se si verifica un errore SQL
+     * @throws DatabaseConnectionException se non è possibile connettersi al database
+     */
+    public long export(String table, boolean replace, int batchSize)
+            throws SQLException, DatabaseConnectionException {
+        List<ClusterSummary> clusters = getSummary();
+        Data data = getData();
+        if (data == null) {
+            throw new IllegalStateException("dataset non disponibile per i cluster letti da file.");
+        }
+        return service.export(data, clusters, table, tableName, replace, batchSize);
+    }
+
+    /**
+     * Assegna tutte le righe di una tabella ai cluster salvati in un file, senza
+     * modificare i cluster della sessione (vedi {@link ClusteringService}).
+     *
+     * @param filename file dei cluster salvati
+     * @param table tabella da assegnare
+     * @param filter filtro sulle righe, stringa vuota per tutte
+     * @param radius raggio, 0 per il raggio salvato nel file
+     * @param output nome della tabella o del file CSV di destinazione
+     * @param toTable {@code true} per scrivere in una tabella del database
+     * @param replace {@code true} per sostituire la destinazione se esiste già
+     * @return l'assegnazione eseguita
+     * @throws FileNotFoundException se il file dei cluster non esiste
+     * @throws IOException se la lettura dei cluster o la scrittura del file falliscono
+     * @throws ClassNotFoundException se il contenuto del file non è compatibile
+     * @throws SQLException se si verifica un errore SQL
+     * @throws DatabaseConnectionException se non è possibile connettersi al database
+     * @throws InterruptedException se il thread viene interrotto
+     */
+    public TableScorer score(String filename, String table, String filter, double radius,
+                             String output, boolean toTable, boolean replace)
+            throws IOException, ClassNotFoundException, SQLException, DatabaseConnectionException, InterruptedException {
+        try (ClusterIndex clusters = ClusterIndex.open(filename)) {
+            return service.score(clusters, radius, table, filter, output, toTable, replace);
+        }
+    }
+
+    /**
+     * Apre in lettura un file salvato con {@link #save(String)}, per inviarlo al client.
+     *
+     * @param filename nome del file
+     * @return il canale del file, da chiudere dopo l'invio
+     * @throws FileNotFoundException se il file non esiste
+     * @throws IOException se il file non contiene un risultato o non può essere aperto
+     */
+    public FileChannel openResult(String filename) throws IOException {
+        if (!ClusterIndex.isResultFile(filename)) {
+            throw new IOException("il file non contiene un risultato salvato.");
+        }
+        return FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+    }
+
+    /**
+     * Elenca i risultati del catalogo persistente, dal più recentemente usato.
+     *
+     * @param table tabella di cui elencare i risultati, {@code null} o vuota per tutte
+     * @return le voci del catalogo
+     */
+    public List<ResultCatalog.Entry> listResults(String table) {
+        return service.catalog.list(table);
+    }
+
+    /**
+     * Apre un risultato salvato su file, i cui cluster diventano quelli della
+     * sessione. Vengono letti subito solo centroidi e dimensioni dei cluster.
+     *
+     * @param filename nome del file
+     * @return il risultato aperto
+     * @throws FileNotFoundException se il file non esiste
+     * @throws IOException se la lettura fallisce
+     * @throws ClassNotFoundException se il contenuto del file non è compatibile
+     */
+    public ClusterIndex load(String filename) throws IOException, ClassNotFoundException {
+        ClusterIndex index = ClusterIndex.open(filename);
+        releaseCurrent();
+        kmeans = null;
+        loaded = index;
+        return loaded;
+    }
+
+    /**
+     * Annulla i clustering in background ancora in corso e rilascia i dataset.
+     */
+    @Override
+    public void close() {
+        for (ClusteringJob job : jobs.values()) {
+            job.close();
+        }
+        jobs.clear();
+        releaseCurrent();
+    }
+
+    /**
+     * Chiude e dimentica i lavori in background e i salvataggi terminati da più del
+     * tempo di conservazione configurato.
+     */
+    private void prune() {
+        long oldest = System.currentTimeMillis() - service.retentionMillis;
+        Iterator<ClusteringJob> it = jobs.values().iterator();
+        while (it.hasNext()) {
+            ClusteringJob job = it.next();
+            long finished = job.getFinishedAt();
+            if (finished != 0 && finished < oldest) {
+                it.remove();
+                if (job != current) {
+                    job.close();
+                }
+            }
+        }
+        saves.values().removeIf(save -> save.getFinishedAt() != 0 && save.getFinishedAt() < oldest);
+    }
+
+    /**
+     * Chiude il lavoro che ha prodotto gli ultimi cluster, se non è più tra i lavori
+     * in background, o il risultato caricato da file, e scarta il riepilogo.
+     */
+    private void releaseCurrent() {
+        if (current != null && !jobs.containsValue(current)) {
+            current.close();
+        }
+        current = null;
+        if (loaded != null) {
+            try {
+                loaded.close();
+            } catch (IOException e) {
+                System.err.println("Errore durante la chiusura del risultato: " + e.getMessage());
+            }
+            loaded = null;
+        }
+        summary = null;
+    }
+
+    private ClusteringJob start(double radius, int priority) {
+        if (tableName == null) {
+            throw new IllegalStateException("nessuna tabella specificata.");
+        }
+        return service.submit(clientId, tableName, tableQuery, radius, priority);
+    }
+}
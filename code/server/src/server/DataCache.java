@@ -0,0 +1,430 @@
+package server;
+
+import data.Data;
+import data.IncrementalRefresher;
+import data.TableSnapshotCache;
+import database.DatabaseConnectionException;
+import database.DbAccess;
+import database.EmptySetException;
+import database.NoValueException;
+import database.TableData;
+import database.TableQuery;
+import database.TableVersion;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache dei dataset in memoria condivisa da tutte le sessioni client.
+ *
+ * <p>I dataset sono indicizzati per tabella e richiesta ({@link TableQuery}): più
+ * sessioni che lavorano sulla stessa tabella condividono un'unica copia in memoria,
+ * caricata una sola volta anche se richiesta contemporaneamente. Ogni sessione
+ * ottiene un {@link Lease} che va rilasciato al termine dell'uso; i dataset in uso
+ * non vengono mai rimossi.</p>
+ *
+ * <p>Per ogni dataset viene stimata l'occupazione in byte: quando il totale supera
+ * il limite configurato vengono rimossi, dal meno recentemente usato, i dataset
+ * non in uso. Ad ogni richiesta la versione della tabella viene confrontata con
+ * quella del dataset in cache, che viene ricaricato se la tabella è cambiata. La
+ * versione di una tabella viene letta dal database al più una volta per intervallo
+ * di verifica; se non è nota ({@link TableVersion#isKnown()}) il dataset è
+ * riutilizzato solo fino alla verifica successiva.</p>
+ *
+ * <p>I caricamenti dell'intera tabella passano dalla cache di snapshot su disco o,
+ * se è configurata una colonna chiave, dall'aggiornamento incrementale. Ogni
+ * aggiornatore viene creato una sola volta per tabella, senza bloccare le altre
+ * tabelle; la sua occupazione è contata insieme al dataset dell'intera tabella e
+ * viene rimosso quando il dataset esce dalla cache.</p>
+ */
+public class DataCache {
+
+    /**
+     * Dataset in cache con i relativi dati di gestione, protetti dal lock della cache.
+     */
+    private static class Entry {
+        private final String key;
+        private final String tableName;
+        private final boolean fullTable;
+        private final VersionCheck check;
+        private final CompletableFuture<Data> data = new CompletableFuture<>();
+        private long bytes;
+        private int refCount;
+        private boolean valid = true;
+
+        Entry(String key, String tableName, boolean fullTable, VersionCheck check) {
+            this.key = key;
+            this.tableName = tableName;
+            this.fullTable = fullTable;
+            this.check = check;
+        }
+
+        /**
+         * Indica se il dataset corrisponde alla versione della tabella letta nella
+         * verifica indicata.
+         */
+        boolean isCurrent(VersionCheck current) {
+            return current == check || (current.version.isKnown() && current.version.equals(check.version));
+        }
+    }
+
+    /**
+     * Versione di una tabella letta dal database, con l'istante della lettura.
+     */
+    private static class VersionCheck {
+        private final TableVersion version;
+        private final long time;
+
+        VersionCheck(TableVersion version, long time) {
+            this.version = version;
+            this.time = time;
+        }
+    }
+
+    /**
+     * Riferimento a un dataset in uso da parte di una sessione.
+     * Va chiuso al termine dell'uso, così che il dataset possa essere rimosso.
+     */
+    public class Lease implements AutoCloseable {
+        private final Entry entry;
+        private final Data data;
+        private boolean released;
+
+        private Lease(Entry entry, Data data) {
+            this.entry = entry;
+            this.data = data;
+        }
+
+        /**
+         * Restituisce il dataset.
+         *
+         * @return il dataset condiviso
+         */
+        public Data getData() {
+            return data;
+        }
+
+        /**
+         * Rilascia il dataset. Le chiamate successive alla prima non hanno effetto.
+         */
+        @Override
+        public void close() {
+            synchronized (DataCache.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            release(entry);
+        }
+    }
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxBytes;
+    private final TableSnapshotCache snapshots;
+    private final String refreshKey;
+    private final ConcurrentHashMap<String, CompletableFuture<IncrementalRefresher>> refreshers =
+            new ConcurrentHashMap<>();
+    private final Map<String, VersionCheck> versions = new HashMap<>();
+    private final long checkNanos;
+    private volatile Runnable releaseListener = () -> {
+    };
+    private long usedBytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * Crea una cache di dataset.
+     *
+     * @param maxBytes occupazione massima stimata dei dataset non in uso, in byte
+     * @param snapshots cache su disco da cui caricare le tabelle intere
+     * @param refreshKey colonna chiave per l'aggiornamento incrementale, {@code null} per disattivarlo
+     * @param checkMillis intervallo minimo tra due letture della versione di una tabella, in millisecondi
+     */
+    public DataCache(long maxBytes, TableSnapshotCache snapshots, String refreshKey, long checkMillis) {
+        this.maxBytes = maxBytes;
+        this.snapshots = snapshots;
+        this.refreshKey = refreshKey;
+        this.checkNanos = TimeUnit.MILLISECONDS.toNanos(checkMillis);
+    }
+
+    /**
+     * Restituisce il dataset della tabella, caricandolo se non è in cache o se la
+     * tabella è cambiata dall'ultimo caricamento.
+     *
+     * @param tableName nome della tabella
+     * @param query colonne e righe richieste
+     * @return riferimento al dataset, da chiudere al termine dell'uso
+     * @throws SQLException se si verifica un errore SQL
+     * @throws EmptySetException se nessuna riga soddisfa la richiesta
+     * @throws DatabaseConnectionException se non è possibile connettersi al database
+     * @throws NoValueException se non sono disponibili valori min/max validi
+     */
+    public Lease acquire(String tableName, TableQuery query)
+            throws SQLException, EmptySetException, DatabaseConnectionException, NoValueException {
+        String key = tableName + "|" + query;
+        VersionCheck check = checkVersion(tableName);
+        Entry entry;
+        boolean loader = false;
+        boolean freed = false;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && !entry.isCurrent(check)) {
+                freed = invalidate(entry);
+                entry = null;
+            }
+            if (entry == null) {
+                entry = new Entry(key, tableName, query.isFullTable(), check);
+                entries.put(key, entry);
+                loader = true;
+                misses++;
+            } else {
+                hits++;
+            }
+            entry.refCount++;
+        }
+        if (freed) {
+            releaseListener.run();
+        }
+
+        if (loader) {
+            try {
+                Data data = load(tableName, query, check.version);
+                long bytes = estimate(entry, data);
+                synchronized (this) {
+                    entry.bytes = bytes;
+                    usedBytes += entry.bytes;
+                    freed = evict();
+                }
+                entry.data.complete(data);
+                if (freed) {
+                    releaseListener.run();
+                }
+            } catch (SQLException | EmptySetException | DatabaseConnectionException | NoValueException
+                     | RuntimeException e) {
+                synchronized (this) {
+                    entries.remove(entry.key, entry);
+                    entry.valid = false;
+                }
+                entry.data.completeExceptionally(e);
+            }
+        }
+
+        try {
+            return new Lease(entry, entry.data.join());
+        } catch (CompletionException e) {
+            release(entry);
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) throw (SQLException) cause;
+            if (cause instanceof EmptySetException) throw (EmptySetException) cause;
+            if (cause instanceof DatabaseConnectionException) throw (DatabaseConnectionException) cause;
+            if (cause instanceof NoValueException) throw (NoValueException) cause;
+            throw e;
+        }
+    }
+
+    /**
+     * Verifica se il dataset della tabella è già caricato in memoria.
+     *
+     * @param tableName nome della tabella
+     * @param query colonne e righe richieste
+     * @return {@code true} se il dataset è in cache e il caricamento è terminato
+     */
+    public synchronized boolean isCached(String tableName, TableQuery query) {
+        Entry entry = entries.get(tableName + "|" + query);
+        return entry != null && entry.data.isDone() && !entry.data.isCompletedExceptionally();
+    }
+
+    /**
+     * Restituisce l'occupazione stimata dei dataset attualmente in memoria.
+     *
+     * @return byte occupati
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Restituisce una descrizione dello stato della cache.
+     *
+     * @return numero di dataset, occupazione e rapporto di successo
+     */
+    public synchronized String toString() {
+        long total = hits + misses;
+        return "DataCache[dataset=" + entries.size() + ", byte=" + usedBytes + "/" + maxBytes
+                + ", hit=" + hits + "/" + total + "]";
+    }
+
+    /**
+     * Registra l'azione da eseguire quando la cache libera memoria, rilasciando o
+     * rimuovendo dataset. L'azione viene eseguita fuori dal lock della cache.
+     *
+     * @param listener azione da eseguire, ad esempio il risveglio delle richieste
+     *                 in attesa di memoria nel controllo di ammissione
+     */
+    public void setReleaseListener(Runnable listener) {
+        releaseListener = listener;
+    }
+
+    /**
+     * Decrementa il contatore dei riferimenti del dataset e libera la memoria
+     * dei dataset invalidati non più in uso.
+     */
+    private void release(Entry entry) {
+        synchronized (this) {
+            entry.refCount--;
+            if (entry.refCount == 0 && !entry.valid) {
+                usedBytes -= entry.bytes;
+            } else if (!evict()) {
+                return;
+            }
+        }
+        releaseListener.run();
+    }
+
+    /**
+     * Rimuove dalla cache un dataset non più aggiornato.
+     *
+     * @return {@code true} se la memoria del dataset è stata liberata
+     */
+    private boolean invalidate(Entry entry) {
+        entries.remove(entry.key, entry);
+        entry.valid = false;
+        if (entry.refCount == 0) {
+            usedBytes -= entry.bytes;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Rimuove i dataset non in uso, dal meno recentemente usato, finché
+     * l'occupazione non rientra nel limite.
+     *
+     * @return {@code true} se almeno un dataset è stato rimosso
+     */
+    private boolean evict() {
+        boolean removed = false;
+        Iterator<Entry> it = entries.values().iterator();
+        while (usedBytes > maxBytes && it.hasNext()) {
+            Entry e = it.next();
+            if (e.refCount == 0 && e.data.isDone()) {
+                it.remove();
+                e.valid = false;
+                usedBytes -= e.bytes;
+                if (e.fullTable) {
+                    refreshers.remove(e.tableName);
+                }
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Restituisce l'ultima versione letta della tabella se risale a meno di un
+     * intervallo di verifica, altrimenti la legge dal database.
+     */
+    private VersionCheck checkVersion(String tableName) throws SQLException, DatabaseConnectionException {
+        long now = System.nanoTime();
+        synchronized (this) {
+            VersionCheck last = versions.get(tableName);
+            if (last != null && now - last.time < checkNanos) {
+                return last;
+            }
+        }
+        VersionCheck check = new VersionCheck(readVersion(tableName), now);
+        synchronized (this) {
+            versions.put(tableName, check);
+        }
+        return check;
+    }
+
+    /**
+     * Crea l'aggiornatore della tabella fuori da ogni lock, completando il future
+     * registrato per la tabella; se la creazione fallisce il future viene rimosso.
+     */
+    private IncrementalRefresher createRefresher(String tableName, TableVersion version,
+                                                 CompletableFuture<IncrementalRefresher> future)
+            throws SQLException, EmptySetException, DatabaseConnectionException, NoValueException {
+        try {
+            IncrementalRefresher refresher = new IncrementalRefresher(tableName, refreshKey, snapshots, version);
+            future.complete(refresher);
+            return refresher;
+        } catch (SQLException | EmptySetException | DatabaseConnectionException | NoValueException
+                 | RuntimeException e) {
+            refreshers.remove(tableName, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Stima l'occupazione del dataset caricato: per l'intera tabella aggiornata in
+     * modo incrementale comprende anche le chiavi tenute dall'aggiornatore, che
+     * viene rimosso insieme al dataset.
+     */
+    private long estimate(Entry entry, Data data) {
+        CompletableFuture<IncrementalRefresher> refresher = entry.fullTable ? refreshers.get(entry.tableName) : null;
+        if (refresher != null && refresher.isDone() && !refresher.isCompletedExceptionally()
+                && refresher.join().current() == data) {
+            return refresher.join().getEstimatedSize();
+        }
+        return data.getEstimatedSize();
+    }
+
+    /**
+     * Legge la versione corrente della tabella.
+     */
+    private static TableVersion readVersion(String tableName) throws SQLException, DatabaseConnectionException {
+        DbAccess db = new DbAccess();
+        db.initConnection();
+        try {
+            return new TableData(db).getTableVersion(tableName);
+        } finally {
+            db.closeConnection();
+        }
+    }
+
+    /**
+     * Carica il dataset della tabella indicata.
+     * <p>
+     * Le richieste ristrette a un sottoinsieme di colonne o di righe vengono
+     * eseguite direttamente sul database. Per l'intera tabella, se è configurata
+     * una colonna chiave, il dataset è aggiornato in modo incrementale e ricaricato
+     * per intero quando righe della tabella sono state modificate o cancellate;
+     * altrimenti viene letto dalla cache di snapshot.
+     */
+    private Data load(String tableName, TableQuery query, TableVersion version)
+            throws SQLException, EmptySetException, DatabaseConnectionException, NoValueException {
+        if (!query.isFullTable()) {
+            return new Data<>(tableName, query);
+        }
+        if (refreshKey == null) {
+            return snapshots.load(tableName, version);
+        }
+        CompletableFuture<IncrementalRefresher> existing = refreshers.get(tableName);
+        if (existing != null) {
+            IncrementalRefresher refresher = existing.join();
+            refresher.refresh();
+            if (!refresher.isStale(version)) {
+                return refresher.current();
+            }
+            refreshers.remove(tableName, existing);
+        }
+        CompletableFuture<IncrementalRefresher> created = new CompletableFuture<>();
+        existing = refreshers.putIfAbsent(tableName, created);
+        if (existing != null) {
+            // creato nel frattempo da un'altra sessione
+            return existing.join().current();
+        }
+        return createRefresher(tableName, version, created).current();
+    }
+}
@@ -0,0 +1,170 @@
+package server;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Esecutore dei clustering con priorità ed equità tra client.
+ *
+ * <p>Un numero fisso di thread preleva i lavori da code separate per priorità: viene
+ * sempre eseguito per primo un lavoro della priorità più alta disponibile. A parità
+ * di priorità i client sono serviti a turno, un lavoro ciascuno, così che un client
+ * con molte richieste pesanti non ritardi indefinitamente le richieste degli altri.</p>
+ *
+ * <p>Il numero di lavori in attesa è limitato: oltre il limite i nuovi lavori vengono
+ * rifiutati con {@link RejectedExecutionException}.</p>
+ */
+public class JobScheduler {
+
+    /**
+     * Priorità alta, per le richieste interattive.
+     */
+    public static final int HIGH = 0;
+
+    /**
+     * Priorità normale.
+     */
+    public static final int NORMAL = 1;
+
+    /**
+     * Priorità bassa, per i lavori in background.
+     */
+    public static final int LOW = 2;
+
+    /**
+     * Code dei lavori in attesa: per ogni priorità, una coda per client nell'ordine
+     * in cui i client verranno serviti.
+     */
+    private final Map<String, ArrayDeque<Runnable>>[] queues;
+    private final int maxQueued;
+    private int queued;
+    private int running;
+    private long completed;
+    private long rejected;
+
+    /**
+     * Crea l'esecutore e ne avvia i thread.
+     *
+     * @param threads numero di thread di calcolo
+     * @param maxQueued numero massimo di lavori in attesa
+     */
+    @SuppressWarnings("unchecked")
+    public JobScheduler(int threads, int maxQueued) {
+        this.maxQueued = maxQueued;
+        queues = new Map[LOW + 1];
+        for (int p = 0; p < queues.length; p++) {
+            queues[p] = new LinkedHashMap<>();
+        }
+        for (int i = 1; i <= threads; i++) {
+            Thread t = new Thread(this::work, "qt-compute-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * Accoda un lavoro.
+     *
+     * @param client identificativo del client, usato per l'equità
+     * @param priority priorità del lavoro ({@link #HIGH}, {@link #NORMAL} o {@link #LOW})
+     * @param task lavoro da eseguire
+     * @throws RejectedExecutionException se la coda è piena
+     * @throws IllegalArgumentException se la priorità non è valida
+     */
+    public synchronized void submit(String client, int priority, Runnable task) {
+        if (priority < HIGH || priority > LOW) {
+            throw new IllegalArgumentException("Priorità non valida: " + priority);
+        }
+        if (queued >= maxQueued) {
+            rejected++;
+            throw new RejectedExecutionException("coda dei clustering piena (" + maxQueued + " lavori in attesa)");
+        }
+        queues[priority].computeIfAbsent(client, c -> new ArrayDeque<>()).add(task);
+        queued++;
+        notify();
+    }
+
+    /**
+     * Rimuove un lavoro non ancora avviato.
+     *
+     * @param task lavoro da rimuovere
+     * @return {@code true} se il lavoro era in attesa ed è stato rimosso
+     */
+    public synchronized boolean remove(Runnable task) {
+        for (Map<String, ArrayDeque<Runnable>> byClient : queues) {
+            Iterator<ArrayDeque<Runnable>> it = byClient.values().iterator();
+            while (it.hasNext()) {
+                ArrayDeque<Runnable> q = it.next();
+                if (q.remove(task)) {
+                    if (q.isEmpty()) {
+                        it.remove();
+                    }
+                    queued--;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Restituisce una descrizione dello stato dell'esecutore.
+     *
+     * @return lavori in esecuzione, in attesa, completati e rifiutati
+     */
+    public synchronized String toString() {
+        return "JobScheduler[in esecuzione=" + running + ", in attesa=" + queued
+                + ", completati=" + completed + ", rifiutati=" + rejected + "]";
+    }
+
+    /**
+     * Ciclo dei thread di calcolo.
+     */
+    private void work() {
+        while (true) {
+            Runnable task;
+            try {
+                task = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                synchronized (this) {
+                    running--;
+                    completed++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Preleva il prossimo lavoro: priorità più alta, poi il client servito meno di recente.
+     */
+    private synchronized Runnable take() throws InterruptedException {
+        while (queued == 0) {
+            wait();
+        }
+        for (Map<String, ArrayDeque<Runnable>> byClient : queues) {
+            Iterator<Map.Entry<String, ArrayDeque<Runnable>>> it = byClient.entrySet().iterator();
+            if (it.hasNext()) {
+                Map.Entry<String, ArrayDeque<Runnable>> e = it.next();
+                Runnable task = e.getValue().poll();
+                it.remove();
+                if (!e.getValue().isEmpty()) {
+                    byClient.put(e.getKey(), e.getValue()); // il client passa in fondo al turno
+                }
+                queued--;
+                running++;
+                return task;
+            }
+        }
+        throw new IllegalStateException("Coda inconsistente");
+    }
+}
@@ -1,8 +1,12 @@
 package server;
 
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
 
 /**
  * La classe {@code MultiServer} rappresenta un semplice server TCP multi-threaded
@@ -10,7 +14,15 @@ import java.net.Socket;
  * e delega la gestione di ciascuna connessione a un nuovo thread tramite la classe
  * {@link ServerOneClient}.
  * <p>
- * Questo approccio consente la gestione simultanea di più client.
+ * Questo approccio consente la gestione simultanea di più client. Ogni connessione
+ * è servita da un thread virtuale, che resta sospeso a costo trascurabile mentre il
+ * client è inattivo; i clustering vengono invece eseguiti da un executor dimensionato
+ * sui processori disponibili (vedi {@link ClusteringService}).
+ * <p>
+ * Accanto alla porta del protocollo a oggetti serializzati il server può ascoltare
+ * su una seconda porta che parla il protocollo binario di {@link BinaryProtocol},
+ * gestito da {@link BinaryServerOneClient}. Le due porte condividono gli stessi
+ * servizi e possono essere usate contemporaneamente durante la migrazione dei client.
  *
  *  
  */
@@ -19,12 +31,14 @@ public class MultiServer {
 
     /**
      * Metodo principale per avviare il server.
-     * Avvia un'istanza di {@code MultiServer} sulla porta 8080.
+     * Avvia un'istanza di {@code MultiServer} sulla porta 8080 e il protocollo binario
+     * sulla porta indicata dalla proprietà di sistema {@code qt.binary.port} (default
+     * 8081, un valore negativo lo disattiva).
      *
      * @param args non utilizzati.
      */
     public static void main(String[] args) {
-        new MultiServer(8080);
+        new MultiServer(8080, Integer.getInteger("qt.binary.port", 8081));
     }
 
     /**
@@ -37,22 +51,50 @@ public class MultiServer {
         run(port);
     }
 
+    /**
+     * Costruttore del server che avvia il protocollo binario sulla seconda porta e
+     * poi l'esecuzione sulla porta principale.
+     *
+     * @param port la porta del protocollo a oggetti serializzati.
+     * @param binaryPort la porta del protocollo binario, negativa per disattivarlo.
+     */
+    public MultiServer(int port, int binaryPort) {
+        if (binaryPort >= 0) {
+            Thread.ofVirtual().name("qt-binary-accept").start(() -> accept(binaryPort, BinaryServerOneClient::new));
+        }
+        run(port);
+    }
+
     /**
      * Avvia il server e rimane in ascolto sulla porta specificata.
      * <p>
      * Per ogni connessione entrante accettata, viene istanziato un oggetto
      * {@link ServerOneClient} che si occuperà della comunicazione con il client.
-     * Ogni client viene gestito in modo indipendente in un thread separato.
+     * Ogni client viene gestito in modo indipendente in un thread virtuale separato.
      *
      * @param port la porta sulla quale il server rimane in ascolto.
      */
     public void run(int port) {
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
+        accept(port, ServerOneClient::new);
+    }
+
+    /**
+     * Accetta le connessioni sulla porta indicata e ne affida ciascuna a un thread
+     * virtuale che esegue il gestore creato per il socket. Le connessioni sono
+     * accettate tramite canale, così che i gestori possano inviare file con
+     * {@link java.nio.channels.FileChannel#transferTo} senza copiarli in memoria.
+     *
+     * @param port la porta sulla quale il server rimane in ascolto.
+     * @param handler crea il gestore di una connessione.
+     */
+    private void accept(int port, Function<Socket, Runnable> handler) {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open().bind(new InetSocketAddress(port));
+             ExecutorService connections = Executors.newVirtualThreadPerTaskExecutor()) {
             System.out.println("Server in ascolto sulla porta " + port);
 
             while (true) {
-                Socket clientSocket = serverSocket.accept(); // attende connessioni
-                new ServerOneClient(clientSocket); // delega la gestione al thread
+                Socket clientSocket = serverChannel.accept().socket(); // attende connessioni
+                connections.execute(handler.apply(clientSocket)); // delega la gestione al thread
             }
 
         } catch (IOException e) {
@@ -0,0 +1,88 @@
+package server;
+
+import data.ColumnarDataSource;
+import data.CsvDataSource;
+import data.Data;
+import database.EmptySetException;
+import mining.ClusterReport;
+import mining.ClusterSummary;
+import mining.ClusteringRadiusException;
+import mining.EmptyDatasetException;
+import mining.QTMiner;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Esecuzione del clustering su un file locale, senza server e senza database: utile
+ * per lavorare offline e per misurare i tempi di caricamento e di calcolo.
+ *
+ * <p>Il dataset viene letto con {@link ColumnarDataSource} se il file ha estensione
+ * {@code .qtc}, altrimenti come CSV con {@link CsvDataSource}.</p>
+ */
+public class OfflineClustering {
+
+    private OfflineClustering() {
+    }
+
+    /**
+     * Carica il dataset, esegue il clustering e stampa tempi e riepilogo dei cluster.
+     *
+     * <p>Argomenti: file del dataset, raggio, eventuale file in cui salvare i cluster ed
+     * eventuale {@code --report} per stampare il report completo con le tuple.</p>
+     *
+     * @param args argomenti della riga di comando
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Uso: java server.OfflineClustering <FILE.csv|FILE.qtc> <RAGGIO> [FILE.dmp] [--report]");
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            Data data = args[0].endsWith(".qtc")
+                    ? new ColumnarDataSource(args[0]).load()
+                    : new CsvDataSource(args[0]).load();
+            long loaded = System.nanoTime();
+            System.out.println("Tuple: " + data.getNumberOfExamples() + ", caricamento "
+                    + TimeUnit.NANOSECONDS.toMillis(loaded - start) + " ms");
+
+            QTMiner miner = new QTMiner(Double.parseDouble(args[1]));
+            int clusters = miner.compute(data);
+            System.out.println("Cluster: " + clusters + ", calcolo "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loaded) + " ms");
+
+            boolean report = false;
+            for (int i = 2; i < args.length; i++) {
+                if (args[i].equals("--report")) {
+                    report = true;
+                } else {
+                    miner.salva(args[i]);
+                    System.out.println("Cluster salvati in " + args[i]);
+                }
+            }
+            if (report) {
+                BufferedWriter out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+                new ClusterReport(miner.getC(), data).writeTo(out, ForkJoinPool.commonPool(),
+                        ForkJoinPool.getCommonPoolParallelism());
+                out.flush();
+            } else {
+                for (ClusterSummary summary : miner.getC().summarize(data)) {
+                    System.out.println(summary);
+                }
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Raggio non valido: " + args[1]);
+        } catch (ClusteringRadiusException | EmptyDatasetException | EmptySetException e) {
+            System.out.println("Errore: " + e.getMessage());
+        } catch (IOException e) {
+            System.out.println("Errore di I/O: " + e.getMessage());
+        } catch (InterruptedException e) {
+            System.out.println("Report interrotto");
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package server;
+
+import data.Data;
+import database.TableQuery;
+import mining.ClusterSet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache dei risultati di clustering condivisa da tutte le sessioni client.
+ *
+ * <p>Un risultato è identificato dalla tabella e dalla richiesta di caricamento,
+ * dall'impronta del dataset ({@link Data#getChecksum()}), dal raggio e dalle opzioni
+ * dell'algoritmo: se la tabella cambia, cambia l'impronta e il risultato precedente
+ * non viene più restituito.</p>
+ *
+ * <p>Per ogni {@link ClusterSet} viene stimata l'occupazione in memoria: quando il
+ * totale supera il limite vengono rimossi i risultati meno recentemente usati. Su
+ * disco i risultati sono conservati dal {@link ResultCatalog}, consultato quando un
+ * risultato non è in memoria. Il rapporto di successo è riportato da
+ * {@link #toString()}.</p>
+ */
+public class ResultCache {
+
+    /**
+     * Identificativo dell'algoritmo e delle sue opzioni, parte della chiave dei risultati.
+     */
+    static final String ENGINE = "QT";
+
+    private final LinkedHashMap<String, ClusterSet> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Long> sizes = new LinkedHashMap<>();
+    private final long maxBytes;
+    private long usedBytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * Crea una cache di risultati.
+     *
+     * @param maxBytes occupazione massima stimata dei risultati in memoria, in byte
+     */
+    public ResultCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Costruisce la chiave di un risultato.
+     *
+     * @param tableName nome della tabella
+     * @param query colonne e righe richieste
+     * @param data dataset su cui è calcolato il clustering
+     * @param radius raggio del clustering
+     * @return chiave del risultato
+     */
+    public static String key(String tableName, TableQuery query, Data data, double radius) {
+        return tableName + "|" + query + "|" + Long.toHexString(data.getChecksum()) + "|" + radius + "|" + ENGINE;
+    }
+
+    /**
+     * Restituisce il risultato associato alla chiave.
+     *
+     * @param key chiave del risultato
+     * @return l'insieme dei cluster, oppure {@code null} se il risultato non è in memoria
+     */
+    public synchronized ClusterSet get(String key) {
+        ClusterSet result = entries.get(key);
+        if (result != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return result;
+    }
+
+    /**
+     * Memorizza un risultato, rimuovendo se necessario i risultati meno recentemente usati.
+     *
+     * @param key chiave del risultato
+     * @param result l'insieme dei cluster
+     */
+    public synchronized void put(String key, ClusterSet result) {
+        if (entries.put(key, result) != null) {
+            usedBytes -= sizes.get(key);
+        }
+        long size = result.getEstimatedSize();
+        sizes.put(key, size);
+        usedBytes += size;
+
+        Iterator<Map.Entry<String, ClusterSet>> it = entries.entrySet().iterator();
+        while (usedBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, ClusterSet> e = it.next();
+            if (e.getKey().equals(key)) {
+                continue;
+            }
+            it.remove();
+            usedBytes -= sizes.remove(e.getKey());
+        }
+    }
+
+    /**
+     * Restituisce una descrizione dello stato della cache con il rapporto di successo.
+     *
+     * @return numero di risultati, occupazione e successi
+     */
+    public synchronized String toString() {
+        long total = hits + misses;
+        String rate = total == 0 ? "-" : String.format("%.1f%%", 100.0 * hits / total);
+        return "ResultCache[risultati=" + entries.size() + ", byte=" + usedBytes + "/" + maxBytes
+                + ", hit=" + hits + ", miss=" + misses + ", hit rate=" + rate + "]";
+    }
+}
@@ -0,0 +1,554 @@
+package server;
+
+import mining.ClusterSet;
+import mining.QTMiner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+/**
+ * Catalogo persistente dei risultati di clustering, condiviso da tutte le sessioni
+ * e conservato tra un riavvio e l'altro del server.
+ *
+ * <p>Ogni risultato calcolato viene salvato nella directory del catalogo, nel formato
+ * di {@link QTMiner#salva(String)}, in un file nuovo dal nome univoco
+ * ({@code <directory>/<hash della chiave>-<suffisso casuale>.dmp}): due chiavi con lo
+ * stesso hash non condividono mai un file. Il risultato è registrato nell'indice
+ * {@code <directory>/catalog.idx} con la stessa chiave di {@link ResultCache}:
+ * tabella, richiesta, impronta del dataset, raggio e algoritmo. L'indice riporta anche
+ * il numero di cluster, la durata del calcolo, la dimensione del file e gli istanti di
+ * creazione e di ultimo uso; alla lettura raggio, numero di cluster e dimensione del
+ * file vengono confrontati con la voce, e un file che non corrisponde viene scartato.</p>
+ *
+ * <p>Prima di calcolare un clustering il server cerca il risultato nel catalogo: se
+ * la tabella non è cambiata, l'impronta coincide e il risultato viene letto dal file
+ * invece di essere ricalcolato. I risultati non usati da più di {@code maxAgeMillis}
+ * vengono rimossi, e oltre {@code maxBytes} vengono rimossi quelli usati meno di
+ * recente.</p>
+ *
+ * <p>L'indice è un file binario versionato, riscritto in modo atomico quando si
+ * aggiungono o rimuovono risultati; un indice illeggibile viene ignorato e il
+ * catalogo riparte vuoto, eliminando i file non più registrati. Gli istanti di
+ * ultimo uso sono aggiornati in memoria e scritti insieme alle altre modifiche, al
+ * più ogni {@link #FLUSH_MILLIS} durante le letture e con {@link #flush()}.</p>
+ */
+public final class ResultCatalog {
+    /**
+     * Numero magico che identifica l'indice del catalogo ("QTCT").
+     */
+    static final int MAGIC = 0x51544354;
+
+    /**
+     * Versione corrente del formato dell'indice.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Intervallo minimo tra due scritture dell'indice dovute solo agli istanti di ultimo uso.
+     */
+    static final long FLUSH_MILLIS = 60_000;
+
+    private static final String INDEX = "catalog.idx";
+
+    private static final Pattern RESULT_FILE = Pattern.compile("[0-9a-f]{16}(-[0-9a-f]{8})?\\.dmp");
+
+    private final Path directory;
+    private final long maxAgeMillis;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private long usedBytes;
+    private long hits;
+    private long misses;
+    private boolean dirty;
+    private long lastWrite;
+
+    /**
+     * Voce del catalogo: descrizione di un risultato salvato.
+     */
+    public static final class Entry {
+        private final String key;
+        private final String tableName;
+        private final String query;
+        private final long checksum;
+        private final double radius;
+        private final String engine;
+        private final int clusters;
+        private final long computeMillis;
+        private final long created;
+        private final String fileName;
+        private final long bytes;
+        private volatile long lastUsed;
+
+        Entry(String key, String tableName, String query, long checksum, double radius, String engine,
+              int clusters, long computeMillis, long created, long lastUsed, String fileName, long bytes) {
+            this.key = key;
+            this.tableName = tableName;
+            this.query = query;
+            this.checksum = checksum;
+            this.radius = radius;
+            this.engine = engine;
+            this.clusters = clusters;
+            this.computeMillis = computeMillis;
+            this.created = created;
+            this.lastUsed = lastUsed;
+            this.fileName = fileName;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Restituisce il nome della tabella.
+         *
+         * @return nome della tabella
+         */
+        public String getTableName() {
+            return tableName;
+        }
+
+        /**
+         * Restituisce la richiesta (colonne e filtro) su cui è stato calcolato il risultato.
+         *
+         * @return rappresentazione canonica della richiesta
+         */
+        public String getQuery() {
+            return query;
+        }
+
+        /**
+         * Restituisce l'impronta del dataset su cui è stato calcolato il risultato.
+         *
+         * @return impronta del dataset
+         */
+        public long getChecksum() {
+            return checksum;
+        }
+
+        /**
+         * Restituisce il raggio del clustering.
+         *
+         * @return raggio
+         */
+        public double getRadius() {
+            return radius;
+        }
+
+        /**
+         * Restituisce l'algoritmo e le opzioni con cui è stato calcolato il risultato.
+         *
+         * @return identificativo dell'algoritmo
+         */
+        public String getEngine() {
+            return engine;
+        }
+
+        /**
+         * Restituisce il numero di cluster.
+         *
+         * @return numero di cluster
+         */
+        public int getClusters() {
+            return clusters;
+        }
+
+        /**
+         * Restituisce la durata del calcolo.
+         *
+         * @return durata in millisecondi
+         */
+        public long getComputeMillis() {
+            return computeMillis;
+        }
+
+        /**
+         * Restituisce l'istante di creazione del risultato.
+         *
+         * @return millisecondi dall'epoch
+         */
+        public long getCreated() {
+            return created;
+        }
+
+        /**
+         * Restituisce l'istante dell'ultimo uso del risultato.
+         *
+         * @return millisecondi dall'epoch
+         */
+        public long getLastUsed() {
+            return lastUsed;
+        }
+
+        /**
+         * Restituisce la dimensione del file del risultato.
+         *
+         * @return dimensione in byte
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Restituisce una descrizione della voce.
+         *
+         * @return tabella, richiesta, raggio, algoritmo, cluster, durata e dimensione
+         */
+        public String toString() {
+            return tableName + " [" + query + "] radius=" + radius + " engine=" + engine
+                    + " checksum=" + Long.toHexString(checksum) + " cluster=" + clusters
+                    + " calcolo=" + computeMillis + "ms byte=" + bytes
+                    + " creato=" + Instant.ofEpochMilli(created)
+                    + " usato=" + Instant.ofEpochMilli(lastUsed);
+        }
+    }
+
+    /**
+     * Crea il catalogo nella directory indicata, leggendone l'indice se presente, e
+     * rimuove i risultati scaduti o oltre la quota.
+     *
+     * @param directory directory del catalogo (creata al primo salvataggio)
+     * @param maxAgeMillis tempo massimo dall'ultimo uso di un risultato, 0 senza limite
+     * @param maxBytes occupazione massima su disco dei risultati, in byte
+     */
+    public ResultCatalog(String directory, long maxAgeMillis, long maxBytes) {
+        this.directory = Paths.get(directory);
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxBytes = maxBytes;
+        try {
+            readIndex();
+        } catch (NoSuchFileException e) {
+            // catalogo nuovo
+        } catch (IOException e) {
+            System.err.println("Indice del catalogo non leggibile, ignorato: " + e.getMessage());
+            entries.clear();
+            usedBytes = 0;
+        }
+        deleteUnregistered();
+        gc();
+    }
+
+    /**
+     * Restituisce il risultato associato alla chiave, leggendolo dal file del
+     * catalogo. Un risultato il cui file non è più leggibile o non corrisponde alla
+     * voce viene rimosso.
+     *
+     * @param key chiave del risultato, costruita con {@link ResultCache#key}
+     * @return l'insieme dei cluster, {@code null} se il catalogo non contiene il risultato
+     */
+    public ClusterSet get(String key) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+        }
+        try {
+            Path file = directory.resolve(entry.fileName);
+            QTMiner miner = new QTMiner(file.toString());
+            if (Files.size(file) != entry.bytes || miner.getC().size() != entry.clusters
+                    || Double.compare(miner.getRadius(), entry.radius) != 0) {
+                throw new IOException(entry.fileName + " non corrisponde alla voce del catalogo");
+            }
+            long now = System.currentTimeMillis();
+            synchronized (this) {
+                hits++;
+                entry.lastUsed = now;
+                dirty = true;
+                if (now - lastWrite >= FLUSH_MILLIS) {
+                    writeIndexQuietly();
+                }
+            }
+            return miner.getC();
+        } catch (IOException | ClassNotFoundException e) {
+            System.err.println("Risultato del catalogo non leggibile, rimosso: " + e.getMessage());
+            synchronized (this) {
+                misses++;
+                if (entries.get(key) == entry) {
+                    remove(entry);
+                    writeIndexQuietly();
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Salva un risultato nel catalogo, se non è già presente, e rimuove i risultati
+     * scaduti o oltre la quota.
+     *
+     * @param key chiave del risultato, costruita con {@link ResultCache#key}
+     * @param tableName nome della tabella
+     * @param query rappresentazione canonica della richiesta
+     * @param checksum impronta del dataset
+     * @param radius raggio del clustering
+     * @param result l'insieme dei cluster
+     * @param computeMillis durata del calcolo in millisecondi
+     * @throws IOException se la scrittura del risultato o dell'indice fallisce
+     */
+    public void put(String key, String tableName, String query, long checksum, double radius,
+                    ClusterSet result, long computeMillis) throws IOException {
+        synchronized (this) {
+            if (entries.containsKey(key)) {
+                return;
+            }
+        }
+        Files.createDirectories(directory);
+        Path file = createFile(key);
+        Entry entry;
+        try {
+            new QTMiner(radius, result).salva(file.toString());
+            long now = System.currentTimeMillis();
+            entry = new Entry(key, tableName, query, checksum, radius, ResultCache.ENGINE,
+                    result.size(), computeMillis, now, now, file.getFileName().toString(), Files.size(file));
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        synchronized (this) {
+            if (entries.containsKey(key)) {
+                // salvato nel frattempo da un'altra richiesta
+                Files.deleteIfExists(file);
+                return;
+            }
+            entries.put(key, entry);
+            usedBytes += entry.bytes;
+            evict();
+            writeIndex();
+        }
+    }
+
+    /**
+     * Scrive l'indice se ci sono istanti di ultimo uso non ancora salvati. Va invocato
+     * alla chiusura del server.
+     */
+    public synchronized void flush() {
+        if (dirty) {
+            writeIndexQuietly();
+        }
+    }
+
+    /**
+     * Restituisce le voci del catalogo, dalla più recentemente usata.
+     *
+     * @param tableName tabella di cui elencare i risultati, {@code null} o vuota per tutte
+     * @return le voci del catalogo
+     */
+    public synchronized List<Entry> list(String tableName) {
+        List<Entry> list = new ArrayList<>();
+        for (Entry e : entries.values()) {
+            if (tableName == null || tableName.isEmpty() || e.tableName.equals(tableName)) {
+                list.add(e);
+            }
+        }
+        list.sort(Comparator.comparingLong(Entry::getLastUsed).reversed());
+        return list;
+    }
+
+    /**
+     * Rimuove i risultati non usati da più di {@code maxAgeMillis} e, finché
+     * l'occupazione supera {@code maxBytes}, quelli usati meno di recente.
+     *
+     * @return numero di risultati rimossi
+     */
+    public synchronized int gc() {
+        int removed = evict();
+        if (removed > 0) {
+            writeIndexQuietly();
+        }
+        return removed;
+    }
+
+    /**
+     * Restituisce una descrizione dello stato del catalogo.
+     *
+     * @return numero di risultati, occupazione e successi
+     */
+    public synchronized String toString() {
+        return "ResultCatalog[risultati=" + entries.size() + ", byte=" + usedBytes + "/" + maxBytes
+                + ", hit=" + hits + ", miss=" + misses + "]";
+    }
+
+    private int evict() {
+        int removed = 0;
+        long oldest = maxAgeMillis > 0 ? System.currentTimeMillis() - maxAgeMillis : Long.MIN_VALUE;
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry e = it.next();
+            if (e.lastUsed < oldest) {
+                it.remove();
+                delete(e);
+                removed++;
+            }
+        }
+        if (usedBytes > maxBytes) {
+            List<Entry> byUse = new ArrayList<>(entries.values());
+            byUse.sort(Comparator.comparingLong(Entry::getLastUsed));
+            for (int i = 0; i < byUse.size() && usedBytes > maxBytes; i++) {
+                remove(byUse.get(i));
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private void remove(Entry e) {
+        entries.remove(e.key);
+        delete(e);
+    }
+
+    private void delete(Entry e) {
+        usedBytes -= e.bytes;
+        try {
+            Files.deleteIfExists(directory.resolve(e.fileName));
+        } catch (IOException ex) {
+            System.err.println("Impossibile eliminare il risultato " + e.fileName + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Crea un file vuoto con un nome non ancora usato per il risultato della chiave.
+     */
+    private Path createFile(String key) throws IOException {
+        String prefix = String.format("%016x", stableHash(key));
+        while (true) {
+            Path file = directory.resolve(prefix + String.format("-%08x", ThreadLocalRandom.current().nextInt()) + ".dmp");
+            try {
+                return Files.createFile(file);
+            } catch (FileAlreadyExistsException e) {
+                // nome già usato, se ne prova un altro
+            }
+        }
+    }
+
+    /**
+     * Elimina i file di risultato presenti nella directory ma non registrati
+     * nell'indice, ad esempio perché il server si è fermato prima di registrarli.
+     */
+    private void deleteUnregistered() {
+        Set<String> registered = new HashSet<>();
+        for (Entry e : entries.values()) {
+            registered.add(e.fileName);
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (RESULT_FILE.matcher(name).matches() && !registered.contains(name)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // catalogo nuovo
+        } catch (IOException e) {
+            System.err.println("Impossibile eliminare i risultati non registrati: " + e.getMessage());
+        }
+    }
+
+    private void readIndex() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(directory.resolve(INDEX))))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("File non nel formato dell'indice atteso");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Versione dell'indice non supportata: " + version);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Entry e = new Entry(in.readUTF(), in.readUTF(), in.readUTF(), in.readLong(), in.readDouble(),
+                        in.readUTF(), in.readInt(), in.readLong(), in.readLong(), in.readLong(),
+                        in.readUTF(), in.readLong());
+                if (Files.exists(directory.resolve(e.fileName))) {
+                    entries.put(e.key, e);
+                    usedBytes += e.bytes;
+                }
+            }
+        }
+    }
+
+    /**
+     * Riscrive l'indice in un file temporaneo, forzato su disco e rinominato con il
+     * nome definitivo.
+     */
+    private void writeIndex() throws IOException {
+        Files.createDirectories(directory);
+        Path target = directory.resolve(INDEX);
+        Path tmp = Files.createTempFile(directory, INDEX + ".", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                // lo stream non va chiuso: chiuderebbe il canale prima di forzarlo su disco
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(entries.size());
+                for (Entry e : entries.values()) {
+                    out.writeUTF(e.key);
+                    out.writeUTF(e.tableName);
+                    out.writeUTF(e.query);
+                    out.writeLong(e.checksum);
+                    out.writeDouble(e.radius);
+                    out.writeUTF(e.engine);
+                    out.writeInt(e.clusters);
+                    out.writeLong(e.computeMillis);
+                    out.writeLong(e.created);
+                    out.writeLong(e.lastUsed);
+                    out.writeUTF(e.fileName);
+                    out.writeLong(e.bytes);
+                }
+                out.flush();
+                channel.force(true);
+            }
+            dirty = false;
+            lastWrite = System.currentTimeMillis();
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private void writeIndexQuietly() {
+        try {
+            writeIndex();
+        } catch (IOException e) {
+            System.err.println("Impossibile scrivere l'indice del catalogo: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Hash a 64 bit della chiave, stabile tra esecuzioni diverse del server.
+     */
+    static long stableHash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+}
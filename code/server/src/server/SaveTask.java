@@ -0,0 +1,155 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Salvataggio su file eseguito in background sull'esecutore di I/O di
+ * {@link ClusteringService}.
+ *
+ * <p>Il salvataggio scrive il file in modo atomico (vedi {@link mining.QTMiner#salva(String)}):
+ * finché non è completato il file di destinazione, se esiste, conserva il contenuto
+ * precedente. Nel frattempo la sessione che l'ha avviato può continuare con altri
+ * clustering.</p>
+ */
+public class SaveTask implements Runnable {
+
+    /**
+     * Stato di un salvataggio.
+     */
+    public enum State {
+        /** In attesa o in scrittura. */
+        IN_CORSO,
+        /** File scritto. */
+        COMPLETATO,
+        /** Terminato con errore, il file di destinazione non è stato modificato. */
+        ERRORE
+    }
+
+    /**
+     * Scrittura da eseguire.
+     */
+    interface Action {
+        /**
+         * Scrive il file.
+         *
+         * @throws IOException se la scrittura fallisce
+         */
+        void run() throws IOException;
+    }
+
+    private final long id;
+    private final String fileName;
+    private final Action action;
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private volatile State state = State.IN_CORSO;
+    private volatile String error;
+    private volatile long finishedAt;
+
+    SaveTask(long id, String fileName, Action action) {
+        this.id = id;
+        this.fileName = fileName;
+        this.action = action;
+    }
+
+    /**
+     * Esegue la scrittura. Viene invocato dall'esecutore di I/O.
+     */
+    @Override
+    public void run() {
+        try {
+            action.run();
+            state = State.COMPLETATO;
+        } catch (NoSuchFileException e) {
+            error = "Errore salvataggio: directory inesistente per " + fileName;
+            state = State.ERRORE;
+        } catch (IOException | RuntimeException e) {
+            error = "Errore salvataggio: " + e.getMessage();
+            state = State.ERRORE;
+        } finally {
+            finishedAt = System.currentTimeMillis();
+            done.complete(null);
+        }
+    }
+
+    /**
+     * Restituisce l'identificativo del salvataggio.
+     *
+     * @return identificativo univoco nel server
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Restituisce il nome del file di destinazione.
+     *
+     * @return nome del file
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Restituisce lo stato del salvataggio.
+     *
+     * @return stato corrente
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Restituisce il messaggio d'errore del salvataggio.
+     *
+     * @return messaggio d'errore, {@code null} se il salvataggio non è fallito
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Restituisce l'istante in cui il salvataggio è terminato.
+     *
+     * @return millisecondi dall'epoch, 0 se il salvataggio non è terminato
+     */
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    /**
+     * Attende il termine del salvataggio.
+     *
+     * @param timeoutMillis attesa massima in millisecondi, 0 per attendere senza limite
+     * @return {@code true} se il salvataggio è terminato
+     * @throws InterruptedException se il thread viene interrotto durante l'attesa
+     */
+    public boolean await(long timeoutMillis) throws InterruptedException {
+        try {
+            if (timeoutMillis <= 0) {
+                done.get();
+            } else {
+                done.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Restituisce una descrizione dello stato del salvataggio.
+     *
+     * @return identificativo, file, stato ed eventuale errore
+     */
+    public String toString() {
+        String str = "Save " + id + " " + fileName + " " + state;
+        return error != null ? str + " " + error : str;
+    }
+}
@@ -1,11 +1,10 @@
 package server;
 
-import data.Data;
 import database.DatabaseConnectionException;
-import database.EmptySetException;
-import database.NoValueException;
-import mining.ClusteringRadiusException;
-import mining.EmptyDatasetException;
+import database.TableQuery;
+import mining.ClusterIndex;
+import mining.ClusterReport;
+import mining.ClusterSet;
 import mining.QTMiner;
 
 import java.io.*;
@@ -13,38 +12,42 @@ import java.net.Socket;
 import java.sql.SQLException;
 
 /**
- * La classe {@code ServerOneClient} rappresenta un thread dedicato alla gestione
- * della comunicazione con un singolo client connesso via socket.
+ * La classe {@code ServerOneClient} rappresenta il compito, eseguito da un thread
+ * dedicato, di gestire la comunicazione con un singolo client connesso via socket.
  * <p>
  * Il server interpreta comandi inviati dal client e fornisce risposte coerenti
  * relative a:
  * <ul>
  *     <li>Caricamento dati da una tabella</li>
- *     <li>Esecuzione del clustering con QTMiner</li>
+ *     <li>Esecuzione del clustering con QTMiner, in attesa del risultato o in background</li>
  *     <li>Salvataggio o caricamento dei cluster da/verso file</li>
  * </ul>
  * La comunicazione avviene tramite stream di oggetti (ObjectInputStream/ObjectOutputStream).
+ * Lo stato della sessione è mantenuto da {@link ClusteringSession}, condivisa con il
+ * protocollo binario di {@link BinaryServerOneClient}.
  * 
  */
-public class ServerOneClient extends Thread {
+public class ServerOneClient implements Runnable {
+    /**
+     * Servizi di clustering condivisi da tutti i client, configurati dalle proprietà
+     * di sistema descritte in {@link ClusteringService}.
+     */
+    static final ClusteringService SERVICE = new ClusteringService();
+
     private final Socket socket;
-    private final ObjectInputStream in;
-    private final ObjectOutputStream out;
-    private QTMiner kmeans;
-    private String tableName;
+    private ObjectInputStream in;
+    private ObjectOutputStream out;
+    private final ClusteringSession session;
 
     /**
-     * Crea una nuova istanza del gestore client e avvia immediatamente il thread.
+     * Crea una nuova istanza del gestore client. La gestione inizia quando
+     * l'istanza viene eseguita da un thread.
      *
      * @param s il socket connesso al client.
-     * @throws IOException se si verifica un errore durante l'inizializzazione degli stream.
      */
-    public ServerOneClient(Socket s) throws IOException {
+    public ServerOneClient(Socket s) {
         this.socket = s;
-        this.out = new ObjectOutputStream(socket.getOutputStream());
-        this.out.flush();
-        this.in = new ObjectInputStream(socket.getInputStream());
-        this.start(); // avvia il thread
+        this.session = new ClusteringSession(SERVICE, s.getInetAddress().getHostAddress());
     }
 
     /**
@@ -55,13 +58,28 @@ public class ServerOneClient extends Thread {
      *     <li>1: avvio clustering su tabella</li>
      *     <li>2: salvataggio dei cluster su file</li>
      *     <li>3: caricamento dei cluster da file</li>
+     *     <li>4: ricezione nome della tabella con proiezione e filtro</li>
+     *     <li>5: avvio clustering in background</li>
+     *     <li>6: stato di un clustering in background</li>
+     *     <li>7: attesa di un clustering in background</li>
+     *     <li>8: risultato di un clustering in background</li>
+     *     <li>9: annullamento di un clustering in background</li>
+     *     <li>10: salvataggio dei cluster su file in background</li>
+     *     <li>11: stato di un salvataggio in background</li>
+     *     <li>12: elenco dei risultati del catalogo</li>
+     *     <li>13: scrittura delle assegnazioni ai cluster in una tabella del database</li>
+     *     <li>14: assegnazione di una tabella ai cluster salvati in un file</li>
      * </ul>
-     * In caso di disconnessione o errore, il socket viene chiuso.
+     * In caso di disconnessione o errore, il socket viene chiuso e i clustering in
+     * background ancora in corso vengono annullati.
      */
     @Override
     public void run() {
         System.out.println("Client Connesso");
         try {
+            out = new ObjectOutputStream(socket.getOutputStream());
+            out.flush();
+            in = new ObjectInputStream(socket.getInputStream());
             while (true) {
                 Object request = in.readObject();
 
@@ -81,6 +99,39 @@ public class ServerOneClient extends Thread {
                         case 3:
                             handleLearningFromFile();
                             break;
+                        case 4:
+                            handleStoreTableWithQuery();
+                            break;
+                        case 5:
+                            handleSubmitJob();
+                            break;
+                        case 6:
+                            handleJobStatus(false);
+                            break;
+                        case 7:
+                            handleJobStatus(true);
+                            break;
+                        case 8:
+                            handleJobResult();
+                            break;
+                        case 9:
+                            handleCancelJob();
+                            break;
+                        case 10:
+                            handleSaveAsync();
+                            break;
+                        case 11:
+                            handleSaveStatus();
+                            break;
+                        case 12:
+                            handleListResults();
+                            break;
+                        case 13:
+                            handleExport();
+                            break;
+                        case 14:
+                            handleScore();
+                            break;
                         default:
                             out.writeObject("Comando non valido.");
                             out.flush();
@@ -93,13 +144,16 @@ public class ServerOneClient extends Thread {
         } catch (EOFException e) {
             System.out.println("Client disconnesso.");
         } catch (Exception e) {
-            try {
-                out.writeObject("Errore: " + e.getMessage());
-                out.flush();
-            } catch (IOException ioEx) {
-                ioEx.printStackTrace();
+            if (out != null) {
+                try {
+                    out.writeObject("Errore: " + e.getMessage());
+                    out.flush();
+                } catch (IOException ioEx) {
+                    ioEx.printStackTrace();
+                }
             }
         } finally {
+            session.close();
             try {
                 socket.close();
             } catch (IOException e) {
@@ -114,8 +168,7 @@ public class ServerOneClient extends Thread {
      * Il client deve inviare una stringa contenente il nome della tabella; in caso contrario,
      * viene restituito un messaggio d'errore.
      * 
-     * Se la tabella è valida, viene restituita anche la rappresentazione testuale
-     * dei dati estratti.
+     * Se la tabella è valida, viene restituita anche un'anteprima dei dati.
      *
      * @throws IOException se si verifica un errore di I/O.
      * @throws ClassNotFoundException se l'oggetto ricevuto non è riconoscibile.
@@ -123,21 +176,63 @@ public class ServerOneClient extends Thread {
     private void handleStoreTableFromDb() throws IOException, ClassNotFoundException {
         Object obj = in.readObject();
         if (obj instanceof String) {
-            tableName = (String) obj; // salva il nome della tabella
-            out.writeObject("OK");
-            try {
-                Data data = new Data<>(tableName);
-                out.writeObject(data.toString());  // invia la stringa dei dati
-            } catch (Exception e) {
-                out.writeObject("Errore durante il caricamento dati: " + e.getMessage());
-            }
-
+            storeTable((String) obj, new TableQuery());
         } else {
             out.writeObject("Errore: nome tabella non valido.");
         }
         out.flush();
     }
 
+    /**
+     * Gestisce il comando per memorizzare la tabella da cui leggere i dati insieme
+     * alle colonne da usare e al filtro sulle righe.
+     * <p>
+     * Il client invia tre stringhe: nome della tabella, nomi delle colonne separati da
+     * virgole (vuota per tutte) e condizioni separate da {@code AND} (vuota per nessun
+     * filtro), ad esempio {@code regione = 'Nord' AND anno >= 2020}. La risposta è la
+     * stessa del comando 0.
+     *
+     * @throws IOException se si verifica un errore di I/O.
+     * @throws ClassNotFoundException se l'oggetto ricevuto non è riconoscibile.
+     */
+    private void handleStoreTableWithQuery() throws IOException, ClassNotFoundException {
+        Object table = in.readObject();
+        Object columns = in.readObject();
+        Object filter = in.readObject();
+        if (!(table instanceof String) || !(columns instanceof String) || !(filter instanceof String)) {
+            out.writeObject("Errore: richiesta di caricamento non valida.");
+        } else {
+            try {
+                TableQuery query = new TableQuery((String) columns, (String) filter);
+                storeTable((String) table, query);
+            } catch (IllegalArgumentException e) {
+                out.writeObject("Errore: " + e.getMessage());
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Memorizza tabella e richiesta per i comandi successivi e invia al client
+     * la conferma seguita da un'anteprima dei dati.
+     * <p>
+     * L'anteprima contiene il numero di righe, le statistiche di ogni colonna e le
+     * prime tuple distinte, calcolate direttamente dal database: il caricamento
+     * completo del dataset è rimandato alla richiesta di clustering.
+     *
+     * @param table nome della tabella
+     * @param query colonne e righe richieste
+     * @throws IOException se si verifica un errore di I/O.
+     */
+    private void storeTable(String table, TableQuery query) throws IOException {
+        out.writeObject("OK");
+        try {
+            out.writeObject(session.selectTable(table, query).toString());  // invia l'anteprima dei dati
+        } catch (Exception e) {
+            out.writeObject("Errore durante il caricamento dati: " + e.getMessage());
+        }
+    }
+
     /**
      * Gestisce l'avvio del clustering sulla tabella precedentemente indicata,
      * utilizzando il raggio specificato dal client.
@@ -148,6 +243,9 @@ public class ServerOneClient extends Thread {
      *     <li>Numero di iterazioni</li>
      *     <li>Stringa dei cluster</li>
      * </ul>
+     * Il clustering è un {@link ClusteringJob} a priorità alta di cui si attende il
+     * termine: passa quindi dal controllo di ammissione, che può metterlo in attesa o
+     * rifiutarlo se la memoria o il calcolo stimati superano i limiti del server.
      * In caso di errore vengono gestite sia le eccezioni di clustering che quelle di accesso al DB.
      *
      * @return Invia al client una conferma, il numero di cluster trovati e la descrizione dei cluster.
@@ -164,33 +262,156 @@ public class ServerOneClient extends Thread {
         }
         double radius = (Double) obj;
 
-        if (tableName == null) {
+        if (session.getTableName() == null) {
             out.writeObject("Errore: nessuna tabella specificata.");
             out.flush();
             return;
         }
 
         try {
-            Data data = new Data<>(tableName);
-            System.out.println("Dati caricati");
-            // out.writeObject("DATI");
-            // out.writeObject(data.toString());
+            ClusteringJob job = session.cluster(radius);
+            System.out.println("Clustering terminato: " + job);
+            sendResult(job);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            out.writeObject("Errore clustering: attesa interrotta");
+        }
+        out.flush();
+    }
 
-            this.kmeans = new QTMiner(radius);
-            int numIter = kmeans.compute(data);
+    /**
+     * Gestisce l'avvio di un clustering in background sulla tabella precedentemente indicata.
+     * <p>
+     * Il client invia il raggio (Double) e la priorità (Integer: 0 alta, 1 normale,
+     * 2 bassa) e riceve subito la conferma seguita dall'identificativo del lavoro (Long),
+     * da usare nei comandi 6-9.
+     *
+     * @throws IOException se si verifica un errore di I/O.
+     * @throws ClassNotFoundException se il tipo dell'oggetto ricevuto non è atteso.
+     */
+    private void handleSubmitJob() throws IOException, ClassNotFoundException {
+        Object radius = in.readObject();
+        Object priority = in.readObject();
+        if (!(radius instanceof Double) || !(priority instanceof Integer)) {
+            out.writeObject("Errore: raggio o priorità non validi.");
+        } else {
+            try {
+                ClusteringJob job = session.submit((Double) radius, (Integer) priority);
+                out.writeObject("OK");
+                out.writeObject(job.getId());
+            } catch (IllegalStateException | IllegalArgumentException e) {
+                out.writeObject("Errore: " + e.getMessage());
+            }
+        }
+        out.flush();
+    }
 
+    /**
+     * Gestisce la richiesta dello stato di un lavoro (comando 6) o l'attesa del suo
+     * termine (comando 7).
+     * <p>
+     * Il client invia l'identificativo del lavoro (Long) e, per l'attesa, il tempo
+     * massimo in millisecondi (Long, 0 per attendere senza limite). La risposta è la
+     * conferma seguita dallo stato, dall'avanzamento e dall'eventuale errore.
+     *
+     * @param wait {@code true} per attendere il termine del lavoro
+     * @throws IOException se si verifica un errore di I/O.
+     * @throws ClassNotFoundException se il tipo dell'oggetto ricevuto non è atteso.
+     */
+    private void handleJobStatus(boolean wait) throws IOException, ClassNotFoundException {
+        ClusteringJob job = readJob();
+        Object timeout = wait ? in.readObject() : null;
+        if (job == null) {
+            out.writeObject("Errore: lavoro inesistente.");
+        } else if (wait && !(timeout instanceof Long)) {
+            out.writeObject("Errore: tempo di attesa non valido.");
+        } else {
+            if (wait) {
+                try {
+                    job.await((Long) timeout);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
             out.writeObject("OK");
-            out.writeObject(numIter);
-            out.writeObject(kmeans.getC().toString(data));
+            out.writeObject(job.toString());
+        }
+        out.flush();
+    }
 
-        } catch (EmptyDatasetException | ClusteringRadiusException | IOException e) {
-            out.writeObject("Errore clustering: " + e.getMessage());
-        } catch (DatabaseConnectionException | SQLException | EmptySetException | NoValueException e) {
-            out.writeObject("Errore durante il caricamento dei dati: " + e.getMessage());
+    /**
+     * Gestisce la richiesta del risultato di un lavoro in background.
+     * <p>
+     * Il client invia l'identificativo del lavoro (Long). Se il lavoro è completato la
+     * risposta è la stessa del comando 1 e i cluster possono essere salvati con il
+     * comando 2; altrimenti viene restituito lo stato del lavoro come errore. Dopo la
+     * consegna del risultato o dell'errore finale il lavoro non è più consultabile.
+     *
+     * @throws IOException se si verifica un errore di I/O.
+     * @throws ClassNotFoundException se il tipo dell'oggetto ricevuto non è atteso.
+     */
+    private void handleJobResult() throws IOException, ClassNotFoundException {
+        ClusteringJob job = readJob();
+        if (job == null) {
+            out.writeObject("Errore: lavoro inesistente.");
+        } else {
+            sendResult(job);
         }
         out.flush();
     }
 
+    /**
+     * Gestisce l'annullamento di un lavoro in background.
+     * <p>
+     * Il client invia l'identificativo del lavoro (Long); il lavoro viene annullato,
+     * se ancora in corso, e dimenticato.
+     *
+     * @throws IOException se si verifica un errore di I/O.
+     * @throws ClassNotFoundException se il tipo dell'oggetto ricevuto non è atteso.
+     */
+    private void handleCancelJob() throws IOException, ClassNotFoundException {
+        Object id = in.readObject();
+        if (id instanceof Long && session.cancel((Long) id)) {
+            out.writeObject("OK");
+        } else {
+            out.writeObject("Errore: lavoro inesistente.");
+        }
+        out.flush();
+    }
+
+    /**
+     * Legge l'identificativo di un lavoro e restituisce il lavoro corrispondente
+     * tra quelli avviati da questa sessione.
+     */
+    private ClusteringJob readJob() throws IOException, ClassNotFoundException {
+        Object id = in.readObject();
+        return id instanceof Long ? session.getJob((Long) id) : null;
+    }
+
+    /**
+     * Invia al client il risultato di un lavoro: conferma, numero di cluster e
+     * descrizione dei cluster, oppure il messaggio d'errore se il lavoro non è completato.
+     * I cluster inviati diventano quelli salvati dal comando 2.
+     * <p>
+     * Il protocollo invia la descrizione come un'unica stringa, che quindi va composta
+     * per intero; viene composta dal thread della connessione, senza occupare i thread
+     * condivisi del server. Il protocollo binario invia invece i cluster a pagine.
+     */
+    private void sendResult(ClusteringJob job) throws IOException {
+        if (session.adopt(job)) {
+            ClusterSet clusters = job.getResult();
+            StringBuilder report = new StringBuilder();
+            new ClusterReport(clusters, job.getData()).writeTo(report);
+            out.writeObject("OK");
+            out.writeObject(clusters.size());
+            out.writeObject(report.toString());
+        } else if (job.getError() != null) {
+            out.writeObject(job.getError());
+        } else {
+            out.writeObject("Errore: lavoro non ancora completato (" + job + ")");
+        }
+    }
+
     /**
      * Gestisce la richiesta di salvataggio dei cluster appresi su file.
      * <p>
@@ -202,7 +423,7 @@ public class ServerOneClient extends Thread {
      */
     private void handleStoreClusterInFile() throws IOException, ClassNotFoundException {
         Object obj = in.readObject(); // Leggi il nome file dal client
-        System.out.println("Tabella ricevuta: '" + tableName + "'");
+        System.out.println("Tabella ricevuta: '" + session.getTableName() + "'");
 
         if (!(obj instanceof String)) {
             out.writeObject("Errore: nome file non valido.");
@@ -211,14 +432,14 @@ public class ServerOneClient extends Thread {
         }
         String filename = (String) obj;
 
-        if (kmeans == null) {
+        if (!session.hasClusters()) {
             out.writeObject("Errore: nessun cluster da salvare.");
             out.flush();
             return;
         }
 
         try {
-            kmeans.salva(filename);
+            session.save(filename);
             out.writeObject("OK");
         } catch (IOException e) {
             out.writeObject("Errore salvataggio cluster: " + e.getMessage());
@@ -226,6 +447,161 @@ public class ServerOneClient extends Thread {
         out.flush();
     }
 
+    /**
+     * Gestisce la richiesta di salvataggio in background dei cluster su file.
+     * <p>
+     * Il client invia il nome del file; la risposta è la conferma seguita
+     * dall'identificativo del salvataggio (Long), il cui stato si legge con il
+     * comando 11. Nel frattempo il client può avviare altri clustering.
+     *
+     * @throws IOException se si verifica un errore di I/O.
+     * @throws ClassNotFoundException se il tipo dell'oggetto ricevuto non è atteso.
+     */
+    private void handleSaveAsync() throws IOException, ClassNotFoundException {
+        Object obj = in.readObject();
+        if (!(obj instanceof String)) {
+            out.writeObject("Errore: nome file non valido.");
+        } else if (!session.hasClusters()) {
+            out.writeObject("Errore: nessun cluster da salvare.");
+        } else {
+            SaveTask save = session.saveAsync((String) obj);
+            out.writeObject("OK");
+            out.writeObject(save.getId());
+        }
+        out.flush();
+    }
+
+    /**
+     * Gestisce la richiesta dello stato di un salvataggio in background.
+     * <p>
+     * Il client invia l'identificativo del salvataggio (Long) e il tempo massimo di
+     * attesa del suo termine in millisecondi (Long, 0 per attendere senza limite,
+     * negativo per non attendere). La risposta è la conferma seguita dallo stato e
+     * dall'eventuale errore.
+     *
+     * @throws IOException se si verifica un errore di I/O.
+     * @throws ClassNotFoundException se il tipo dell'oggetto ricevuto non è atteso.
+     */
+    private void handleSaveStatus() throws IOException, ClassNotFoundException {
+        Object id = in.readObject();
+        Object timeout = in.readObject();
+        SaveTask save = id instanceof Long ? session.getSave((Long) id) : null;
+        if (save == null) {
+            out.writeObject("Errore: salvataggio inesistente.");
+        } else if (!(timeout instanceof Long)) {
+            out.writeObject("Errore: tempo di attesa non valido.");
+        } else {
+            if ((Long) timeout >= 0) {
+                try {
+                    save.await((Long) timeout);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            out.writeObject("OK");
+            out.writeObject(save.toString());
+        }
+        out.flush();
+    }
+
+    /**
+     * Gestisce la richiesta di scrittura delle assegnazioni ai cluster nel database.
+     * <p>
+     * Il client invia il nome della tabella di destinazione (String) e se sostituirla
+     * quando esiste già (Boolean). La risposta è la conferma seguita dal numero di
+     * righe scritte (Long), una per tupla con l'indice del cluster e la distanza dal
+     * centroide.
+     *
+     * @throws IOException se si verifica un errore di I/O.
+     * @throws ClassNotFoundException se il tipo dell'oggetto ricevuto non è atteso.
+     */
+    private void handleExport() throws IOException, ClassNotFoundException {
+        Object table = in.readObject();
+        Object replace = in.readObject();
+        if (!(table instanceof String) || !(replace instanceof Boolean)) {
+            out.writeObject("Errore: richiesta di esportazione non valida.");
+        } else {
+            try {
+                long rows = session.export((String) table, (Boolean) replace, 0);
+                out.writeObject("OK");
+                out.writeObject(rows);
+            } catch (IllegalStateException | IllegalArgumentException e) {
+                out.writeObject("Errore: " + e.getMessage());
+            } catch (SQLException | DatabaseConnectionException e) {
+                out.writeObject("Errore esportazione: " + e.getMessage());
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Gestisce la richiesta di assegnazione di una tabella ai cluster salvati in un file.
+     * <p>
+     * Il client invia il file dei cluster, la tabella e il filtro sulle righe (String),
+     * il raggio (Double, 0 per quello salvato), la destinazione (String), se la
+     * destinazione è una tabella del database o un file CSV e se sostituirla quando
+     * esiste già (Boolean). La risposta è la conferma seguita da righe lette, righe
+     * assegnate e durata (String).
+     *
+     * @throws IOException se si verifica un errore di I/O.
+     * @throws ClassNotFoundException se il tipo dell'oggetto ricevuto non è atteso.
+     */
+    private void handleScore() throws IOException, ClassNotFoundException {
+        Object file = in.readObject();
+        Object table = in.readObject();
+        Object filter = in.readObject();
+        Object radius = in.readObject();
+        Object output = in.readObject();
+        Object toTable = in.readObject();
+        Object replace = in.readObject();
+        if (!(file instanceof String) || !(table instanceof String) || !(filter instanceof String)
+                || !(radius instanceof Double) || !(output instanceof String)
+                || !(toTable instanceof Boolean) || !(replace instanceof Boolean)) {
+            out.writeObject("Errore: richiesta di assegnazione non valida.");
+        } else {
+            try {
+                TableScorer scorer = session.score((String) file, (String) table, (String) filter, (Double) radius,
+                        (String) output, (Boolean) toTable, (Boolean) replace);
+                out.writeObject("OK");
+                out.writeObject(scorer.toString());
+            } catch (FileNotFoundException e) {
+                out.writeObject("Errore: file non trovato.");
+            } catch (IllegalStateException | IllegalArgumentException e) {
+                out.writeObject("Errore: " + e.getMessage());
+            } catch (SQLException | DatabaseConnectionException | IOException e) {
+                out.writeObject("Errore assegnazione: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                out.writeObject("Errore: assegnazione interrotta.");
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Gestisce la richiesta dell'elenco dei risultati del catalogo persistente.
+     * <p>
+     * Il client invia il nome della tabella (stringa vuota per tutte); la risposta è
+     * la conferma seguita dall'elenco, un risultato per riga.
+     *
+     * @throws IOException se si verifica un errore di I/O.
+     * @throws ClassNotFoundException se il tipo dell'oggetto ricevuto non è atteso.
+     */
+    private void handleListResults() throws IOException, ClassNotFoundException {
+        Object table = in.readObject();
+        if (!(table instanceof String)) {
+            out.writeObject("Errore: nome tabella non valido.");
+        } else {
+            StringBuilder sb = new StringBuilder();
+            for (ResultCatalog.Entry e : session.listResults((String) table)) {
+                sb.append(e).append('\n');
+            }
+            out.writeObject("OK");
+            out.writeObject(sb.toString());
+        }
+        out.flush();
+    }
+
     /**
      * Gestisce la richiesta di caricamento di cluster da un file.
      * <p>
@@ -237,7 +613,7 @@ public class ServerOneClient extends Thread {
      */
     private void handleLearningFromFile() throws IOException, ClassNotFoundException {
         Object obj = in.readObject();
-        System.out.println("Avvio clustering con tabella: '" + tableName + "'");
+        System.out.println("Avvio clustering con tabella: '" + session.getTableName() + "'");
 
         if (!(obj instanceof String)) {
             out.writeObject("Errore: nome file non valido.");
@@ -247,10 +623,10 @@ public class ServerOneClient extends Thread {
         String filename = (String) obj;
 
         try {
-            kmeans = new QTMiner(filename);
-            if (kmeans.getC() != null) {
+            ClusterIndex clusters = session.load(filename);
+            if (clusters != null) {
                 out.writeObject("OK");
-                out.writeObject(kmeans.getC().toString());
+                out.writeObject(clusters.toString());
             } else {
                 out.writeObject("Attenzione: dati non caricati, impossibile mostrare i cluster.");
             }
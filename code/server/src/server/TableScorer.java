@@ -0,0 +1,193 @@
+package server;
+
+import database.Example;
+import database.TableCursor;
+import mining.CentroidIndex;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Assegnazione di tutte le righe di una tabella ai cluster di un risultato salvato.
+ *
+ * <p>Le righe vengono lette dal cursore a blocchi di {@link #BLOCK_SIZE}; ogni blocco
+ * è assegnato da un thread dell'esecutore con il {@link CentroidIndex} dei centroidi,
+ * mentre il thread chiamante continua a leggere. I blocchi assegnati sono scritti
+ * nell'ordine di lettura, e al più due blocchi per thread sono in attesa di scrittura:
+ * la memoria occupata non dipende dal numero di righe della tabella.</p>
+ */
+public final class TableScorer {
+    /**
+     * Righe per blocco.
+     */
+    static final int BLOCK_SIZE = 1024;
+
+    /**
+     * Destinazione delle righe assegnate.
+     */
+    interface Output {
+        /**
+         * Scrive una riga assegnata.
+         *
+         * @param row indice della riga nella lettura, a partire da 0
+         * @param values valori della riga, nell'ordine degli attributi dei centroidi
+         * @param cluster indice del cluster, -1 se nessun centroide è entro il raggio
+         * @param distance distanza dal centroide, {@link Double#NaN} se la riga non è assegnata
+         * @throws IOException se la scrittura su file fallisce
+         * @throws SQLException se la scrittura nel database fallisce
+         */
+        void write(int row, Object[] values, int cluster, double distance) throws IOException, SQLException;
+    }
+
+    private final CentroidIndex index;
+    private final int[] columns;
+    private long rows;
+    private long assigned;
+    private long millis;
+
+    /**
+     * Crea l'assegnazione con i centroidi indicati.
+     *
+     * @param index indice dei centroidi
+     * @param columns per ogni attributo dei centroidi, posizione della colonna nelle righe del cursore
+     */
+    TableScorer(CentroidIndex index, int[] columns) {
+        this.index = index;
+        this.columns = columns.clone();
+    }
+
+    /**
+     * Legge tutte le righe del cursore, le assegna ai cluster e le scrive nell'ordine
+     * di lettura.
+     *
+     * @param cursor righe da assegnare
+     * @param workers esecutore che assegna i blocchi
+     * @param parallelism numero di thread dell'esecutore
+     * @param output destinazione delle righe assegnate
+     * @throws SQLException se la lettura o la scrittura nel database falliscono
+     * @throws IOException se la scrittura su file fallisce
+     * @throws InterruptedException se il thread viene interrotto
+     */
+    void run(TableCursor cursor, ExecutorService workers, int parallelism, Output output)
+            throws SQLException, IOException, InterruptedException {
+        long start = System.nanoTime();
+        Deque<Future<Block>> pending = new ArrayDeque<>();
+        try {
+            Block block;
+            while ((block = read(cursor)) != null) {
+                Block current = block;
+                pending.add(workers.submit(() -> current.assign(index)));
+                if (pending.size() >= 2 * parallelism) {
+                    write(pending.poll(), output);
+                }
+            }
+            while (!pending.isEmpty()) {
+                write(pending.poll(), output);
+            }
+        } finally {
+            for (Future<Block> f : pending) {
+                f.cancel(true);
+            }
+        }
+        millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private Block read(TableCursor cursor) throws SQLException {
+        int first = (int) rows;
+        Object[][] values = new Object[BLOCK_SIZE][];
+        int n = 0;
+        Example row;
+        while (n < BLOCK_SIZE && (row = cursor.next()) != null) {
+            Object[] v = new Object[columns.length];
+            for (int j = 0; j < columns.length; j++) {
+                v[j] = row.get(columns[j]);
+            }
+            values[n++] = v;
+        }
+        rows += n;
+        return n == 0 ? null : new Block(first, values, n);
+    }
+
+    private void write(Future<Block> f, Output output) throws SQLException, IOException, InterruptedException {
+        Block block;
+        try {
+            block = f.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("assegnazione fallita: " + e.getCause().getMessage(), e.getCause());
+        }
+        for (int k = 0; k < block.size; k++) {
+            if (block.clusters[k] >= 0) {
+                assigned++;
+            }
+            output.write(block.first + k, block.values[k], block.clusters[k], block.distances[k]);
+        }
+    }
+
+    /**
+     * Restituisce il numero di righe lette.
+     *
+     * @return numero di righe
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Restituisce il numero di righe assegnate a un cluster.
+     *
+     * @return righe entro il raggio di un centroide
+     */
+    public long getAssigned() {
+        return assigned;
+    }
+
+    /**
+     * Restituisce la durata dell'assegnazione.
+     *
+     * @return durata in millisecondi
+     */
+    public long getMillis() {
+        return millis;
+    }
+
+    /**
+     * Restituisce una descrizione dell'assegnazione.
+     *
+     * @return righe lette, righe assegnate e durata
+     */
+    public String toString() {
+        return rows + " righe, " + assigned + " assegnate, " + millis + " ms";
+    }
+
+    /**
+     * Blocco di righe consecutive con le rispettive assegnazioni.
+     */
+    private static final class Block {
+        final int first;
+        final Object[][] values;
+        final int size;
+        final int[] clusters;
+        final double[] distances;
+
+        Block(int first, Object[][] values, int size) {
+            this.first = first;
+            this.values = values;
+            this.size = size;
+            clusters = new int[size];
+            distances = new double[size];
+        }
+
+        Block assign(CentroidIndex index) {
+            for (int k = 0; k < size; k++) {
+                clusters[k] = index.nearest(values[k], distances, k);
+            }
+            return this;
+        }
+    }
+}